@@ -5,7 +5,11 @@ import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.RetryOptions;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PraiseCounterManager;
 
+import java.util.Collection;
 import java.util.logging.Logger;
 
 import static com.google.appengine.api.taskqueue.RetryOptions.Builder.withTaskRetryLimit;
@@ -22,12 +26,55 @@ public class AsyncTaskExecutor {
 	/**
 	 * @methodtype command
 	 *
-	 * Starts a task in the default queue to save the photo with the specified ID.
+	 * Marks the photo with the specified ID to be saved. If this starts a new write-behind window, starts a task in the
+	 * default queue that saves the batch of the window; the batch carries the state of its photos, so any instance can
+	 * run the task, and further changes within the window join the batch instead of starting tasks of their own.
 	 */
 	public static void savePhotoAsync(String photoId) {
-		log.info("Calling async push task to persist PhotoId " + photoId);
-		Queue queue = QueueFactory.getDefaultQueue();
-		RetryOptions retryOptions = withTaskRetryLimit(3);
-		queue.add(TaskOptions.Builder.withUrl("/persistPhoto").param(Photo.ID, photoId).retryOptions(retryOptions));
+		PhotoManager photoManager = PhotoManager.getInstance();
+		Photo photo = photoManager.getPhotoFromId(PhotoId.getIdFromString(photoId));
+		if (photo == null) {
+			throw new IllegalArgumentException("Could not find Photo with ID " + photoId);
+		}
+
+		String batchId = photoManager.savePhotoLater(photo);
+		if (batchId != null) {
+			long delay = photoManager.getPhotoBatchDelay();
+			log.info("Calling async push task to persist photo batch " + batchId + " in " + delay + " ms");
+			Queue queue = QueueFactory.getDefaultQueue();
+			RetryOptions retryOptions = withTaskRetryLimit(3);
+			queue.add(TaskOptions.Builder.withUrl("/persistPhoto").param(PersistPhotoAgent.BATCH, batchId).
+					countdownMillis(delay).retryOptions(retryOptions));
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Marks the given photos to be saved again, e.g. after a write of them failed.
+	 */
+	public static void savePhotosAsync(Collection<Photo> photos) {
+		for (Photo photo : photos) {
+			savePhotoAsync(photo.getId().asString());
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Counts the vote for the specified photo. If this starts a new write-behind window, starts a task in the default
+	 * queue that writes the batch of votes of the window; the batch is kept in the memcache, so any instance can run
+	 * the task, and it is written even if no further vote reaches this instance.
+	 */
+	public static void savePraiseAsync(Photo photo, int value) {
+		PraiseCounterManager praiseCounterManager = PraiseCounterManager.getInstance();
+		String batchId = praiseCounterManager.addPraise(photo, value);
+		if (batchId != null) {
+			long delay = praiseCounterManager.getPraiseBatchDelay();
+			log.info("Calling async push task to persist praise batch " + batchId + " in " + delay + " ms");
+			TaskOptions task = TaskOptions.Builder.withUrl("/persistPraise").param(PersistPraiseAgent.BATCH, batchId).
+					countdownMillis(delay).retryOptions(withTaskRetryLimit(3));
+			QueueFactory.getDefaultQueue().add(task);
+		}
 	}
 }
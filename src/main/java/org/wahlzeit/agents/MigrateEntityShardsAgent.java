@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.agents;
+
+import org.wahlzeit.model.Client;
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.Tag;
+import org.wahlzeit.services.EntityShardMigrator;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.logging.Logger;
+
+/**
+ * An agent class to move all photos, tags, and clients to their shards after the number of shards has been changed,
+ * see EntityShards. Photos that are still stored under an allocated id are keyed by their PhotoId as well.
+ */
+public class MigrateEntityShardsAgent extends Agent {
+
+	public static final String NAME = "migrateEntityShards";
+
+	private static final Logger log = Logger.getLogger(MigrateEntityShardsAgent.class.getName());
+
+	public MigrateEntityShardsAgent() {
+		initialize(NAME);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doRun() {
+		EntityShardMigrator migrator = new EntityShardMigrator();
+		int noMovedEntities = migrator.migrate(Photo.class, PhotoManager.getInstance());
+		noMovedEntities += migrator.migrate(Tag.class);
+		noMovedEntities += migrator.migrate(Client.class);
+
+		log.info(LogBuilder.createSystemMessage().addAction("migrate entity shards")
+				.addParameter("number of moved entities", noMovedEntities).toString());
+	}
+
+}
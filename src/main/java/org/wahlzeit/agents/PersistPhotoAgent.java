@@ -22,23 +22,35 @@ public class PersistPhotoAgent extends HttpServlet {
 
 	private static final Logger log = Logger.getLogger(PersistPhotoAgent.class.getName());
 
+	/**
+	 * Parameter with the id of a batch of pending photos, see PhotoManager.savePhotoLater()
+	 */
+	public static final String BATCH = "batch";
+
 	/**
 	 * @methodtype command
 	 */
 	protected void doPost(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
 
+		PhotoManager photoManager = PhotoManager.getInstance();
+		String batchId = request.getParameter(BATCH);
 		String id = request.getParameter(Photo.ID);
-		log.config(LogBuilder.createSystemMessage().addParameter("Try to persist PhotoId", id).toString());
-		if (id != null && !"".equals(id)) {
-			Photo photo = PhotoManager.getInstance().getPhoto(id);
-			if (photo != null) {
-				PhotoManager.getInstance().savePhoto(photo);
-				log.config(LogBuilder.createSystemMessage().addMessage("Photo saved.").toString());
-			} else {
+		if (batchId != null && !"".equals(batchId)) {
+			log.config(LogBuilder.createSystemMessage().addParameter("Persist photo batch", batchId).toString());
+			photoManager.savePhotoBatch(batchId);
+		} else if (id != null && !"".equals(id)) {
+			// tasks enqueued before photos were written in batches
+			log.config(LogBuilder.createSystemMessage().addParameter("Try to persist PhotoId", id).toString());
+			Photo photo = photoManager.getPhoto(id);
+			if (photo == null) {
 				response.setStatus(299);
 				throw new IllegalArgumentException("Could not find Photo with ID " + id);
 			}
+			photoManager.savePhoto(photo);
+		} else {
+			log.config(LogBuilder.createSystemMessage().addAction("Persist pending photos").toString());
+			AsyncTaskExecutor.savePhotosAsync(photoManager.savePendingPhotos());
 		}
 		response.setStatus(200);
 	}
@@ -0,0 +1,65 @@
+package org.wahlzeit.agents;
+
+import org.wahlzeit.model.Photo;
+import org.wahlzeit.model.PhotoId;
+import org.wahlzeit.model.PraiseCounterManager;
+import org.wahlzeit.services.LogBuilder;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Servlet to write batches of votes to their PraiseCounterShards.
+ */
+public class PersistPraiseAgent extends HttpServlet {
+
+	private static final Logger log = Logger.getLogger(PersistPraiseAgent.class.getName());
+
+	/**
+	 * Parameter with the id of a batch of votes, see PraiseCounterManager.addPraise()
+	 */
+	public static final String BATCH = "batch";
+
+	/**
+	 * Header with the name of the current task, which stays the same for its retries
+	 */
+	public static final String TASK_NAME_HEADER = "X-AppEngine-TaskName";
+
+	/**
+	 * @methodtype command
+	 */
+	protected void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+
+		PraiseCounterManager praiseCounterManager = PraiseCounterManager.getInstance();
+		String batchId = request.getParameter(BATCH);
+		String[] ids = request.getParameterValues(Photo.ID);
+		if (batchId != null && !"".equals(batchId)) {
+			log.config(LogBuilder.createSystemMessage().addParameter("Persist praise batch", batchId).toString());
+			praiseCounterManager.savePraiseBatch(batchId);
+		} else if (ids != null) {
+			// tasks enqueued before votes were collected in memcache batches carry the votes themselves
+			String[] praiseSums = request.getParameterValues(Photo.PRAISE);
+			String[] noVotes = request.getParameterValues(Photo.NO_VOTES);
+			Map<PhotoId, long[]> praise = new LinkedHashMap<PhotoId, long[]>();
+			for (int i = 0; i < ids.length; i++) {
+				praise.put(PhotoId.getIdFromString(ids[i]),
+						new long[] { Long.parseLong(praiseSums[i]), Long.parseLong(noVotes[i]) });
+			}
+
+			log.config(LogBuilder.createSystemMessage().addParameter("Persist praise of photos", ids.length).
+					toString());
+			praiseCounterManager.savePraise(request.getHeader(TASK_NAME_HEADER), praise);
+		} else {
+			log.config(LogBuilder.createSystemMessage().addAction("Persist pending praise").toString());
+			praiseCounterManager.savePendingPraise();
+		}
+		response.setStatus(200);
+	}
+}
@@ -20,14 +20,18 @@
 
 package org.wahlzeit.handlers;
 
+import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.Client;
 import org.wahlzeit.model.ModelConfig;
+import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.ConfigDir;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.utils.HtmlUtil;
+import org.wahlzeit.webparts.WebFragment;
 import org.wahlzeit.webparts.WebPart;
+import org.wahlzeit.webparts.Writable;
 
 /**
  * A superclass for handling web pages.
@@ -47,11 +51,21 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 	public WebPart makeWebPage(UserSession us) {
 		WebPart result = createWebPart(us);
 
-		ConfigDir staticDir = SysConfig.getStaticDir();
-		String stylesheetUrl = HtmlUtil.asPath(staticDir.getRelativeConfigFileName("wahlzeit.css"));
-		result.addString("stylesheet", stylesheetUrl);
-		String javascriptUrl = HtmlUtil.asPath(staticDir.getRelativeConfigFileName("wahlzeit.js"));
-		result.addString("javascript", javascriptUrl);
+		Writable stylesheetUrl = getFragment(us, "stylesheet", null, null);
+		if (stylesheetUrl == null) {
+			ConfigDir staticDir = SysConfig.getStaticDir();
+			String url = HtmlUtil.asPath(staticDir.getRelativeConfigFileName("wahlzeit.css"));
+			stylesheetUrl = putFragment(us, "stylesheet", null, null, url);
+		}
+		result.addWritable("stylesheet", stylesheetUrl);
+
+		Writable javascriptUrl = getFragment(us, "javascript", null, null);
+		if (javascriptUrl == null) {
+			ConfigDir staticDir = SysConfig.getStaticDir();
+			String url = HtmlUtil.asPath(staticDir.getRelativeConfigFileName("wahlzeit.js"));
+			javascriptUrl = putFragment(us, "javascript", null, null, url);
+		}
+		result.addWritable("javascript", javascriptUrl);
 
 		makeWebPageFrame(us, result);
 		makeWebPageMenu(us, result);
@@ -65,21 +79,42 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 	 */
 	protected void makeWebPageFrame(UserSession us, WebPart page) {
 		Client client = us.getClient();
-		page.addString("title", client.getLanguageConfiguration().getPageTitle());
+		ModelConfig config = client.getLanguageConfiguration();
+
+		Writable title = getFragment(us, "title", null, null);
+		if (title == null) {
+			title = putFragment(us, "title", null, null, config.getPageTitle());
+		}
+		page.addWritable("title", title);
 
 		makeWebPageHeading(us, page);
 
-		page.addString("footer", client.getLanguageConfiguration().getPageFooter(client.getPhotoSize()));
-		page.addString("mission", client.getLanguageConfiguration().getPageMission());
+		PhotoSize photoSize = client.getPhotoSize();
+		Writable footer = getFragment(us, "footer", null, photoSize);
+		if (footer == null) {
+			footer = putFragment(us, "footer", null, photoSize, config.getPageFooter(photoSize));
+		}
+		page.addWritable("footer", footer);
+
+		Writable mission = getFragment(us, "mission", null, null);
+		if (mission == null) {
+			mission = putFragment(us, "mission", null, null, config.getPageMission());
+		}
+		page.addWritable("mission", mission);
 	}
 
 	/**
 	 *
 	 */
 	protected void makeWebPageHeading(UserSession us, WebPart page) {
-		Language langValue = us.getClient().getLanguage();
-		String heading = HtmlUtil.asImg(getHeadingImageAsRelativeResourcePathString(langValue));
-		heading = HtmlUtil.asHref(us.getSiteUrl(), heading);
+		// only the image depends on the language alone, the link depends on the site URL of the request
+		WebFragment headingImage = getFragment(us, "headingImage", null, null);
+		if (headingImage == null) {
+			Language langValue = us.getClient().getLanguage();
+			String image = HtmlUtil.asImg(getHeadingImageAsRelativeResourcePathString(langValue));
+			headingImage = putFragment(us, "headingImage", null, null, image);
+		}
+		String heading = HtmlUtil.asHref(us.getSiteUrl(), headingImage.asString());
 		page.addString("heading", heading);
 	}
 
@@ -95,6 +130,13 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 	 */
 	protected void makeWebPageMenu(UserSession us, WebPart page) {
 		Client client = us.getClient();
+		AccessRights rights = client.getAccessRights();
+		Writable cachedMenu = getFragment(us, "menu", rights, null);
+		if (cachedMenu != null) {
+			page.addWritable("menu", cachedMenu);
+			return;
+		}
+
 		String menu = "";
 		ModelConfig config = client.getLanguageConfiguration();
 
@@ -108,7 +150,7 @@ public abstract class AbstractWebPageHandler extends AbstractWebPartHandler impl
 			menu = config.getGuestMenu();
 		}
 
-		page.addString("menu", menu.toString());
+		page.addWritable("menu", putFragment(us, "menu", rights, null, menu));
 	}
 
 	/**
@@ -32,11 +32,14 @@ import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SysConfig;
 import org.wahlzeit.utils.HtmlUtil;
 import org.wahlzeit.utils.StringUtil;
+import org.wahlzeit.webparts.WebFragment;
 import org.wahlzeit.webparts.WebPart;
 import org.wahlzeit.webparts.WebPartTemplate;
 import org.wahlzeit.webparts.WebPartTemplateService;
+import org.wahlzeit.webparts.Writable;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -74,9 +77,64 @@ public abstract class AbstractWebPartHandler implements WebPartHandler {
 	 * @methodtype factory
 	 */
 	protected final WebPart createWebPart(UserSession us, String name) {
+		return new WebPart(getTemplate(us, name));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected final WebPartTemplate getTemplate(UserSession us, String name) {
 		WebPartTemplateService wpts = WebPartTemplateService.getInstance();
-		WebPartTemplate tmpl = wpts.getTemplate(us.getClient().getLanguageConfiguration().getLanguageCode(), name);
-		return new WebPart(tmpl);
+		return wpts.getTemplate(us.getClient().getLanguageConfiguration().getLanguageCode(), name);
+	}
+
+	/**
+	 * Returns the template without values, rendered once per language, see WebFragmentCache.
+	 *
+	 * @methodtype factory
+	 */
+	protected final Writable createStaticWebPart(UserSession us, String name) {
+		ModelConfig config = us.getClient().getLanguageConfiguration();
+		WebPartTemplate tmpl = getTemplate(us, name);
+		String key = WebFragmentCache.asKey(name, config, null, null);
+		WebFragmentCache fragmentCache = WebFragmentCache.getInstance();
+		WebFragment result = fragmentCache.get(key, config, tmpl);
+		if (result == null) {
+			try {
+				result = WebFragment.render(new WebPart(tmpl));
+			} catch (IOException ex) {
+				// a StringWriter does not throw
+				throw new IllegalStateException(ex);
+			}
+			fragmentCache.put(key, config, tmpl, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the cached fragment of the client's language with the given name, or null if it is not cached yet or
+	 * outdated. Rights and size are null if the fragment does not depend on them.
+	 *
+	 * @methodtype get
+	 */
+	protected final WebFragment getFragment(UserSession us, String name, AccessRights rights, PhotoSize size) {
+		ModelConfig config = us.getClient().getLanguageConfiguration();
+		String key = WebFragmentCache.asKey(name, config, rights, size);
+		return WebFragmentCache.getInstance().get(key, config, null);
+	}
+
+	/**
+	 * Caches the text as fragment of the client's language, see getFragment(), and returns the fragment.
+	 *
+	 * @methodtype command
+	 */
+	protected final WebFragment putFragment(UserSession us, String name, AccessRights rights, PhotoSize size,
+			String text) {
+		ModelConfig config = us.getClient().getLanguageConfiguration();
+		String key = WebFragmentCache.asKey(name, config, rights, size);
+		WebFragment result = new WebFragment(text);
+		WebFragmentCache.getInstance().put(key, config, null, result);
+		return result;
 	}
 
 	/**
@@ -20,6 +20,7 @@
 
 package org.wahlzeit.handlers;
 
+import org.wahlzeit.agents.AsyncTaskExecutor;
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.Client;
 import org.wahlzeit.model.Photo;
@@ -81,7 +82,7 @@ public class PraisePhotoFormHandler extends AbstractWebFormHandler {
 		if (!StringUtil.isNullOrEmptyString(praise)) {
 			if (!us.hasPraisedPhoto(photo)) {
 				int value = Integer.parseInt(praise);
-				photo.addToPraise(value);
+				AsyncTaskExecutor.savePraiseAsync(photo, value);
 				client.addPraisedPhotoId(photo.getId());
 				us.addProcessedPhoto(photo);
 				wasPraised = true;
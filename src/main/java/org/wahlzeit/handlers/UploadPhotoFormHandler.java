@@ -76,12 +76,14 @@ public class UploadPhotoFormHandler extends AbstractWebFormHandler {
 			PhotoManager pm = PhotoManager.getInstance();
 			String fileName = us.getAsString(args, "fileName");
 			User user = (User) us.getClient();
-			Image uploadedImage = user.getUploadedImage();
+			Image uploadedImage = (Image) args.get(Photo.UPLOADED_IMAGE);
 			Photo photo = pm.createPhoto(fileName, uploadedImage);
 
 			user.addPhoto(photo);
 
 			photo.setTags(new Tags(tags));
+			// the scaled images only exist in this instance's memory, the photo itself is saved by any instance
+			pm.saveScaledImages(photo);
 
 			log.config(LogBuilder.createUserMessage().
 					addAction("Upload Photo").
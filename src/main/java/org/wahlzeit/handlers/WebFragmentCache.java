@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.handlers;
+
+import org.wahlzeit.model.AccessRights;
+import org.wahlzeit.model.ModelConfig;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.webparts.WebFragment;
+import org.wahlzeit.webparts.WebPartTemplate;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The WebFragmentCache holds parts of pages that depend only on the language, the access rights and the photo size
+ * of a client, pre-rendered as WebFragments. A fragment is stale once the ModelConfig of its language is replaced or
+ * changed, or once its template is reloaded; stale fragments are not returned, the caller renders them again.
+ */
+public class WebFragmentCache {
+
+	/**
+	 *
+	 */
+	protected static WebFragmentCache instance = new WebFragmentCache();
+
+	/**
+	 *
+	 */
+	protected final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * @methodtype get
+	 */
+	public static WebFragmentCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static void setInstance(WebFragmentCache cache) {
+		instance = cache;
+	}
+
+	/**
+	 * Returns the key of a fragment; rights and size are null if the fragment does not depend on them.
+	 *
+	 * @methodtype conversion
+	 */
+	public static String asKey(String name, ModelConfig config, AccessRights rights, PhotoSize size) {
+		return name + "/" + config.getLanguageCode() + "/" + rights + "/" + size;
+	}
+
+	/**
+	 * Returns the fragment if it was rendered from the given config and template (null for none), otherwise null.
+	 *
+	 * @methodtype get
+	 */
+	public WebFragment get(String key, ModelConfig config, WebPartTemplate template) {
+		Entry entry = entries.get(key);
+		if (entry == null || !entry.isRenderedFrom(config, template)) {
+			return null;
+		}
+		return entry.fragment;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void put(String key, ModelConfig config, WebPartTemplate template, WebFragment fragment) {
+		entries.put(key, new Entry(fragment, config, template));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * A fragment together with what it was rendered from
+	 */
+	protected static class Entry {
+
+		/**
+		 *
+		 */
+		protected final WebFragment fragment;
+		protected final ModelConfig config;
+		protected final long configVersion;
+		protected final WebPartTemplate template;
+
+		/**
+		 * @methodtype constructor
+		 */
+		protected Entry(WebFragment myFragment, ModelConfig myConfig, WebPartTemplate myTemplate) {
+			fragment = myFragment;
+			config = myConfig;
+			configVersion = myConfig.getVersion();
+			template = myTemplate;
+		}
+
+		/**
+		 * @methodtype boolean-query
+		 */
+		protected boolean isRenderedFrom(ModelConfig otherConfig, WebPartTemplate otherTemplate) {
+			return config == otherConfig && configVersion == otherConfig.getVersion() && template == otherTemplate;
+		}
+	}
+
+}
@@ -23,6 +23,7 @@ package org.wahlzeit.handlers;
 import org.wahlzeit.services.LogBuilder;
 
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -42,6 +43,11 @@ public class WebPartHandlerManager {
 	 */
 	protected Map<String, WebPartHandler> handler = new HashMap<String, WebPartHandler>();
 
+	/**
+	 * Name each handler has first been added under, e.g. to tag its metrics
+	 */
+	protected Map<WebPartHandler, String> handlerNames = new IdentityHashMap<WebPartHandler, String>();
+
 	/**
 	 *
 	 */
@@ -106,6 +112,9 @@ public class WebPartHandlerManager {
 	 */
 	public WebPartHandler addWebPartHandler(String name, WebPartHandler myHandler) {
 		handler.put(name, myHandler);
+		if (!handlerNames.containsKey(myHandler)) {
+			handlerNames.put(myHandler, name);
+		}
 		log.config(LogBuilder.createSystemMessage().
 				addAction("add WebPartHandler").
 				addParameter("name", name).
@@ -113,6 +122,16 @@ public class WebPartHandlerManager {
 		return myHandler;
 	}
 
+	/**
+	 * Returns the name the handler has first been added under, or its class name if it has not been added.
+	 *
+	 * @methodtype get
+	 */
+	public String getNameOf(WebPartHandler myHandler) {
+		String result = handlerNames.get(myHandler);
+		return result != null ? result : myHandler.getClass().getSimpleName();
+	}
+
 	/**
 	 *
 	 */
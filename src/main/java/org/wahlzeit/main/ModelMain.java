@@ -25,15 +25,20 @@ import org.wahlzeit.model.ChurchPhotoManager;
 import org.wahlzeit.model.GlobalsManager;
 import org.wahlzeit.model.PhotoCaseManager;
 import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.model.PraiseCounterManager;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.UserManager;
 import org.wahlzeit.model.persistence.DatastoreAdapter;
 import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.EntityShards;
 import org.wahlzeit.services.LogBuilder;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -45,6 +50,11 @@ public abstract class ModelMain extends AbstractMain {
 	private static final Logger log = Logger.getLogger(ModelMain.class
 			.getName());
 
+	/**
+	 * System property with the number of entity shards, see getNoEntityShards()
+	 */
+	public static final String NO_ENTITY_SHARDS_PROPERTY = "org.wahlzeit.noEntityShards";
+
 	/**
 	 *
 	 */
@@ -52,10 +62,17 @@ public abstract class ModelMain extends AbstractMain {
 		super.startUp(rootDir);
 		log.info("AbstractMain.startUp completed");
 
+		log.config(LogBuilder.createSystemMessage()
+				.addAction("configure entity shards").toString());
+		EntityShards.setInstance(new EntityShards(getNoEntityShards()));
+
 		log.config(LogBuilder.createSystemMessage()
 				.addAction("load image storage").toString());
-		// GcsAdapter.Builder gcsAdapterBuilder = new GcsAdapter.Builder();
-		ImageStorage.setInstance(new DatastoreAdapter());
+		ImageStorage.setInstance(createImageStorage());
+
+		log.config(LogBuilder.createSystemMessage()
+				.addAction("configure upload sizes").toString());
+		PhotoManager.getInstance().setUploadSizes(getUploadPhotoSizes());
 
 		log.config(LogBuilder.createSystemMessage().addAction("load globals")
 				.toString());
@@ -74,6 +91,32 @@ public abstract class ModelMain extends AbstractMain {
 		ChurchPhotoManager.getInstance().init();
 	}
 
+	/**
+	 * Returns the number of entity groups the entities are spread over, as set by the system property
+	 * NO_ENTITY_SHARDS_PROPERTY in appengine-web.xml. After changing it, run the MigrateEntityShardsAgent.
+	 */
+	protected int getNoEntityShards() {
+		return Integer.getInteger(NO_ENTITY_SHARDS_PROPERTY, EntityShards.DEFAULT_NO_SHARDS);
+	}
+
+	/**
+	 * Returns the sizes that are scaled when a photo is uploaded. Rarely requested sizes are scaled from the largest
+	 * size of the photo on first request and persisted then.
+	 */
+	protected Set<PhotoSize> getUploadPhotoSizes() {
+		return EnumSet.of(PhotoSize.THUMB, PhotoSize.MEDIUM);
+	}
+
+	/**
+	 * Returns the storage for images; alternatives are the GcsAdapter and, outside of App Engine, the
+	 * FileSystemAdapter.
+	 *
+	 * @methodtype factory
+	 */
+	protected ImageStorage createImageStorage() {
+		return new DatastoreAdapter();
+	}
+
 	/**
 	 *
 	 */
@@ -89,6 +132,7 @@ public abstract class ModelMain extends AbstractMain {
 	public void saveAll() throws IOException {
 		PhotoCaseManager.getInstance().savePhotoCases();
 		PhotoManager.getInstance().savePhotos();
+		PraiseCounterManager.getInstance().savePendingPraise();
 		UserManager.getInstance().saveClients();
 		GlobalsManager.getInstance().saveGlobals();
 	}
@@ -20,17 +20,29 @@
 
 package org.wahlzeit.main;
 
+import com.google.appengine.api.ThreadManager;
+import com.google.apphosting.api.ApiProxy;
+import org.wahlzeit.agents.AsyncTaskExecutor;
 import org.wahlzeit.handlers.*;
 import org.wahlzeit.model.AccessRights;
 import org.wahlzeit.model.EnglishModelConfig;
 import org.wahlzeit.model.GermanModelConfig;
+import org.wahlzeit.model.ImageCache;
 import org.wahlzeit.model.LanguageConfigs;
+import org.wahlzeit.model.PhotoManager;
+import org.wahlzeit.model.PraiseCounterManager;
+import org.wahlzeit.services.AsyncJsonLogHandler;
+import org.wahlzeit.services.AsyncJsonLogHandler.OverflowPolicy;
 import org.wahlzeit.services.ConfigDir;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SysConfig;
+import org.wahlzeit.services.metrics.Gauge;
+import org.wahlzeit.services.metrics.MetricsRegistry;
 import org.wahlzeit.webparts.WebPartTemplateService;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 /**
@@ -40,6 +52,13 @@ public class ServiceMain extends ModelMain {
 
 	private static final Logger log = Logger.getLogger(ServiceMain.class.getName());
 
+	/**
+	 * System properties of the log, see configureLogHandler()
+	 */
+	public static final String JSON_LOG_PROPERTY = "org.wahlzeit.log.json";
+	public static final String LOG_CAPACITY_PROPERTY = "org.wahlzeit.log.capacity";
+	public static final String LOG_OVERFLOW_POLICY_PROPERTY = "org.wahlzeit.log.overflowPolicy";
+
 	/**
 	 *
 	 */
@@ -55,6 +74,16 @@ public class ServiceMain extends ModelMain {
 	 */
 	protected boolean isInProduction = false;
 
+	/**
+	 * Logger of all Wahlzeit classes, kept here so that its handler configuration is not garbage collected
+	 */
+	protected Logger appLogger = Logger.getLogger("org.wahlzeit");
+
+	/**
+	 * Handler of appLogger, null if records are logged synchronously by the default handlers
+	 */
+	protected AsyncJsonLogHandler logHandler = null;
+
 	/**
 	 *
 	 */
@@ -69,6 +98,10 @@ public class ServiceMain extends ModelMain {
 		synchronized (instance) {
 			instance.isToStop = true;
 		}
+
+		log.config(LogBuilder.createSystemMessage().addAction("Save pending photos and praise").toString());
+		AsyncTaskExecutor.savePhotosAsync(PhotoManager.getInstance().savePendingPhotos());
+		PraiseCounterManager.getInstance().savePendingPraise();
 	}
 
 	/**
@@ -91,6 +124,8 @@ public class ServiceMain extends ModelMain {
 	public void startUp(boolean inProduction, String rootDir) throws Exception {
 		isInProduction = inProduction;
 
+		configureLogHandler();
+
 		log.config(LogBuilder.createSystemMessage().addAction("Start up ModelMain").toString());
 		super.startUp(rootDir);
 
@@ -103,15 +138,82 @@ public class ServiceMain extends ModelMain {
 		log.config(LogBuilder.createSystemMessage().addAction("Configure LanguageModels").toString());
 		configureLanguageModels();
 
+		log.config(LogBuilder.createSystemMessage().addAction("Configure Metrics").toString());
+		configureMetrics();
+
 		log.config(LogBuilder.createSystemMessage().addMessage("StartUp complete.").toString());
 	}
 
+	/**
+	 * If the system property JSON_LOG_PROPERTY is true, writes the log of all Wahlzeit classes as JSON from a
+	 * background thread instead of the default handlers, which keep the level and request of each record on App
+	 * Engine. The buffer capacity and the overflow policy are read from the system properties LOG_CAPACITY_PROPERTY
+	 * and LOG_OVERFLOW_POLICY_PROPERTY. Where background threads are not available, e.g. on automatically scaled App
+	 * Engine instances, the default handlers stay in place.
+	 */
+	public void configureLogHandler() {
+		if (!Boolean.getBoolean(JSON_LOG_PROPERTY)) {
+			return;
+		}
+
+		AsyncJsonLogHandler handler;
+		try {
+			int capacity = Integer.getInteger(LOG_CAPACITY_PROPERTY, AsyncJsonLogHandler.DEFAULT_CAPACITY);
+			String policy = System.getProperty(LOG_OVERFLOW_POLICY_PROPERTY, OverflowPolicy.DROP.name());
+			handler = new AsyncJsonLogHandler(capacity, OverflowPolicy.valueOf(policy));
+		} catch (IllegalArgumentException ex) {
+			log.warning(LogBuilder.createSystemMessage().addException("Invalid log configuration", ex).toString());
+			return;
+		}
+
+		if (!handler.start(getLogThreadFactory())) {
+			handler.close();
+			log.config(LogBuilder.createSystemMessage().addMessage("Logging synchronously").toString());
+			return;
+		}
+
+		logHandler = handler;
+		appLogger.addHandler(logHandler);
+		appLogger.setUseParentHandlers(false);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected ThreadFactory getLogThreadFactory() {
+		if (ApiProxy.getCurrentEnvironment() != null) {
+			return ThreadManager.backgroundThreadFactory();
+		}
+		return Executors.defaultThreadFactory();
+	}
+
+	/**
+	 * Writes all pending log records and restores the default handlers.
+	 */
+	public void stopLogHandler() {
+		if (logHandler == null) {
+			return;
+		}
+
+		appLogger.removeHandler(logHandler);
+		appLogger.setUseParentHandlers(true);
+		logHandler.close();
+		logHandler = null;
+	}
+
 	/**
 	 *
 	 */
 	public void configureWebPartTemplateService() {
 		ConfigDir templatesDir = SysConfig.getTemplatesDir();
-		WebPartTemplateService.getInstance().setTemplatesDir(templatesDir);
+		WebPartTemplateService templateService = WebPartTemplateService.getInstance();
+		templateService.setTemplatesDir(templatesDir);
+
+		// load all templates now, so the first requests of a new instance do not read files
+		templateService.preloadTemplates();
+		if (!isInProduction) {
+			templateService.startReloading(WebPartTemplateService.DEFAULT_RELOAD_CHECK_INTERVAL);
+		}
 	}
 
 	/**
@@ -213,6 +315,51 @@ public class ServiceMain extends ModelMain {
 		LanguageConfigs.put(Language.GERMAN, new GermanModelConfig());
 	}
 
+	/**
+	 * Registers gauges for the caches; latencies and counters are registered where they are measured.
+	 */
+	public void configureMetrics() {
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		registry.registerGauge("imageCache.bytes", new Gauge() {
+			public long getValue() {
+				return getImageCache().getBytes();
+			}
+		});
+		registry.registerGauge("imageCache.heapHits", new Gauge() {
+			public long getValue() {
+				return getImageCache().getNoHeapHits();
+			}
+		});
+		registry.registerGauge("imageCache.offHeapHits", new Gauge() {
+			public long getValue() {
+				return getImageCache().getNoOffHeapHits();
+			}
+		});
+		registry.registerGauge("imageCache.misses", new Gauge() {
+			public long getValue() {
+				return getImageCache().getNoMisses();
+			}
+		});
+		registry.registerGauge("webFragmentCache.size", new Gauge() {
+			public long getValue() {
+				return WebFragmentCache.getInstance().size();
+			}
+		});
+		registry.registerGauge("log.dropped", new Gauge() {
+			public long getValue() {
+				AsyncJsonLogHandler handler = logHandler;
+				return handler != null ? handler.getNoDropped() : 0;
+			}
+		});
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected ImageCache getImageCache() {
+		return PhotoManager.getInstance().getImageCache();
+	}
+
 	/**
 	 *
 	 */
@@ -220,7 +367,12 @@ public class ServiceMain extends ModelMain {
 		//AgentManager am = AgentManager.getInstance();
 		//am.stopAllThreads();
 
-		super.shutDown();
+		try {
+			super.shutDown();
+		} finally {
+			// after saving, so that its records are written, too
+			stopLogHandler();
+		}
 	}
 
 }
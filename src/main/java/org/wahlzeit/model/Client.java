@@ -26,9 +26,11 @@ import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Parent;
 import org.wahlzeit.services.EmailAddress;
+import org.wahlzeit.services.EntityShards;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.ObjectManager;
 import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.ShardedEntity;
 
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -39,7 +41,7 @@ import java.util.List;
  * administrator clients.
  */
 @Entity
-public abstract class Client implements Serializable, Persistent {
+public abstract class Client implements Serializable, Persistent, ShardedEntity {
 
 	public static final String ID = "id";
 	public static final String NICK_NAME = "nickName";
@@ -90,6 +92,7 @@ public abstract class Client implements Serializable, Persistent {
 	protected void initialize(String id, String nickName, EmailAddress emailAddress, AccessRights accessRights,
 							  Client previousClient) {
 		this.id = id;
+		this.parent = EntityShards.getInstance().getRootKey(id);
 		this.nickName = nickName;
 		this.accessRights = accessRights;
 		this.emailAddress = emailAddress;
@@ -113,6 +116,30 @@ public abstract class Client implements Serializable, Persistent {
 		return id;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	public String getShardingKey() {
+		return id;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	public Key getParent() {
+		return parent;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	@Override
+	public void setParent(Key newParent) {
+		parent = newParent;
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -4,6 +4,7 @@ import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.ObjectManager;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -160,6 +161,13 @@ public abstract class ClientManager extends ObjectManager {
 		updateObjects(idClientMap.values());
 	}
 
+	/**
+	 * @methodtype command
+	 */
+	public void saveClients(Collection<? extends Client> clients) {
+		updateObjects(clients);
+	}
+
 
 	// client ID methods -----------------------------------------------------------------------------------------------
 
@@ -0,0 +1,399 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.services.EvictionPolicy;
+import org.wahlzeit.services.LruEvictionPolicy;
+import org.wahlzeit.services.OffHeapByteCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe in-memory cache for scaled images with two tiers, each bounded by its number of image bytes. Small,
+ * hot sizes like thumbnails are kept as Image objects on the heap. Larger sizes are kept off the heap, see
+ * OffHeapByteCache, so that they do not add to the work of the garbage collector; small sizes evicted from the heap
+ * go there as well. Misses are to be served from the ImageStorage. Images are keyed the same way the ImageStorage
+ * names them, i.e. by photo id and photo size.
+ */
+public class ImageCache {
+
+	/**
+	 *
+	 */
+	public static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+	public static final long DEFAULT_MAX_OFF_HEAP_BYTES = 32L * 1024 * 1024;
+	public static final PhotoSize DEFAULT_MAX_HEAP_SIZE = PhotoSize.THUMB;
+
+	/**
+	 * Bound and eviction policy of the heap tier
+	 */
+	protected final long maxBytes;
+	protected final EvictionPolicy<String> evictionPolicy;
+
+	/**
+	 * Off-heap tier, null if there is none; larger sizes than maxHeapSize are cached there
+	 */
+	protected final OffHeapByteCache offHeapImages;
+	protected final PhotoSize maxHeapSize;
+
+	/**
+	 * Heap tier, guarded by this
+	 */
+	protected Map<String, Image> images = new HashMap<String, Image>();
+	protected long totalBytes = 0;
+
+	/**
+	 *
+	 */
+	protected final AtomicLong noHeapHits = new AtomicLong();
+	protected final AtomicLong noOffHeapHits = new AtomicLong();
+	protected final AtomicLong noMisses = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public ImageCache() {
+		this(DEFAULT_MAX_BYTES, new LruEvictionPolicy<String>(),
+				new OffHeapByteCache(DEFAULT_MAX_OFF_HEAP_BYTES, new LruEvictionPolicy<String>()),
+				DEFAULT_MAX_HEAP_SIZE);
+	}
+
+	/**
+	 * Creates a cache with a heap tier only.
+	 *
+	 * @methodtype constructor
+	 */
+	public ImageCache(long myMaxBytes, EvictionPolicy<String> myEvictionPolicy) {
+		this(myMaxBytes, myEvictionPolicy, null, null);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public ImageCache(long myMaxBytes, EvictionPolicy<String> myEvictionPolicy, OffHeapByteCache myOffHeapImages,
+			PhotoSize myMaxHeapSize) {
+		if (myMaxBytes <= 0) {
+			throw new IllegalArgumentException("cache bound must be positive");
+		}
+		if (myEvictionPolicy == null) {
+			throw new IllegalArgumentException("eviction policy must not be null");
+		}
+		if (myOffHeapImages != null && myMaxHeapSize == null) {
+			throw new IllegalArgumentException("largest size on the heap must be given for an off-heap tier");
+		}
+
+		maxBytes = myMaxBytes;
+		evictionPolicy = myEvictionPolicy;
+		offHeapImages = myOffHeapImages;
+		maxHeapSize = myMaxHeapSize;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Image get(String photoIdAsString, PhotoSize size) {
+		String key = asKey(photoIdAsString, size);
+		synchronized (this) {
+			Image result = images.get(key);
+			if (result != null) {
+				evictionPolicy.recordAccess(key);
+				noHeapHits.incrementAndGet();
+				return result;
+			}
+		}
+
+		byte[] imageData = offHeapImages != null ? offHeapImages.get(key) : null;
+		if (imageData == null) {
+			noMisses.incrementAndGet();
+			return null;
+		}
+
+		noOffHeapHits.incrementAndGet();
+		Image result = ImagesServiceFactory.makeImage(imageData);
+		if (isKeptOnHeap(size)) {
+			// hot again, back to the heap
+			put(photoIdAsString, size, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the image if it is in the heap tier, and null otherwise. Only hits are counted, so that the caller can
+	 * go on with openOffHeapChannel() or another source without the request being counted as a miss.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized Image getFromHeap(String photoIdAsString, PhotoSize size) {
+		String key = asKey(photoIdAsString, size);
+		Image result = images.get(key);
+		if (result != null) {
+			evictionPolicy.recordAccess(key);
+			noHeapHits.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the length of the image if it can be read with openOffHeapChannel(), and -1 otherwise. Does not count a
+	 * hit or miss.
+	 *
+	 * @methodtype get
+	 */
+	public long getOffHeapLength(String photoIdAsString, PhotoSize size) {
+		return isKeptOnHeap(size) ? -1 : offHeapImages.getLength(asKey(photoIdAsString, size));
+	}
+
+	/**
+	 * Opens a channel that reads the image from the off-heap tier, starting at the given position, block by block
+	 * and without copying it into a byte array or Image first. Returns null if the image is not in that tier; sizes
+	 * that are kept on the heap are not read this way, as get() moves them back to the heap.
+	 *
+	 * @methodtype factory
+	 */
+	public ReadableByteChannel openOffHeapChannel(String photoIdAsString, PhotoSize size, long position) {
+		long length = getOffHeapLength(photoIdAsString, size);
+		if (length < 0) {
+			return null;
+		}
+
+		noOffHeapHits.incrementAndGet();
+		return new OffHeapChannel(offHeapImages, asKey(photoIdAsString, size), position, length);
+	}
+
+	/**
+	 * Adds the image to the tier for its size. Images larger than the tier are not cached.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void put(String photoIdAsString, PhotoSize size, Image image) {
+		String key = asKey(photoIdAsString, size);
+		if (!isKeptOnHeap(size)) {
+			doRemove(key);
+			offHeapImages.put(key, image.getImageData());
+			return;
+		}
+
+		long bytes = image.getImageData().length;
+		if (bytes > maxBytes) {
+			return;
+		}
+
+		doRemove(key);
+		if (offHeapImages != null) {
+			offHeapImages.remove(key);
+		}
+		images.put(key, image);
+		totalBytes += bytes;
+		evictionPolicy.recordInsertion(key);
+
+		while (totalBytes > maxBytes) {
+			String victim = evictionPolicy.getEvictionOrder().next();
+			Image victimImage = images.get(victim);
+			doRemove(victim);
+			if (offHeapImages != null) {
+				offHeapImages.put(victim, victimImage.getImageData());
+			}
+		}
+	}
+
+	/**
+	 * Checks for the image without counting a hit or miss.
+	 *
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean contains(String photoIdAsString, PhotoSize size) {
+		String key = asKey(photoIdAsString, size);
+		return images.containsKey(key) || (offHeapImages != null && offHeapImages.contains(key));
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void remove(String photoIdAsString, PhotoSize size) {
+		String key = asKey(photoIdAsString, size);
+		doRemove(key);
+		if (offHeapImages != null) {
+			offHeapImages.remove(key);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int size() {
+		return images.size() + (offHeapImages != null ? offHeapImages.size() : 0);
+	}
+
+	/**
+	 * Returns the number of image bytes in both tiers.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized long getBytes() {
+		return totalBytes + getOffHeapBytes();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getHeapBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getOffHeapBytes() {
+		return offHeapImages != null ? offHeapImages.getBytes() : 0;
+	}
+
+	/**
+	 * Returns the bound of the heap tier.
+	 *
+	 * @methodtype get
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxOffHeapBytes() {
+		return offHeapImages != null ? offHeapImages.getMaxBytes() : 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoHeapHits() {
+		return noHeapHits.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoOffHeapHits() {
+		return noOffHeapHits.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoMisses() {
+		return noMisses.get();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void clear() {
+		images.clear();
+		totalBytes = 0;
+		evictionPolicy.clear();
+		if (offHeapImages != null) {
+			offHeapImages.clear();
+		}
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isKeptOnHeap(PhotoSize size) {
+		return offHeapImages == null || size.asInt() <= maxHeapSize.asInt();
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doRemove(String key) {
+		Image image = images.remove(key);
+		if (image != null) {
+			totalBytes -= image.getImageData().length;
+			evictionPolicy.recordRemoval(key);
+		}
+	}
+
+	/**
+	 * Reads one image from an OffHeapByteCache. If the image is evicted before it has been read completely, the
+	 * channel fails instead of ending early.
+	 */
+	protected static class OffHeapChannel implements ReadableByteChannel {
+
+		protected final OffHeapByteCache cache;
+		protected final String key;
+		protected final long length;
+		protected long position;
+		protected boolean isOpen = true;
+
+		protected OffHeapChannel(OffHeapByteCache myCache, String myKey, long myPosition, long myLength) {
+			cache = myCache;
+			key = myKey;
+			position = myPosition;
+			length = myLength;
+		}
+
+		@Override
+		public int read(ByteBuffer target) throws IOException {
+			if (!isOpen) {
+				throw new ClosedChannelException();
+			}
+
+			int result = cache.read(key, position, target);
+			if (result < 0 && position < length) {
+				throw new IOException("image has been evicted while being read: " + key);
+			}
+			if (result > 0) {
+				position += result;
+			}
+			return result;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return isOpen;
+		}
+
+		@Override
+		public void close() {
+			isOpen = false;
+		}
+	}
+
+	/**
+	 * Same naming as in ImageStorage: photo id followed by the size as int
+	 *
+	 * @methodtype conversion
+	 */
+	protected static String asKey(String photoIdAsString, PhotoSize size) {
+		return photoIdAsString + size.asInt();
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe cache for the HTTP entity tags of scaled images, keyed like the ImageCache. An entity tag is a hash of
+ * the image bytes, so it is computed once per photo and size; afterwards, conditional requests can be answered
+ * without loading the image. Least recently used tags are dropped when the cache is full.
+ */
+public class ImageETagCache {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 16 * 1024;
+
+	/**
+	 *
+	 */
+	protected static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 *
+	 */
+	protected final int maxEntries;
+
+	/**
+	 * Guarded by this
+	 */
+	protected final Map<String, String> eTags;
+
+	/**
+	 *
+	 */
+	public ImageETagCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public ImageETagCache(int myMaxEntries) {
+		if (myMaxEntries <= 0) {
+			throw new IllegalArgumentException("cache bound must be positive");
+		}
+
+		maxEntries = myMaxEntries;
+		eTags = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Returns the entity tag of the image, or null if it has not been computed yet.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized String get(String photoIdAsString, PhotoSize size) {
+		return eTags.get(ImageCache.asKey(photoIdAsString, size));
+	}
+
+	/**
+	 * Returns the entity tag of the image, computing and caching it if necessary.
+	 *
+	 * @methodtype get
+	 */
+	public String get(String photoIdAsString, PhotoSize size, byte[] imageData) {
+		String result = get(photoIdAsString, size);
+		if (result == null) {
+			// computed outside the lock; concurrent threads compute the same value
+			result = createETag(imageData);
+			put(photoIdAsString, size, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public synchronized void put(String photoIdAsString, PhotoSize size, String eTag) {
+		eTags.put(ImageCache.asKey(photoIdAsString, size), eTag);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void remove(String photoIdAsString, PhotoSize size) {
+		eTags.remove(ImageCache.asKey(photoIdAsString, size));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int size() {
+		return eTags.size();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void clear() {
+		eTags.clear();
+	}
+
+	/**
+	 * Returns a strong entity tag, i.e. the quoted MD5 hash of the data in hex.
+	 *
+	 * @methodtype conversion
+	 */
+	public static String createETag(byte[] data) {
+		return asETag(createDigest().digest(data));
+	}
+
+	/**
+	 * Returns a digest to compute the hash of data that is not available at once, see asETag().
+	 *
+	 * @methodtype factory
+	 */
+	public static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException ex) {
+			// every Java platform has to support MD5
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String asETag(byte[] hash) {
+		StringBuilder result = new StringBuilder(2 * hash.length + 2);
+		result.append('"');
+		for (byte b : hash) {
+			result.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+		}
+		return result.append('"').toString();
+	}
+
+	/**
+	 * Checks the value of an If-None-Match header, i.e. "*" or a list of entity tags, against the entity tag. Weak
+	 * tags match as well, as If-None-Match uses the weak comparison.
+	 *
+	 * @methodtype boolean-query
+	 */
+	public static boolean matches(String ifNoneMatch, String eTag) {
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if ("*".equals(candidate) || candidate.equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
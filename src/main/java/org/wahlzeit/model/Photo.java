@@ -29,16 +29,20 @@ import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Parent;
 import org.wahlzeit.services.DataObject;
 import org.wahlzeit.services.EmailAddress;
+import org.wahlzeit.services.EntityShards;
 import org.wahlzeit.services.Language;
 import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.ShardedEntity;
+import org.wahlzeit.services.StripedCounter;
 
+import java.util.Collections;
 import java.util.Map;
 
 /**
  * A photo represents a user-provided (uploaded) photo.
  */
 @Entity
-public class Photo extends DataObject {
+public class Photo extends DataObject implements ShardedEntity {
 
 	/**
 	 *
@@ -58,6 +62,7 @@ public class Photo extends DataObject {
 	public static final String STATUS = "status";
 	public static final String IS_INVISIBLE = "isInvisible";
 	public static final String UPLOADED_ON = "uploadedOn";
+	public static final String UPLOADED_IMAGE = "uploadedImage";
 
 	/**
 	 *
@@ -77,9 +82,12 @@ public class Photo extends DataObject {
 	/**
 	 * Each photo can be viewed in different sizes (XS, S, M, L, XL) Images are
 	 * pre-computed in these sizes to optimize bandwidth when requested.
+	 * Only holds images that have not been persisted yet; persisted images are
+	 * loaded on demand, see PhotoManager.getImage.
 	 */
 	@Ignore
-	transient protected Map<PhotoSize, Image> images = new ArrayMap<PhotoSize, Image>();
+	transient protected Map<PhotoSize, Image> images =
+			Collections.synchronizedMap(new ArrayMap<PhotoSize, Image>());
 
 	/**
 	 *
@@ -106,11 +114,25 @@ public class Photo extends DataObject {
 	protected PhotoStatus status = PhotoStatus.VISIBLE;
 
 	/**
-	 *
+	 * Initial praise of one vote, plus the votes from before praise was counted in PraiseCounterShards
 	 */
 	protected int praiseSum = 10;
 	protected int noVotes = 1;
-	protected int noVotesAtLastNotification = 1;
+	protected long noVotesAtLastNotification = 1;
+
+	/**
+	 * Votes in the PraiseCounterShards of this photo, as far as known, see PraiseCounterManager
+	 */
+	protected volatile long countedPraiseSum = 0;
+	protected volatile long countedNoVotes = 0;
+
+	/**
+	 * Votes on this instance that have not been written to a PraiseCounterShard yet
+	 */
+	@Ignore
+	protected StripedCounter pendingPraiseSum = new StripedCounter();
+	@Ignore
+	protected StripedCounter pendingNoVotes = new StripedCounter();
 
 	/**
 	 *
@@ -131,6 +153,7 @@ public class Photo extends DataObject {
 	 *
 	 */
 	// TODO: change it to a single long
+	// Photos use the PhotoId as key, so they can be loaded by id, see PhotoFactory.loadPhoto and isKeyedById()
 	@Id
 	Long idLong;
 	@Parent
@@ -141,6 +164,8 @@ public class Photo extends DataObject {
 	 */
 	public Photo() {
 		id = PhotoId.getNextId();
+		idLong = (long) id.asInt();
+		parent = EntityShards.getInstance().getRootKey(id.asString());
 		incWriteCount();
 	}
 
@@ -149,6 +174,8 @@ public class Photo extends DataObject {
 	 */
 	public Photo(PhotoId myId) {
 		id = myId;
+		idLong = (long) id.asInt();
+		parent = EntityShards.getInstance().getRootKey(id.asString());
 
 		incWriteCount();
 	}
@@ -167,6 +194,30 @@ public class Photo extends DataObject {
 		this.images.put(photoSize, image);
 	}
 
+	/**
+	 * @methodtype command
+	 */
+	public void removeImage(PhotoSize photoSize) {
+		this.images.remove(photoSize);
+	}
+
+	/**
+	 * Returns the number of bytes of all images of this photo that are held in memory.
+	 *
+	 * @methodtype get
+	 */
+	public long getImageDataSize() {
+		long result = 0;
+		synchronized (images) {
+			for (Image image : images.values()) {
+				if (image != null) {
+					result += image.getImageData().length;
+				}
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -181,6 +232,47 @@ public class Photo extends DataObject {
 		return id;
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	public String getShardingKey() {
+		return id.asString();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	public Key getParent() {
+		return parent;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	@Override
+	public void setParent(Key newParent) {
+		parent = newParent;
+	}
+
+	/**
+	 * Returns false for photos that have been stored under an allocated id, before photos were keyed by their
+	 * PhotoId; they are keyed by their PhotoId when they are saved next, see PhotoManager.moveToShard().
+	 *
+	 * @methodtype boolean-query
+	 */
+	public boolean isKeyedById() {
+		return idLong != null && idLong == id.asInt();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void keyById() {
+		idLong = (long) id.asInt();
+	}
+
 	/**
 	 * @methodtype get
 	 */
@@ -340,16 +432,84 @@ public class Photo extends DataObject {
 	 * @methodtype get
 	 */
 	public double getPraise() {
-		return (double) praiseSum / noVotes;
+		return (double) (praiseSum + countedPraiseSum + pendingPraiseSum.sum()) / getNoVotes();
 	}
 
 	/**
-	 *
+	 * @methodtype get
+	 */
+	public long getNoVotes() {
+		return noVotes + countedNoVotes + pendingNoVotes.sum();
+	}
+
+	/**
+	 * Counts the vote in memory, without making the photo dirty. Votes are persisted by the PraiseCounterManager.
 	 */
 	public void addToPraise(int value) {
-		praiseSum += value;
-		noVotes += 1;
+		pendingPraiseSum.add(value);
+		pendingNoVotes.increment();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasPendingPraise() {
+		return pendingNoVotes.sum() != 0;
+	}
+
+	/**
+	 * Returns the praise sum of all pending votes and removes it.
+	 *
+	 * @methodtype command
+	 */
+	public long removePendingPraiseSum() {
+		return pendingPraiseSum.sumThenReset();
+	}
+
+	/**
+	 * Returns the number of pending votes and removes them.
+	 *
+	 * @methodtype command
+	 */
+	public long removePendingNoVotes() {
+		return pendingNoVotes.sumThenReset();
+	}
+
+	/**
+	 * Adds votes back that could not be persisted.
+	 *
+	 * @methodtype command
+	 */
+	public void addPendingPraise(long praise, long votes) {
+		pendingPraiseSum.add(praise);
+		pendingNoVotes.add(votes);
+	}
+
+	/**
+	 * Adds votes that have just been written to a PraiseCounterShard.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void addCountedPraise(long praise, long votes) {
+		countedPraiseSum += praise;
+		countedNoVotes += votes;
+	}
+
+	/**
+	 * Sets the votes counted in all PraiseCounterShards. As counters only grow, smaller values are ignored; they stem
+	 * from an outdated query. Returns true if the photo has changed.
+	 *
+	 * @methodtype set
+	 */
+	public synchronized boolean setCountedPraise(long praise, long votes) {
+		if (praise <= countedPraiseSum && votes <= countedNoVotes) {
+			return false;
+		}
+
+		countedPraiseSum = Math.max(praise, countedPraiseSum);
+		countedNoVotes = Math.max(votes, countedNoVotes);
 		incWriteCount();
+		return true;
 	}
 
 	/**
@@ -372,6 +532,7 @@ public class Photo extends DataObject {
 	public void setStatus(PhotoStatus newStatus) {
 		status = newStatus;
 		incWriteCount();
+		PhotoManager.getInstance().updateDisplayablePhotoIds(this);
 	}
 
 	/**
@@ -415,14 +576,14 @@ public class Photo extends DataObject {
 	 * @methodtype boolean query
 	 */
 	public boolean hasNewPraise() {
-		return noVotes > noVotesAtLastNotification;
+		return getNoVotes() > noVotesAtLastNotification;
 	}
 
 	/**
 	 * @methodtype set
 	 */
 	public void setNoNewPraise() {
-		noVotesAtLastNotification = noVotes;
+		noVotesAtLastNotification = getNoVotes();
 		incWriteCount();
 	}
 
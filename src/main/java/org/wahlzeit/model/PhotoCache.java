@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.wahlzeit.services.EvictionPolicy;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.LruEvictionPolicy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A thread-safe in-memory cache for photos. The cache is bounded by the number of photos and by the total size of
+ * the image data the cached photos hold. When one of the bounds is exceeded, photos are evicted in the order given by
+ * the EvictionPolicy. Dirty photos and photos with pending praise are never evicted, as their changes have not been
+ * persisted yet.
+ */
+public class PhotoCache {
+
+	private static final Logger log = Logger.getLogger(PhotoCache.class.getName());
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MAX_PHOTOS = 10000;
+	public static final long DEFAULT_MAX_IMAGE_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 *
+	 */
+	protected final int maxPhotos;
+	protected final long maxImageBytes;
+	protected final EvictionPolicy<PhotoId> evictionPolicy;
+
+	/**
+	 * Guarded by this
+	 */
+	protected Map<PhotoId, Photo> photos = new HashMap<PhotoId, Photo>();
+	protected Map<PhotoId, Long> imageBytes = new HashMap<PhotoId, Long>();
+	protected long totalImageBytes = 0;
+
+	/**
+	 *
+	 */
+	public PhotoCache() {
+		this(DEFAULT_MAX_PHOTOS, DEFAULT_MAX_IMAGE_BYTES, new LruEvictionPolicy<PhotoId>());
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public PhotoCache(int myMaxPhotos, long myMaxImageBytes, EvictionPolicy<PhotoId> myEvictionPolicy) {
+		if (myMaxPhotos <= 0 || myMaxImageBytes <= 0) {
+			throw new IllegalArgumentException("cache bounds must be positive");
+		}
+		if (myEvictionPolicy == null) {
+			throw new IllegalArgumentException("eviction policy must not be null");
+		}
+
+		maxPhotos = myMaxPhotos;
+		maxImageBytes = myMaxImageBytes;
+		evictionPolicy = myEvictionPolicy;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized Photo get(PhotoId id) {
+		Photo result = photos.get(id);
+		if (result != null) {
+			evictionPolicy.recordAccess(id);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean contains(PhotoId id) {
+		return photos.containsKey(id);
+	}
+
+	/**
+	 * Adds the photo to the cache, replacing a photo with the same id.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void put(Photo photo) {
+		PhotoId id = photo.getId();
+		doRemove(id);
+		doPut(photo);
+		evictIfNecessary(id);
+	}
+
+	/**
+	 * Adds the photo to the cache unless a photo with the same id is already cached. Returns the cached photo.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized Photo putIfAbsent(Photo photo) {
+		PhotoId id = photo.getId();
+		Photo result = photos.get(id);
+		if (result == null) {
+			doPut(photo);
+			evictIfNecessary(id);
+			result = photo;
+		} else {
+			evictionPolicy.recordAccess(id);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized Photo remove(PhotoId id) {
+		return doRemove(id);
+	}
+
+	/**
+	 * Recomputes the image size of the photo, e.g. after images have been added to or removed from it.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void updateImageBytes(Photo photo) {
+		PhotoId id = photo.getId();
+		if (photos.get(id) == photo) {
+			long newBytes = photo.getImageDataSize();
+			Long oldBytes = imageBytes.put(id, newBytes);
+			totalImageBytes += newBytes - (oldBytes == null ? 0 : oldBytes);
+			evictIfNecessary(id);
+		}
+	}
+
+	/**
+	 * Returns a snapshot of all cached photos.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized List<Photo> getPhotos() {
+		return new ArrayList<Photo>(photos.values());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int size() {
+		return photos.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized long getImageBytes() {
+		return totalImageBytes;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getMaxPhotos() {
+		return maxPhotos;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxImageBytes() {
+		return maxImageBytes;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void clear() {
+		photos.clear();
+		imageBytes.clear();
+		totalImageBytes = 0;
+		evictionPolicy.clear();
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doPut(Photo photo) {
+		PhotoId id = photo.getId();
+		long bytes = photo.getImageDataSize();
+		photos.put(id, photo);
+		imageBytes.put(id, bytes);
+		totalImageBytes += bytes;
+		evictionPolicy.recordInsertion(id);
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected Photo doRemove(PhotoId id) {
+		Photo result = photos.remove(id);
+		if (result != null) {
+			totalImageBytes -= imageBytes.remove(id);
+			evictionPolicy.recordRemoval(id);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isOverBudget() {
+		return photos.size() > maxPhotos || totalImageBytes > maxImageBytes;
+	}
+
+	/**
+	 * Evicts photos until the cache is within its bounds again. The photo with the id protectedId was just used and
+	 * is not evicted.
+	 *
+	 * @methodtype command
+	 */
+	protected void evictIfNecessary(PhotoId protectedId) {
+		while (isOverBudget()) {
+			PhotoId victim = findVictim(protectedId);
+			if (victim == null) {
+				log.warning(LogBuilder.createSystemMessage().
+						addMessage("photo cache exceeds its bounds, but all photos have unsaved changes").
+						addParameter("photos", photos.size()).
+						addParameter("image bytes", String.valueOf(totalImageBytes)).toString());
+				return;
+			}
+			doRemove(victim);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected PhotoId findVictim(PhotoId protectedId) {
+		for (Iterator<PhotoId> i = evictionPolicy.getEvictionOrder(); i.hasNext(); ) {
+			PhotoId candidate = i.next();
+			Photo photo = photos.get(candidate);
+			if (!candidate.equals(protectedId) && photo != null && !photo.isDirty() && !photo.hasPendingPraise()) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+}
@@ -20,8 +20,14 @@
 
 package org.wahlzeit.model;
 
+import com.google.appengine.api.datastore.Key;
+import org.wahlzeit.services.EntityShards;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.OfyService;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -94,22 +100,36 @@ public abstract class PhotoFactory {
 	}
 
 	/**
-	 * Loads a photo. The Java object is loaded from the Google Datastore, the
-	 * Images in all sizes are loaded from the Google Cloud storage.
+	 * Loads a photo from the Google Datastore. Images are not loaded, see PhotoManager. If the photo is not in its
+	 * shard, e.g. because the number of shards changed and the EntityShardMigrator has not moved it yet, all other
+	 * shards are looked up with one batch get. This lookup is also paid for every id without a photo, so it remains a
+	 * cost of unknown ids even once all photos have been migrated. Returns null if there is no photo with that id or if
+	 * it is still stored under an allocated id; MigrateEntityShardsAgent keys such photos by their PhotoId.
 	 */
 	public Photo loadPhoto(PhotoId id) {
-		/*
-		 * Photo result =
-		 * OfyService.ofy().load().type(Photo.class).ancestor(KeyFactory
-		 * .createKey("Application", "Wahlzeit")).filter(Photo.ID,
-		 * id).first().now(); for (PhotoSize size : PhotoSize.values()) {
-		 * GcsFilename gcsFilename = new GcsFilename("picturebucket", filename);
-		 * 
-		 * 
-		 * 
-		 * }
-		 */
-		return null;
+		if (id == null || id.isNullId()) {
+			return null;
+		}
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("load photo from datastore").
+				addParameter("photo id", id.asString()).toString());
+		long photoId = id.asInt();
+		Key shardKey = EntityShards.getInstance().getRootKey(id.asString());
+		Photo result = OfyService.ofy().load().type(Photo.class).parent(shardKey).id(photoId).now();
+		if (result != null) {
+			return result;
+		}
+
+		List<com.googlecode.objectify.Key<Photo>> otherKeys = new ArrayList<com.googlecode.objectify.Key<Photo>>();
+		for (Key rootKey : EntityShards.getAllPossibleRootKeys()) {
+			if (!rootKey.equals(shardKey)) {
+				com.googlecode.objectify.Key<Object> parent = com.googlecode.objectify.Key.create(rootKey);
+				otherKeys.add(com.googlecode.objectify.Key.create(parent, Photo.class, photoId));
+			}
+		}
+		Iterator<Photo> others = OfyService.ofy().load().keys(otherKeys).values().iterator();
+		return others.hasNext() ? others.next() : null;
 	}
 
 	/**
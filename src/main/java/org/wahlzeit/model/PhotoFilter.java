@@ -25,8 +25,6 @@ import org.wahlzeit.utils.StringUtil;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.logging.Logger;
@@ -54,15 +52,22 @@ public class PhotoFilter implements Serializable {
 	/**
 	 *
 	 */
-	protected List<PhotoId> displayablePhotoIds;
-	protected List<PhotoId> processedPhotoIds = new LinkedList<PhotoId>();
-	protected List<PhotoId> skippedPhotoIds = new LinkedList<PhotoId>();
+	protected PhotoIdPool displayablePhotoIds;
+	protected PhotoIdBitmap processedPhotoIds = new PhotoIdBitmap();
+	protected PhotoIdBitmap skippedPhotoIds = new PhotoIdBitmap();
 
 	/**
 	 *
 	 */
 	protected Random randomNumber = new Random(System.currentTimeMillis());
 
+	/**
+	 * Versions of the PhotoManager's displayable photos and tag index the displayable photo ids were computed from;
+	 * -1 if they need to be computed
+	 */
+	protected long displayablePhotoIdsVersion = -1;
+	protected long tagIndexVersion = -1;
+
 	/**
 	 *
 	 */
@@ -140,47 +145,68 @@ public class PhotoFilter implements Serializable {
 	 * @methodtype command
 	 */
 	public void generateDisplayablePhotoIds() {
-		displayablePhotoIds = getFilteredPhotoIds();
+		PhotoManager photoManager = PhotoManager.getInstance();
+		displayablePhotoIdsVersion = photoManager.getDisplayablePhotoIdsVersion();
+		tagIndexVersion = photoManager.getTagIndex().getVersion();
+		displayablePhotoIds = new PhotoIdPool(getFilteredPhotoIds());
 	}
 
 	/**
-	 * Get a random photo that has not been rated. If possible avoid skipped photos.
+	 * Regenerates the displayable photo ids only if they are used up or the PhotoManager's photos or tags have
+	 * changed since they were generated. Rated and skipped photos are removed incrementally.
+	 *
+	 * @methodtype command
 	 */
-	public PhotoId getRandomDisplayablePhotoId() {
-		if (!displayablePhotoIds.isEmpty()) {
-			int size = displayablePhotoIds.size();
-			int index = ((randomNumber.nextInt() % size) + size) / 2;
-			return displayablePhotoIds.get(index);
-		} else {
-			return PhotoId.NULL_ID;
+	public void updateDisplayablePhotoIds() {
+		PhotoManager photoManager = PhotoManager.getInstance();
+		if (displayablePhotoIds.isEmpty() ||
+				displayablePhotoIdsVersion != photoManager.getDisplayablePhotoIdsVersion() ||
+				tagIndexVersion != photoManager.getTagIndex().getVersion()) {
+			generateDisplayablePhotoIds();
 		}
 	}
 
+	/**
+	 * Get a uniformly chosen random photo that has not been rated. If possible avoid skipped photos.
+	 */
+	public PhotoId getRandomDisplayablePhotoId() {
+		return displayablePhotoIds.getRandomId(randomNumber);
+	}
+
 	/**
 	 *
 	 */
-	public List<PhotoId> getDisplayablePhotoIds() {
+	public PhotoIdPool getDisplayablePhotoIds() {
 		return displayablePhotoIds;
 	}
 
 	/**
 	 *
 	 */
-	public void setDisplayablePhotoIds(List<PhotoId> newPhotoIds) {
+	public void setDisplayablePhotoIds(PhotoIdPool newPhotoIds) {
 		displayablePhotoIds = newPhotoIds;
 	}
 
+	/**
+	 * @methodtype command
+	 */
+	public void removeDisplayablePhotoId(PhotoId photoId) {
+		displayablePhotoIds.remove(photoId);
+	}
+
 	/**
 	 *
 	 */
 	public void resetDisplayablePhotoIds() {
-		displayablePhotoIds = new ArrayList<PhotoId>();
+		displayablePhotoIds = new PhotoIdPool();
+		displayablePhotoIdsVersion = -1;
+		tagIndexVersion = -1;
 	}
 
 	/**
 	 *
 	 */
-	public List<PhotoId> getProcessedPhotoIds() {
+	public PhotoIdBitmap getProcessedPhotoIds() {
 		return processedPhotoIds;
 	}
 
@@ -188,10 +214,6 @@ public class PhotoFilter implements Serializable {
 	 *
 	 */
 	public boolean isProcessedPhotoId(PhotoId photoId) {
-		log.info("photoId: " + photoId.asString());
-		for (PhotoId id : processedPhotoIds) {
-			log.info("Processed id: " + id.asString());
-		}
 		return processedPhotoIds.contains(photoId);
 	}
 
@@ -202,23 +224,21 @@ public class PhotoFilter implements Serializable {
 		PhotoId photoId = photo.getId();
 		processedPhotoIds.add(photoId);
 		skippedPhotoIds.remove(photoId);
-		if (displayablePhotoIds != null) {
-			displayablePhotoIds.remove(photoId);
-		}
+		displayablePhotoIds.remove(photoId);
 	}
 
 
 	/**
 	 * @methodtype get
 	 */
-	public List<PhotoId> getSkippedPhotoIds() {
+	public PhotoIdBitmap getSkippedPhotoIds() {
 		return skippedPhotoIds;
 	}
 
 	/**
 	 * @methodtype set
 	 */
-	public void setSkippedPhotoIds(List<PhotoId> skippedPhotoIds) {
+	public void setSkippedPhotoIds(PhotoIdBitmap skippedPhotoIds) {
 		this.skippedPhotoIds = skippedPhotoIds;
 	}
 
@@ -226,54 +246,37 @@ public class PhotoFilter implements Serializable {
 	 * @methodtype set
 	 */
 	public void addSkippedPhotoId(PhotoId skippedPhotoId) {
-		if (!skippedPhotoIds.contains(skippedPhotoId)) {
-			skippedPhotoIds.add(skippedPhotoId);
-		}
+		skippedPhotoIds.add(skippedPhotoId);
+		displayablePhotoIds.remove(skippedPhotoId);
 	}
 
 	/**
-	 *
+	 * Filter conditions are combined with OR, matching photos are looked up in the tag index of the PhotoManager.
+	 * Candidates are all displayable matches that have been neither processed nor skipped; if there are none, the
+	 * skipped photos are shown again.
 	 */
-	protected List<PhotoId> getFilteredPhotoIds() {
-		// get all tags that match the filter conditions
-		List<PhotoId> result = new LinkedList<PhotoId>();
-		int noFilterConditions = getFilterConditions().size();
+	protected PhotoIdBitmap getFilteredPhotoIds() {
+		List<String> filterConditions = getFilterConditions();
+		int noFilterConditions = filterConditions.size();
 		log.config(LogBuilder.createSystemMessage().
 				addParameter("Number of filter conditions", String.valueOf(noFilterConditions)).toString());
 
-		Collection<PhotoId> candidates;
-		if (noFilterConditions == 0) {
-			candidates = PhotoManager.getInstance().getPhotoCache().keySet();
-		} else {
-			List<Tag> tags = new LinkedList<Tag>();
-			candidates = new LinkedList<PhotoId>();
-			for (String condition : getFilterConditions()) {
-				PhotoManager.getInstance().addTagsThatMatchCondition(tags, condition);
-			}
-			// get the list of all photo ids that correspond to the tags
-			for (Tag tag : tags) {
-				candidates.add(PhotoId.getIdFromString(tag.getPhotoId()));
-			}
+		PhotoManager photoManager = PhotoManager.getInstance();
+		PhotoIdBitmap candidates = photoManager.getDisplayablePhotoIds();
+		if (noFilterConditions > 0) {
+			PostingList matches = photoManager.getTagIndex().getPhotoIdsWithAnyTag(filterConditions);
+			candidates.and(PhotoIdBitmap.fromPostingList(matches));
 		}
+		candidates.andNot(processedPhotoIds);
+		candidates.andNot(skippedPhotoIds);
 
-		int newPhotos = 0;
-		for (PhotoId candidateId : candidates) {
-			Photo photoCandidate = PhotoManager.getInstance().getPhoto(candidateId);
-			if (!processedPhotoIds.contains(candidateId) && !skippedPhotoIds.contains(candidateId) &&
-					photoCandidate.isVisible()) {
-				result.add(candidateId);
-				++newPhotos;
-			}
-		}
-		int skippedPhotos = skippedPhotoIds.size();
-		if (newPhotos == 0 && skippedPhotos > 0) {
-			result.addAll(skippedPhotoIds);
-			newPhotos = skippedPhotos;
+		if (candidates.isEmpty() && !skippedPhotoIds.isEmpty()) {
+			candidates = skippedPhotoIds.copy();
 		}
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Number of photos to show", newPhotos)
+		log.config(LogBuilder.createSystemMessage().addParameter("Number of photos to show", candidates.size())
 				.toString());
 
-		return result;
+		return candidates;
 	}
 }
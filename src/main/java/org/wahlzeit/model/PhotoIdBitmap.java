@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A PhotoIdBitmap is a compressed set of photo ids, with one bit per id at position PhotoId.asInt(). Only non-empty
+ * 64-bit words are stored, together with their word index, so sparse sets like the photos a user has already rated
+ * stay small, while dense sets like all displayable photos need little more than one bit per photo. Set operations
+ * work word by word. A PhotoIdBitmap is not thread-safe.
+ */
+public class PhotoIdBitmap implements Serializable {
+
+	/**
+	 *
+	 */
+	protected static final int INITIAL_CAPACITY = 4;
+
+	/**
+	 * Word indices (id >>> 6), sorted ascending; only the first length entries of keys and words are valid
+	 */
+	protected int[] keys;
+	protected long[] words;
+	protected int length;
+
+	/**
+	 * Number of ids in the set
+	 */
+	protected int size;
+
+	/**
+	 *
+	 */
+	public PhotoIdBitmap() {
+		this(new int[INITIAL_CAPACITY], new long[INITIAL_CAPACITY], 0, 0);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	protected PhotoIdBitmap(int[] myKeys, long[] myWords, int myLength, int mySize) {
+		keys = myKeys;
+		words = myWords;
+		length = myLength;
+		size = mySize;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static PhotoIdBitmap fromPostingList(PostingList postingList) {
+		PhotoIdBitmap result = new PhotoIdBitmap();
+		for (int i = 0; i < postingList.size(); i++) {
+			result.add(postingList.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype copy
+	 */
+	public PhotoIdBitmap copy() {
+		int capacity = Math.max(length, INITIAL_CAPACITY);
+		return new PhotoIdBitmap(Arrays.copyOf(keys, capacity), Arrays.copyOf(words, capacity), length, size);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(PhotoId id) {
+		return contains(id.asInt());
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(int id) {
+		int index = Arrays.binarySearch(keys, 0, length, id >>> 6);
+		return index >= 0 && (words[index] & (1L << id)) != 0;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean add(PhotoId id) {
+		return add(id.asInt());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean add(int id) {
+		int key = id >>> 6;
+		int index = Arrays.binarySearch(keys, 0, length, key);
+		if (index < 0) {
+			index = -(index + 1);
+			if (length == keys.length) {
+				int capacity = Math.max(INITIAL_CAPACITY, length + (length >> 1) + 1);
+				keys = Arrays.copyOf(keys, capacity);
+				words = Arrays.copyOf(words, capacity);
+			}
+			System.arraycopy(keys, index, keys, index + 1, length - index);
+			System.arraycopy(words, index, words, index + 1, length - index);
+			keys[index] = key;
+			words[index] = 0L;
+			length++;
+		}
+
+		long bit = 1L << id;
+		if ((words[index] & bit) != 0) {
+			return false;
+		}
+
+		words[index] |= bit;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean remove(PhotoId id) {
+		return remove(id.asInt());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean remove(int id) {
+		int index = Arrays.binarySearch(keys, 0, length, id >>> 6);
+		long bit = 1L << id;
+		if (index < 0 || (words[index] & bit) == 0) {
+			return false;
+		}
+
+		words[index] &= ~bit;
+		size--;
+		if (words[index] == 0L) {
+			System.arraycopy(keys, index + 1, keys, index, length - index - 1);
+			System.arraycopy(words, index + 1, words, index, length - index - 1);
+			length--;
+		}
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		keys = new int[INITIAL_CAPACITY];
+		words = new long[INITIAL_CAPACITY];
+		length = 0;
+		size = 0;
+	}
+
+	/**
+	 * Keeps only the ids that are also contained in other.
+	 *
+	 * @methodtype command
+	 */
+	public void and(PhotoIdBitmap other) {
+		int newLength = 0;
+		int newSize = 0;
+		for (int i = 0, j = 0; i < length && j < other.length; ) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				long word = words[i] & other.words[j];
+				if (word != 0L) {
+					keys[newLength] = keys[i];
+					words[newLength] = word;
+					newLength++;
+					newSize += Long.bitCount(word);
+				}
+				i++;
+				j++;
+			}
+		}
+		length = newLength;
+		size = newSize;
+	}
+
+	/**
+	 * Removes all ids that are contained in other.
+	 *
+	 * @methodtype command
+	 */
+	public void andNot(PhotoIdBitmap other) {
+		int newLength = 0;
+		int newSize = 0;
+		for (int i = 0, j = 0; i < length; i++) {
+			while (j < other.length && other.keys[j] < keys[i]) {
+				j++;
+			}
+			long word = words[i];
+			if (j < other.length && other.keys[j] == keys[i]) {
+				word &= ~other.words[j];
+			}
+			if (word != 0L) {
+				keys[newLength] = keys[i];
+				words[newLength] = word;
+				newLength++;
+				newSize += Long.bitCount(word);
+			}
+		}
+		length = newLength;
+		size = newSize;
+	}
+
+	/**
+	 * Adds all ids that are contained in other.
+	 *
+	 * @methodtype command
+	 */
+	public void or(PhotoIdBitmap other) {
+		int[] newKeys = new int[Math.max(length + other.length, INITIAL_CAPACITY)];
+		long[] newWords = new long[newKeys.length];
+		int newLength = 0;
+		int newSize = 0;
+		int i = 0;
+		int j = 0;
+		while (i < length || j < other.length) {
+			long word;
+			if (j == other.length || (i < length && keys[i] < other.keys[j])) {
+				newKeys[newLength] = keys[i];
+				word = words[i++];
+			} else if (i == length || keys[i] > other.keys[j]) {
+				newKeys[newLength] = other.keys[j];
+				word = other.words[j++];
+			} else {
+				newKeys[newLength] = keys[i];
+				word = words[i++] | other.words[j++];
+			}
+			newWords[newLength++] = word;
+			newSize += Long.bitCount(word);
+		}
+		keys = newKeys;
+		words = newWords;
+		length = newLength;
+		size = newSize;
+	}
+
+	/**
+	 * Returns the smallest id in the set that is >= fromId, or -1 if there is none.
+	 *
+	 * @methodtype get
+	 */
+	public int nextId(int fromId) {
+		int key = fromId >>> 6;
+		int index = Arrays.binarySearch(keys, 0, length, key);
+		if (index >= 0) {
+			long word = words[index] & (-1L << fromId);
+			if (word != 0L) {
+				return (key << 6) + Long.numberOfTrailingZeros(word);
+			}
+			index++;
+		} else {
+			index = -(index + 1);
+		}
+
+		return (index < length) ? (keys[index] << 6) + Long.numberOfTrailingZeros(words[index]) : -1;
+	}
+
+	/**
+	 * Only the used part of the arrays is serialized, e.g. as part of the HttpSession.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		if (keys.length > length) {
+			keys = Arrays.copyOf(keys, length);
+			words = Arrays.copyOf(words, length);
+		}
+		out.defaultWriteObject();
+	}
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A PhotoIdPool is a set of photo ids that supports adding, removing and picking a uniformly random id in constant
+ * time. The ids are kept in a dense array; a removed id is replaced by the last one. A PhotoIdPool is not
+ * thread-safe.
+ */
+public class PhotoIdPool implements Serializable {
+
+	/**
+	 *
+	 */
+	protected static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Only the first size entries are valid, in no particular order
+	 */
+	protected int[] ids = new int[INITIAL_CAPACITY];
+	protected int size = 0;
+
+	/**
+	 * id -> position in ids; rebuilt after deserialization
+	 */
+	protected transient Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+
+	/**
+	 *
+	 */
+	public PhotoIdPool() {
+		// do nothing
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public PhotoIdPool(PhotoIdBitmap photoIds) {
+		ids = new int[Math.max(photoIds.size(), INITIAL_CAPACITY)];
+		for (int id = photoIds.nextId(0); id >= 0; id = photoIds.nextId(id + 1)) {
+			positions.put(id, size);
+			ids[size++] = id;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(PhotoId id) {
+		return positions.containsKey(id.asInt());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean add(PhotoId id) {
+		int value = id.asInt();
+		if (positions.containsKey(value)) {
+			return false;
+		}
+
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+		}
+		positions.put(value, size);
+		ids[size++] = value;
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean remove(PhotoId id) {
+		Integer position = positions.remove(id.asInt());
+		if (position == null) {
+			return false;
+		}
+
+		int last = ids[--size];
+		if (position != size) {
+			ids[position] = last;
+			positions.put(last, position);
+		}
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		ids = new int[INITIAL_CAPACITY];
+		size = 0;
+		positions.clear();
+	}
+
+	/**
+	 * Returns a uniformly chosen id of the pool, or PhotoId.NULL_ID if the pool is empty.
+	 *
+	 * @methodtype get
+	 */
+	public PhotoId getRandomId(Random random) {
+		if (size == 0) {
+			return PhotoId.NULL_ID;
+		}
+		return PhotoId.getIdFromInt(ids[random.nextInt(size)]);
+	}
+
+	/**
+	 *
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		positions = new HashMap<Integer, Integer>();
+		for (int i = 0; i < size; i++) {
+			positions.put(ids[i], i);
+		}
+	}
+
+}
@@ -20,25 +20,33 @@
 
 package org.wahlzeit.model;
 
+import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.images.Image;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import org.wahlzeit.model.persistence.ImageStorage;
-import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.EventLogger;
 import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.OfyService;
 import org.wahlzeit.services.Persistent;
+import org.wahlzeit.services.WriteBehindBuffer;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.logging.Logger;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A photo manager provides access to and manages photos.
@@ -50,12 +58,76 @@ public class PhotoManager extends ObjectManager {
 	 */
 	protected static final PhotoManager instance = new PhotoManager();
 
-	private static final Logger log = Logger.getLogger(PhotoManager.class.getName());
+	private static final EventLogger log = EventLogger.getLogger(PhotoManager.class);
 
 	/**
-	 * In-memory cache for photos
+	 * Memcache namespace and lifetime (ms) of the batches of pending photos, see savePhotoLater()
 	 */
-	protected Map<PhotoId, Photo> photoCache = new HashMap<PhotoId, Photo>();
+	protected static final String PENDING_PHOTOS_NAMESPACE = "pendingPhotos";
+	protected static final long PENDING_PHOTOS_EXPIRATION = 60 * 60 * 1000;
+
+	/**
+	 * In-memory cache for photos, bounded by number of photos and image bytes
+	 */
+	protected PhotoCache photoCache = new PhotoCache();
+
+	/**
+	 * Ids of all known photos, cached or not
+	 */
+	protected Set<PhotoId> photoIds = Collections.newSetFromMap(new ConcurrentHashMap<PhotoId, Boolean>());
+
+	/**
+	 * In-memory cache for persisted images, bounded by image bytes
+	 */
+	protected ImageCache imageCache = new ImageCache();
+
+	/**
+	 * Entity tags of scaled images, for HTTP caching
+	 */
+	protected ImageETagCache imageETags = new ImageETagCache();
+
+	/**
+	 * Sizes that are loaded along with any other size of a photo, none by default
+	 */
+	protected Set<PhotoSize> prefetchedSizes = EnumSet.noneOf(PhotoSize.class);
+
+	/**
+	 * Sizes that are scaled when a photo is uploaded; all other sizes are scaled on first request, see getImage()
+	 */
+	protected Set<PhotoSize> uploadSizes = EnumSet.allOf(PhotoSize.class);
+
+	/**
+	 * In-memory inverted index from tags to photos, used for filtering. Photos are indexed when they are loaded or
+	 * saved, but not when they are added.
+	 */
+	protected TagIndex tagIndex = new TagIndex();
+
+	/**
+	 * Ids of all known photos that are displayable according to their PhotoStatus; guarded by itself
+	 */
+	protected final PhotoIdBitmap displayablePhotoIds = new PhotoIdBitmap();
+
+	/**
+	 * Incremented with every change of displayablePhotoIds
+	 */
+	protected volatile long displayablePhotoIdsVersion = 0;
+
+	/**
+	 * Ids of photos waiting to be saved, so that several changes of a photo within a short time cause only one write;
+	 * also guards the current batch
+	 */
+	protected WriteBehindBuffer<PhotoId> pendingPhotoIds = new WriteBehindBuffer<PhotoId>();
+
+	/**
+	 * Memcache key and photo ids of the batch of the current write-behind window, see savePhotoLater()
+	 */
+	protected String pendingBatchId = null;
+	protected List<String> pendingBatchPhotoIds = new ArrayList<String>();
+
+	/**
+	 * Picks the photos to show on the rating page
+	 */
+	protected PhotoSelector photoSelector = new PhotoSelector();
 
 	/**
 	 *
@@ -110,7 +182,11 @@ public class PhotoManager extends ObjectManager {
 		if (result == null) {
 			result = PhotoFactory.getInstance().loadPhoto(id);
 			if (result != null) {
-				doAddPhoto(result);
+				// another thread may have loaded the same photo in the meantime
+				result = photoCache.putIfAbsent(result);
+				photoIds.add(id);
+				indexTags(result);
+				updateDisplayablePhotoIds(result);
 			}
 		}
 
@@ -130,7 +206,9 @@ public class PhotoManager extends ObjectManager {
 	 * @methodproperties primitive
 	 */
 	protected void doAddPhoto(Photo myPhoto) {
-		photoCache.put(myPhoto.getId(), myPhoto);
+		photoCache.put(myPhoto);
+		photoIds.add(myPhoto.getId());
+		updateDisplayablePhotoIds(myPhoto);
 	}
 
 	/**
@@ -141,7 +219,7 @@ public class PhotoManager extends ObjectManager {
 	}
 
 	/**
-	 * @methodtype init Loads all Photos from the Datastore and holds them in the cache
+	 * @methodtype init Loads all Photos from the Datastore and holds them in the cache. Images are loaded on demand.
 	 */
 	public void init() {
 		loadPhotos();
@@ -150,31 +228,97 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 *
-	 * Load all persisted photos. Executed when Wahlzeit is restarted.
+	 * Load all persisted photos. Executed when Wahlzeit is restarted. Photos are read in chunks and only kept as far
+	 * as the photo cache allows; photos that are still stored under an allocated id are keyed by their PhotoId.
 	 */
 	public void loadPhotos() {
-		Collection<Photo> existingPhotos = ObjectifyService.run(new Work<Collection<Photo>>() {
+		final long startTime = System.nanoTime();
+		ObjectifyService.run(new Work<Integer>() {
 			@Override
-			public Collection<Photo> run() {
-				Collection<Photo> existingPhotos = new ArrayList<Photo>();
-				readObjects(existingPhotos, Photo.class);
-				return existingPhotos;
+			public Integer run() {
+				int result = 0;
+				List<Photo> legacyPhotos = new ArrayList<Photo>();
+				for (Photo photo : iterateObjects(Photo.class)) {
+					if (!doHasPhoto(photo.getId())) {
+						log.config().with("Load Photo with ID", photo.getIdAsString()).log();
+						doAddPhoto(photo);
+						indexTags(photo);
+					} else {
+						log.config().with("Already loaded Photo", photo.getIdAsString()).log();
+					}
+
+					if (!photo.isKeyedById()) {
+						photo.incWriteCount();
+						legacyPhotos.add(photo);
+					}
+					if (++result % batchSize == 0) {
+						migrateLegacyPhotos(legacyPhotos);
+						// the session cache would otherwise hold all photos
+						OfyService.ofy().clear();
+					}
+				}
+				migrateLegacyPhotos(legacyPhotos);
+				return result;
 			}
 		});
 
-		for (Photo photo : existingPhotos) {
-			if (!doHasPhoto(photo.getId())) {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Load Photo with ID", photo.getIdAsString()).toString());
-				loadScaledImages(photo);
-				doAddPhoto(photo);
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Already loaded Photo", photo.getIdAsString()).toString());
-			}
+		log.info().message("All photos loaded.").with("photos", photoIds.size()).duration(startTime).log();
+	}
+
+	/**
+	 * Writes the photos, which keys them by their PhotoId, and empties the list.
+	 *
+	 * @methodtype command
+	 */
+	protected void migrateLegacyPhotos(List<Photo> legacyPhotos) {
+		if (legacyPhotos.isEmpty()) {
+			return;
+		}
+
+		log.info().action("key photos by PhotoId").with("photos", legacyPhotos.size()).log();
+		writeObjects(legacyPhotos);
+		legacyPhotos.clear();
+	}
+
+	/**
+	 * Photos that are still stored under an allocated id are misplaced as well.
+	 *
+	 * @methodtype boolean-query
+	 */
+	@Override
+	protected boolean isMisplaced(Object object) {
+		return super.isMisplaced(object) || (object instanceof Photo && !((Photo) object).isKeyedById());
+	}
+
+	/**
+	 * Also keys photos by their PhotoId that are still stored under an allocated id. Returns the old key, which is
+	 * deleted once the photo has been saved.
+	 *
+	 * @methodtype command
+	 */
+	@Override
+	protected com.googlecode.objectify.Key<?> moveToShard(Object object) {
+		if (!(object instanceof Photo) || ((Photo) object).isKeyedById()) {
+			return super.moveToShard(object);
 		}
 
-		log.info(LogBuilder.createSystemMessage().addMessage("All photos loaded.").toString());
+		com.googlecode.objectify.Key<?> result = com.googlecode.objectify.Key.create(object);
+		super.moveToShard(object);
+		((Photo) object).keyById();
+		return result;
+	}
+
+	/**
+	 * Also restores the allocated id of a photo that could not be keyed by its PhotoId.
+	 *
+	 * @methodtype command
+	 */
+	@Override
+	protected void restoreShard(Object object, com.googlecode.objectify.Key<?> oldKey) {
+		super.restoreShard(object, oldKey);
+		if (oldKey != null && object instanceof Photo) {
+			((Photo) object).idLong = oldKey.getId();
+		}
 	}
 
 	/**
@@ -182,40 +326,219 @@ public class PhotoManager extends ObjectManager {
 	 * @methodproperty primitive
 	 */
 	protected boolean doHasPhoto(PhotoId id) {
-		return photoCache.containsKey(id);
+		return photoCache.contains(id);
+	}
+
+	/**
+	 * Returns the image of the photo in the given size. Images that have not been persisted yet are held by the photo
+	 * itself, all others are loaded from the ImageStorage on first request and then kept in the image cache. Sizes
+	 * that were not scaled on upload are created from a larger size and persisted. If the image does not exist, null
+	 * is returned.
+	 *
+	 * @methodtype get
+	 */
+	public Image getImage(String photoIdAsString, PhotoSize photoSize) {
+		Photo photo = getPhoto(photoIdAsString);
+		if (photo != null) {
+			Image result = photo.getImage(photoSize);
+			if (result != null) {
+				return result;
+			}
+		}
+
+		Image result = imageCache.get(photoIdAsString, photoSize);
+		if (result == null) {
+			result = loadImage(photoIdAsString, photoSize);
+			if (result == null && photo != null) {
+				result = createDeferredImage(photo, photoSize);
+			}
+			if (result != null) {
+				imageCache.put(photoIdAsString, photoSize, result);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the image if it is in memory, i.e. not saved yet or cached, and null otherwise.
+	 *
+	 * @methodtype get
+	 */
+	public Image getImageIfInMemory(String photoIdAsString, PhotoSize photoSize) {
+		Photo photo = doGetPhotoFromId(PhotoId.getIdFromString(photoIdAsString));
+		if (photo != null) {
+			Image result = photo.getImage(photoSize);
+			if (result != null) {
+				return result;
+			}
+		}
+
+		return imageCache.get(photoIdAsString, photoSize);
+	}
+
+	/**
+	 * Returns the image if it is held by its photo or by the heap tier of the image cache, and null otherwise. Unlike
+	 * getImageIfInMemory(), neither copies the image from the off-heap tier nor counts a cache miss.
+	 *
+	 * @methodtype get
+	 */
+	public Image getImageFromHeap(String photoIdAsString, PhotoSize photoSize) {
+		Photo photo = doGetPhotoFromId(PhotoId.getIdFromString(photoIdAsString));
+		if (photo != null) {
+			Image result = photo.getImage(photoSize);
+			if (result != null) {
+				return result;
+			}
+		}
+
+		return imageCache.getFromHeap(photoIdAsString, photoSize);
 	}
 
 	/**
 	 * @methodtype command
 	 *
-	 * Loads all scaled Images of this Photo from Google Cloud Storage
+	 * Loads one scaled Image from the ImageStorage, returns null if it does not exist.
 	 */
-	protected void loadScaledImages(Photo photo) {
+	protected Image loadImage(String photoIdAsString, PhotoSize photoSize) {
+		log.config().action("loading image").
+				with("image size", photoSize.asString()).
+				with("photo ID", photoIdAsString).log();
+
+		Image result = null;
+		try {
+			Serializable rawImage;
+			if (prefetchedSizes.isEmpty()) {
+				rawImage = ImageStorage.getInstance().readIfExists(photoIdAsString, photoSize.asInt());
+			} else {
+				rawImage = loadImageAndPrefetch(photoIdAsString, photoSize);
+			}
+			if (rawImage instanceof Image) {
+				result = (Image) rawImage;
+			}
+		} catch (IOException e) {
+			log.warning().with("size", photoSize.asString()).
+					with("photo ID", photoIdAsString).
+					exception("Could not load image", e).log();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Scales a size that was deferred on upload from the nearest larger size of the photo, and persists it. Returns
+	 * null if the photo is too small for the size or no larger size exists.
+	 */
+	protected Image createDeferredImage(Photo photo, PhotoSize photoSize) {
+		if (photoSize.isWiderAndHigher(photo.getWidth(), photo.getHeight())) {
+			return null;
+		}
+
 		String photoIdAsString = photo.getId().asString();
-		ImageStorage imageStorage = ImageStorage.getInstance();
+		Image largerImage = null;
+		for (int i = photoSize.asInt() + 1; largerImage == null && i < PhotoSize.values().length; i++) {
+			PhotoSize largerSize = PhotoSize.getFromInt(i);
+			largerImage = getImageIfInMemory(photoIdAsString, largerSize);
+			if (largerImage == null) {
+				largerImage = loadImage(photoIdAsString, largerSize);
+			}
+		}
+		if (largerImage == null) {
+			return null;
+		}
 
-		for (PhotoSize photoSize : PhotoSize.values()) {
-			log.config(LogBuilder.createSystemMessage().
-					addAction("loading image").
-					addParameter("image size", photoSize.asString()).
-					addParameter("photo ID", photoIdAsString).toString());
-			if (imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-				try {
-					Serializable rawImage = imageStorage.readImage(photoIdAsString, photoSize.asInt());
-					if (rawImage != null && rawImage instanceof Image) {
-						photo.setImage(photoSize, (Image) rawImage);
-					}
-				} catch (IOException e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addParameter("size", photoSize.asString()).
-							addParameter("photo ID", photoIdAsString).
-							addException("Could not load image although it exists", e).toString());
-				}
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("Size does not exist", photoSize.asString()).toString());
+		Image result = PhotoUtil.createScaledImage(largerImage, photoSize, photo);
+		log.config().action("create deferred image").
+				with("image size", photoSize.asString()).
+				with("photo ID", photoIdAsString).log();
+		try {
+			ImageStorage.getInstance().writeIfAbsent(result, photoIdAsString, photoSize.asInt());
+		} catch (IOException e) {
+			log.warning().with("size", photoSize.asString()).
+					with("photo ID", photoIdAsString).
+					exception("Could not store deferred image", e).log();
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Reads the image together with the prefetched sizes that are not cached yet, and caches the latter.
+	 */
+	protected Serializable loadImageAndPrefetch(String photoIdAsString, PhotoSize photoSize) throws IOException {
+		List<PhotoSize> sizes = new ArrayList<PhotoSize>();
+		sizes.add(photoSize);
+		for (PhotoSize prefetchedSize : prefetchedSizes) {
+			if (prefetchedSize != photoSize && !imageCache.contains(photoIdAsString, prefetchedSize)) {
+				sizes.add(prefetchedSize);
+			}
+		}
+
+		int[] sizesAsInts = new int[sizes.size()];
+		for (int i = 0; i < sizesAsInts.length; i++) {
+			sizesAsInts[i] = sizes.get(i).asInt();
+		}
+		Map<Integer, Serializable> images = ImageStorage.getInstance().readImages(photoIdAsString, sizesAsInts);
+
+		for (PhotoSize prefetchedSize : sizes.subList(1, sizes.size())) {
+			Serializable image = images.get(prefetchedSize.asInt());
+			if (image instanceof Image) {
+				imageCache.put(photoIdAsString, prefetchedSize, (Image) image);
 			}
 		}
+		return images.get(photoSize.asInt());
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Set<PhotoSize> getPrefetchedSizes() {
+		return prefetchedSizes;
+	}
+
+	/**
+	 * Sets the sizes that are read along with any other size of a photo, so that the storage can read them
+	 * concurrently, see ImageStorage.readImages().
+	 *
+	 * @methodtype set
+	 */
+	public void setPrefetchedSizes(Set<PhotoSize> newPrefetchedSizes) {
+		prefetchedSizes = EnumSet.noneOf(PhotoSize.class);
+		prefetchedSizes.addAll(newPrefetchedSizes);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Set<PhotoSize> getUploadSizes() {
+		return uploadSizes;
+	}
+
+	/**
+	 * Sets the sizes that are scaled when a photo is uploaded. The largest size of a photo is always scaled, as the
+	 * other sizes are created from it on first request.
+	 *
+	 * @methodtype set
+	 */
+	public void setUploadSizes(Set<PhotoSize> newUploadSizes) {
+		uploadSizes = EnumSet.noneOf(PhotoSize.class);
+		uploadSizes.addAll(newUploadSizes);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public ImageCache getImageCache() {
+		return imageCache;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public ImageETagCache getImageETags() {
+		return imageETags;
 	}
 
 	/**
@@ -237,6 +560,27 @@ public class PhotoManager extends ObjectManager {
 		}
 	}
 
+	/**
+	 * Saves the owners of all photos together, each one only once.
+	 */
+	@Override
+	protected void updateDependents(Collection<? extends Persistent> objects) {
+		UserManager userManager = UserManager.getInstance();
+		Set<Client> owners = new HashSet<Client>();
+		for (Persistent obj : objects) {
+			if (obj instanceof Photo) {
+				Photo photo = (Photo) obj;
+				saveScaledImages(photo);
+				updateTags(photo);
+				Client owner = userManager.getClientById(photo.getOwnerId());
+				if (owner != null) {
+					owners.add(owner);
+				}
+			}
+		}
+		userManager.saveClients(owners);
+	}
+
 	/**
 	 * @methodtype helper
 	 */
@@ -248,69 +592,334 @@ public class PhotoManager extends ObjectManager {
 	/**
 	 * @methodtype command
 	 *
-	 * Persists all available sizes of the Photo. If one size exceeds the limit of the persistence layer, e.g. > 1MB for
-	 * the Datastore, it is simply not persisted.
+	 * Persists all available sizes of the Photo. Sizes that were deferred on upload are skipped. If one size exceeds
+	 * the limit of the persistence layer, e.g. > 1MB for the Datastore, it and all larger sizes are simply not
+	 * persisted. Persisted images are moved from the photo to the image cache. Uploads call this directly, as the
+	 * images of a new photo only exist in the memory of the uploading instance.
 	 */
-	protected void saveScaledImages(Photo photo) {
+	public void saveScaledImages(Photo photo) {
 		String photoIdAsString = photo.getId().asString();
 		ImageStorage imageStorage = ImageStorage.getInstance();
-		PhotoSize photoSize;
-		int it = 0;
-		boolean moreSizesExist = true;
-		do{
-			photoSize = PhotoSize.values()[it];
-			it++;
+		for (PhotoSize photoSize : PhotoSize.values()) {
 			Image image = photo.getImage(photoSize);
-			if (image != null) {
-				try {
-					if (!imageStorage.doesImageExist(photoIdAsString, photoSize.asInt())) {
-						imageStorage.writeImage(image, photoIdAsString, photoSize.asInt());
-					}
-				} catch (Exception e) {
-					log.warning(LogBuilder.createSystemMessage().
-							addException("Problem when storing image", e).toString());
-					moreSizesExist = false;
-				}
-			} else {
-				log.config(LogBuilder.createSystemMessage().
-						addParameter("No image for size", photoSize.asString()).toString());
-				moreSizesExist = false;
+			if (image == null) {
+				log.config().with("No image for size", photoSize.asString()).log();
+				continue;
 			}
-		} while (it < PhotoSize.values().length && moreSizesExist);
+
+			try {
+				imageStorage.writeIfAbsent(image, photoIdAsString, photoSize.asInt());
+				imageCache.put(photoIdAsString, photoSize, image);
+				photo.removeImage(photoSize);
+			} catch (Exception e) {
+				log.warning().exception("Problem when storing image", e).log();
+				break;
+			}
+		}
+
+		photoCache.updateImageBytes(photo);
 	}
 
 	/**
-	 * Removes all tags of the Photo (obj) in the datastore that have been removed by the user and adds all new tags of
-	 * the photo to the datastore.
+	 * Compares the current tags of the Photo (obj) with the stored Tag entities and writes only the differences to
+	 * the datastore, in one batch. The stored tags are read with one query; the tag index cannot be used instead, as
+	 * another instance may have changed the photo. Duplicate Tag entities are removed as well.
 	 */
 	protected void updateTags(Photo photo) {
-		// delete all existing tags, for the case that some have been removed
-		deleteObjects(Tag.class, Tag.PHOTO_ID, photo.getId().asString());
+		PhotoId photoId = photo.getId();
+		Set<String> tags = new HashSet<String>();
+		photoTagCollector.collect(tags, photo);
 
-		// add all current tags to the datastore
+		synchronized (photo) {
+			// Tag entities have generated ids, so their text is not part of the key and a keys-only query is no use
+			List<Tag> storedTags = new ArrayList<Tag>();
+			readObjects(storedTags, Tag.class, Tag.PHOTO_ID, photoId.asString());
+
+			Set<String> storedTexts = new HashSet<String>();
+			List<Tag> removedTags = new ArrayList<Tag>();
+			for (Tag tag : storedTags) {
+				if (!tags.contains(tag.getText()) || !storedTexts.add(tag.getText())) {
+					removedTags.add(tag);
+				}
+			}
+
+			List<Tag> addedTags = new ArrayList<Tag>();
+			for (String tag : tags) {
+				if (!storedTexts.contains(tag)) {
+					addedTags.add(new Tag(tag, photoId.asString()));
+				}
+			}
+
+			if (!addedTags.isEmpty() || !removedTags.isEmpty()) {
+				log.config().with("photo ID", photoId.asString()).
+						with("added tags", addedTags.size()).
+						with("removed tags", removedTags.size()).log();
+				saveAndDeleteObjects(addedTags, removedTags);
+			}
+			tagIndex.update(photoId, tags);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds the current tags of the photo to the tag index, replacing the ones it had before.
+	 */
+	protected void indexTags(Photo photo) {
 		Set<String> tags = new HashSet<String>();
 		photoTagCollector.collect(tags, photo);
-		for (Iterator<String> i = tags.iterator(); i.hasNext(); ) {
-			Tag tag = new Tag(i.next(), photo.getId().asString());
-			log.config(LogBuilder.createSystemMessage().addParameter("Writing Tag", tag.asString()).toString());
-			writeObject(tag);
+		tagIndex.update(photo.getId(), tags);
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Adds or removes the photo from the displayable photos, depending on its status. Photos that are unknown to the
+	 * PhotoManager, e.g. because they are still being created, are ignored.
+	 */
+	public void updateDisplayablePhotoIds(Photo photo) {
+		PhotoId id = photo.getId();
+		if (id == null || !photoIds.contains(id)) {
+			return;
+		}
+
+		synchronized (displayablePhotoIds) {
+			boolean isChanged = photo.isVisible() ? displayablePhotoIds.add(id) : displayablePhotoIds.remove(id);
+			if (isChanged) {
+				displayablePhotoIdsVersion++;
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getDisplayablePhotoIdsVersion() {
+		return displayablePhotoIdsVersion;
+	}
+
+	/**
+	 * Returns a copy of the ids of all displayable photos, including the ones that are currently not cached.
+	 *
+	 * @methodtype get
+	 */
+	public PhotoIdBitmap getDisplayablePhotoIds() {
+		synchronized (displayablePhotoIds) {
+			return displayablePhotoIds.copy();
 		}
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public TagIndex getTagIndex() {
+		return tagIndex;
+	}
+
+	/**
+	 * Marks the photo to be saved and puts its current state into the memcache batch of the current write-behind
+	 * window, so that any instance can write it with savePhotoBatch(). Returns the id of the batch if the caller has
+	 * to schedule savePhotoBatch() for it, i.e. if WriteBehindBuffer.mark() started a new window, and null otherwise.
+	 *
+	 * @methodtype command
+	 */
+	public String savePhotoLater(Photo photo) {
+		PhotoId id = photo.getId();
+		Entity entity = OfyService.ofy().save().toEntity(photo);
+		MemcacheService memcache = getPendingPhotosMemcache();
+		Expiration expiration = Expiration.byDeltaMillis((int) PENDING_PHOTOS_EXPIRATION);
+		synchronized (pendingPhotoIds) {
+			if (pendingPhotoIds.isDue()) {
+				// the batch of the last window belongs to its task now
+				for (PhotoId handedOverId : pendingPhotoIds.drain()) {
+					Photo handedOverPhoto = doGetPhotoFromId(handedOverId);
+					if (handedOverPhoto != null) {
+						handedOverPhoto.resetWriteCount();
+					}
+				}
+			}
+
+			boolean isNewPhoto = !pendingPhotoIds.isPending(id);
+			boolean isNewBatch = pendingPhotoIds.mark(id);
+			if (isNewBatch) {
+				pendingBatchId = UUID.randomUUID().toString();
+				pendingBatchPhotoIds = new ArrayList<String>();
+			}
+			memcache.put(asBatchEntryKey(pendingBatchId, id.asString()), entity, expiration);
+			if (isNewPhoto) {
+				pendingBatchPhotoIds.add(id.asString());
+				memcache.put(pendingBatchId, new ArrayList<String>(pendingBatchPhotoIds), expiration);
+			}
+			return isNewBatch ? pendingBatchId : null;
+		}
+	}
+
+	/**
+	 * Returns how long to wait before calling savePhotoBatch() for a new batch: the batch is closed after the window,
+	 * one more window lets marks that were in flight at that time reach the memcache.
+	 *
+	 * @methodtype get
+	 */
+	public long getPhotoBatchDelay() {
+		return 2 * pendingPhotoIds.getWindow();
+	}
+
+	/**
+	 * Writes the photos of a batch created by savePhotoLater() from their state in the memcache, on whichever instance
+	 * runs this. If a write fails, the exception is passed on and the batch is kept, so that a retry can write it.
+	 * Cached copies of the written photos that are older and can be reloaded are dropped from the photo cache.
+	 *
+	 * @methodtype command
+	 */
+	@SuppressWarnings("unchecked")
+	public void savePhotoBatch(String batchId) {
+		MemcacheService memcache = getPendingPhotosMemcache();
+		List<String> ids = (List<String>) memcache.get(batchId);
+		if (ids == null) {
+			log.warning().with("Batch of pending photos is not in the memcache", batchId).log();
+			return;
+		}
+
+		List<String> keys = new ArrayList<String>(ids.size() + 1);
+		for (String id : ids) {
+			keys.add(asBatchEntryKey(batchId, id));
+		}
+		Map<String, Object> entities = memcache.getAll(keys);
+		List<Photo> photos = new ArrayList<Photo>(ids.size());
+		for (String key : keys) {
+			Entity entity = (Entity) entities.get(key);
+			if (entity != null) {
+				Photo photo = OfyService.ofy().load().fromEntity(entity);
+				photo.incWriteCount();
+				photos.add(photo);
+			} else {
+				log.warning().with("Pending photo is not in the memcache, could not save it", key).log();
+			}
+		}
+
+		log.config().with("Saving batch of pending photos", batchId).with("size", photos.size()).log();
+		updateObjects(photos);
+
+		for (Photo photo : photos) {
+			Photo cachedPhoto = doGetPhotoFromId(photo.getId());
+			if (cachedPhoto != null && !cachedPhoto.isDirty() && !cachedPhoto.hasPendingPraise() &&
+					!pendingPhotoIds.isPending(photo.getId())) {
+				photoCache.remove(photo.getId());
+			}
+		}
+		keys.add(batchId);
+		memcache.deleteAll(keys);
+	}
+
+	/**
+	 * Saves the photos that have been marked by savePhotoLater() on this instance and are not handed over to a batch
+	 * task yet, e.g. on shutdown. Returns the photos that could not be written; they are still dirty and have to be
+	 * marked again.
+	 *
+	 * @methodtype command
+	 */
+	public List<Photo> savePendingPhotos() {
+		List<PhotoId> ids;
+		synchronized (pendingPhotoIds) {
+			ids = pendingPhotoIds.drain();
+		}
+		List<Photo> photos = new ArrayList<Photo>(ids.size());
+		for (PhotoId id : ids) {
+			Photo photo = doGetPhotoFromId(id);
+			if (photo != null) {
+				photos.add(photo);
+			} else {
+				log.warning().with("Pending photo is not cached, could not save it", id.asString()).log();
+			}
+		}
+
+		log.config().with("Saving pending photos", photos.size()).log();
+		try {
+			updateObjects(photos);
+		} catch (RuntimeException ex) {
+			log.warning().exception("Could not save all pending photos", ex).log();
+		}
+
+		List<Photo> result = new ArrayList<Photo>();
+		for (Photo photo : photos) {
+			if (photo.isDirty()) {
+				result.add(photo);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected MemcacheService getPendingPhotosMemcache() {
+		return MemcacheServiceFactory.getMemcacheService(PENDING_PHOTOS_NAMESPACE);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asBatchEntryKey(String batchId, String photoIdAsString) {
+		return batchId + "/" + photoIdAsString;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public WriteBehindBuffer<PhotoId> getPendingPhotoIds() {
+		return pendingPhotoIds;
+	}
+
+	/**
+	 * Replaces the buffer of photos to be saved, e.g. to use another window. Call before init().
+	 *
+	 * @methodtype set
+	 */
+	public void setPendingPhotoIds(WriteBehindBuffer<PhotoId> newPendingPhotoIds) {
+		pendingPhotoIds = newPendingPhotoIds;
+	}
+
+	/**
+	 * Saves the specified photos in batches.
+	 *
+	 * @methodtype command
+	 */
+	public void savePhotos(Collection<Photo> photos) {
+		updateObjects(photos);
+	}
+
 	/**
 	 *
 	 */
 	public void savePhotos() throws IOException{
-		updateObjects(photoCache.values());
+		updateObjects(photoCache.getPhotos());
 	}
 
 	/**
 	 * @methodtype get
 	 */
-	public Map<PhotoId, Photo> getPhotoCache() {
+	public PhotoCache getPhotoCache() {
 		return photoCache;
 	}
 
+	/**
+	 * Replaces the photo cache, e.g. to use another size or eviction policy. Call before init().
+	 *
+	 * @methodtype set
+	 */
+	public void setPhotoCache(PhotoCache newPhotoCache) {
+		photoCache = newPhotoCache;
+	}
+
+	/**
+	 * Returns the ids of all known photos, including the ones that are currently not cached.
+	 *
+	 * @methodtype get
+	 */
+	public Set<PhotoId> getPhotoIds() {
+		return Collections.unmodifiableSet(photoIds);
+	}
+
 	/**
 	 *
 	 */
@@ -319,7 +928,9 @@ public class PhotoManager extends ObjectManager {
 		readObjects(result, Photo.class, Photo.OWNER_ID, ownerName);
 
 		for (Iterator<Photo> i = result.iterator(); i.hasNext(); ) {
-			doAddPhoto(i.next());
+			Photo photo = i.next();
+			doAddPhoto(photo);
+			indexTags(photo);
 		}
 
 		return result;
@@ -329,8 +940,24 @@ public class PhotoManager extends ObjectManager {
 	 *
 	 */
 	public Photo getVisiblePhoto(PhotoFilter filter) {
-		filter.generateDisplayablePhotoIds();
-		return getPhotoFromId(filter.getRandomDisplayablePhotoId());
+		filter.updateDisplayablePhotoIds();
+		return photoSelector.selectPhoto(filter);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoSelector getPhotoSelector() {
+		return photoSelector;
+	}
+
+	/**
+	 * Replaces the photo selector, e.g. to weight photos by recency or praise.
+	 *
+	 * @methodtype set
+	 */
+	public void setPhotoSelector(PhotoSelector newPhotoSelector) {
+		photoSelector = newPhotoSelector;
 	}
 
 	/**
@@ -338,7 +965,7 @@ public class PhotoManager extends ObjectManager {
 	 */
 	public Photo createPhoto(String filename, Image uploadedImage) throws Exception {
 		PhotoId id = PhotoId.getNextId();
-		Photo result = PhotoUtil.createPhoto(filename, id, uploadedImage);
+		Photo result = PhotoUtil.createPhoto(filename, id, uploadedImage, uploadSizes);
 		addPhoto(result);
 		return result;
 	}
@@ -358,7 +985,8 @@ public class PhotoManager extends ObjectManager {
 	 * @methodtype assertion
 	 */
 	protected void assertIsNewPhoto(PhotoId id) {
-		if (hasPhoto(id)) {
+		// all stored photos are known after loadPhotos(), so the Datastore does not have to be asked
+		if (photoIds.contains(id) || doHasPhoto(id)) {
 			throw new IllegalStateException("Photo already exists!");
 		}
 	}
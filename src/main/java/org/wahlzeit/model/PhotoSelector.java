@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.Random;
+
+/**
+ * A PhotoSelector picks the next photo to show from the displayable photos of a PhotoFilter. Without a
+ * PhotoWeighting every candidate is equally likely; with one, a uniformly picked candidate is accepted with a
+ * probability equal to its weight (rejection sampling), so each pick still takes expected constant time. Candidates
+ * that turn out to be no longer visible are removed from the filter.
+ */
+public class PhotoSelector {
+
+	/**
+	 * Upper bound for the number of candidates looked at per pick
+	 */
+	public static final int MAX_ATTEMPTS = 32;
+
+	/**
+	 * Null selects uniformly
+	 */
+	protected PhotoWeighting photoWeighting;
+
+	/**
+	 *
+	 */
+	protected Random random = new Random();
+
+	/**
+	 *
+	 */
+	public PhotoSelector() {
+		this(null);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public PhotoSelector(PhotoWeighting myPhotoWeighting) {
+		photoWeighting = myPhotoWeighting;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PhotoWeighting getPhotoWeighting() {
+		return photoWeighting;
+	}
+
+	/**
+	 * Returns a visible photo of the filter's displayable photos, or null if there is none.
+	 *
+	 * @methodtype get
+	 */
+	public Photo selectPhoto(PhotoFilter filter) {
+		PhotoManager photoManager = PhotoManager.getInstance();
+		Photo fallback = null;
+		for (int i = 0; i < MAX_ATTEMPTS && !filter.getDisplayablePhotoIds().isEmpty(); i++) {
+			PhotoId id = filter.getDisplayablePhotoIds().getRandomId(random);
+			Photo photo = photoManager.getPhotoFromId(id);
+			if (photo == null || !photo.isVisible()) {
+				filter.removeDisplayablePhotoId(id);
+			} else if (photoWeighting == null || random.nextDouble() < photoWeighting.getWeight(photo)) {
+				return photo;
+			} else if (fallback == null) {
+				fallback = photo;
+			}
+		}
+
+		// all attempts were rejected, better show a photo with low weight than none
+		return fallback;
+	}
+
+}
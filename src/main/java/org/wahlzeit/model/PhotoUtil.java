@@ -24,9 +24,10 @@ import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesService;
 import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.appengine.api.images.Transform;
-import org.wahlzeit.services.LogBuilder;
 
-import java.util.logging.Logger;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * PhotoUtil provides a set of utility functions to create defined images.
@@ -34,16 +35,22 @@ import java.util.logging.Logger;
  */
 public class PhotoUtil {
 
-	private static final Logger log = Logger.getLogger(PhotoUtil.class.getName());
-
 	/**
 	 * @methodtype creation
 	 */
 	public static Photo createPhoto(String filename, PhotoId id, Image uploadedImage) throws Exception {
+		return createPhoto(filename, id, uploadedImage, EnumSet.allOf(PhotoSize.class));
+	}
+
+	/**
+	 * @methodtype creation
+	 */
+	public static Photo createPhoto(String filename, PhotoId id, Image uploadedImage, Set<PhotoSize> sizes)
+			throws Exception {
 		Photo result = PhotoFactory.getInstance().createPhoto(id);
 		result.setEnding(filename.substring(filename.lastIndexOf(".") + 1));
 
-		createImageFiles(uploadedImage, result);
+		createImageFiles(uploadedImage, result, sizes);
 
 		int sourceWidth = uploadedImage.getWidth();
 		int sourceHeight = uploadedImage.getHeight();
@@ -56,19 +63,54 @@ public class PhotoUtil {
 	 *
 	 */
 	public static void createImageFiles(Image source, Photo photo) throws Exception {
+		createImageFiles(source, photo, EnumSet.allOf(PhotoSize.class));
+	}
+
+	/**
+	 * Scales the source to the given sizes and to the largest size it is large enough for. All other sizes can be
+	 * created from the latter on demand, see createScaledImage().
+	 */
+	public static void createImageFiles(Image source, Photo photo, Set<PhotoSize> sizes) throws Exception {
 		assertIsValidImage(source);
 
 		int sourceWidth = source.getWidth();
 		int sourceHeight = source.getHeight();
 		assertHasValidSize(sourceWidth, sourceHeight);
 
-		for (PhotoSize size : PhotoSize.values()) {
-			if (!size.isWiderAndHigher(sourceWidth, sourceHeight)) {
-				scaleImage(ImagesServiceFactory.makeImage(source.getImageData()), size, photo);
-			}
+		Set<PhotoSize> scaledSizes = getScaledSizes(sizes, sourceWidth, sourceHeight);
+		Map<PhotoSize, Image> images = new ScalingPipeline().scale(source, scaledSizes);
+		for (Map.Entry<PhotoSize, Image> entry : images.entrySet()) {
+			photo.setImage(entry.getKey(), entry.getValue());
 		}
 	}
 
+	/**
+	 * Returns the sizes to be scaled on upload: the given ones plus the largest size the source is large enough for.
+	 *
+	 * @methodtype get
+	 */
+	public static Set<PhotoSize> getScaledSizes(Set<PhotoSize> sizes, int sourceWidth, int sourceHeight) {
+		Set<PhotoSize> result = EnumSet.noneOf(PhotoSize.class);
+		result.addAll(sizes);
+		result.add(PhotoSize.getFromWidthHeight(sourceWidth, sourceHeight));
+		return result;
+	}
+
+	/**
+	 * Scales an image of a larger size of the photo to the given size. The target dimensions are derived from the
+	 * dimensions of the uploaded image, so the result is the same size as if it had been scaled on upload.
+	 *
+	 * @methodtype factory
+	 */
+	public static Image createScaledImage(Image largerImage, PhotoSize size, Photo photo) {
+		int targetWidth = size.calcAdjustedWidth(photo.getWidth(), photo.getHeight());
+		int targetHeight = size.calcAdjustedHeight(photo.getWidth(), photo.getHeight());
+
+		ImagesService imagesService = ImagesServiceFactory.getImagesService();
+		Transform resize = ImagesServiceFactory.makeResize(targetWidth, targetHeight);
+		return imagesService.applyTransform(resize, ImagesServiceFactory.makeImage(largerImage.getImageData()));
+	}
+
 	/**
 	 * @methodtype assertion
 	 */
@@ -88,23 +130,48 @@ public class PhotoUtil {
 	}
 
 	/**
-	 * @methodtype command Scale the source picture to the given size, store it in the datastore and reference it in the
-	 * photo.
+	 * Returns the MIME type of the image data. Scaled images are encoded by the images service, so their format may
+	 * differ from the uploaded file; the data is checked first, the file ending of the photo is the fallback.
+	 *
+	 * @methodtype conversion
 	 */
-	protected static void scaleImage(Image source, PhotoSize size, Photo photo) throws Exception {
-		int sourceWidth = source.getWidth();
-		int sourceHeight = source.getHeight();
-
-		int targetWidth = size.calcAdjustedWidth(sourceWidth, sourceHeight);
-		int targetHeight = size.calcAdjustedHeight(sourceWidth, sourceHeight);
-
-		ImagesService imagesService = ImagesServiceFactory.getImagesService();
-		Transform resize = ImagesServiceFactory.makeResize(targetWidth, targetHeight);
-		Image newImage = imagesService.applyTransform(resize, source);
+	public static String getContentType(byte[] imageData, String ending) {
+		if (startsWith(imageData, 0x89, 'P', 'N', 'G')) {
+			return "image/png";
+		} else if (startsWith(imageData, 0xff, 0xd8, 0xff)) {
+			return "image/jpeg";
+		} else if (startsWith(imageData, 'G', 'I', 'F', '8')) {
+			return "image/gif";
+		} else if (startsWith(imageData, 'B', 'M')) {
+			return "image/bmp";
+		} else if (startsWith(imageData, 'R', 'I', 'F', 'F') && imageData.length > 12 && imageData[8] == 'W') {
+			return "image/webp";
+		}
 
-		photo.setImage(size, newImage);
+		String lowerCaseEnding = ending == null ? "" : ending.toLowerCase();
+		if ("jpg".equals(lowerCaseEnding) || "jpeg".equals(lowerCaseEnding)) {
+			return "image/jpeg";
+		} else if ("png".equals(lowerCaseEnding) || "gif".equals(lowerCaseEnding)) {
+			return "image/" + lowerCaseEnding;
+		} else if ("tif".equals(lowerCaseEnding) || "tiff".equals(lowerCaseEnding)) {
+			return "image/tiff";
+		}
+		return "application/octet-stream";
+	}
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Scaled image to size", size.asString()).toString());
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected static boolean startsWith(byte[] data, int... prefix) {
+		if (data == null || data.length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if ((data[i] & 0xff) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A PostingList is a compact, sorted set of photo ids, stored as their int values. It supports the set operations
+ * needed to evaluate tag queries by merging sorted lists, see TagIndex.
+ */
+public class PostingList implements Serializable {
+
+	/**
+	 *
+	 */
+	protected static final int INITIAL_CAPACITY = 4;
+
+	/**
+	 * Sorted ascending, without duplicates; only the first size entries are valid
+	 */
+	protected int[] ids;
+	protected int size;
+
+	/**
+	 *
+	 */
+	public PostingList() {
+		this(new int[INITIAL_CAPACITY], 0);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	protected PostingList(int[] myIds, int mySize) {
+		ids = myIds;
+		size = mySize;
+	}
+
+	/**
+	 * @methodtype copy
+	 */
+	public PostingList copy() {
+		return new PostingList(Arrays.copyOf(ids, Math.max(size, INITIAL_CAPACITY)), size);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+		}
+		return ids[index];
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean contains(int id) {
+		return Arrays.binarySearch(ids, 0, size, id) >= 0;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean add(int id) {
+		int index = Arrays.binarySearch(ids, 0, size, id);
+		if (index >= 0) {
+			return false;
+		}
+
+		index = -(index + 1);
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, Math.max(INITIAL_CAPACITY, size + (size >> 1) + 1));
+		}
+		System.arraycopy(ids, index, ids, index + 1, size - index);
+		ids[index] = id;
+		size++;
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public boolean remove(int id) {
+		int index = Arrays.binarySearch(ids, 0, size, id);
+		if (index < 0) {
+			return false;
+		}
+
+		System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+		size--;
+		return true;
+	}
+
+	/**
+	 * Returns a new list with all ids that are contained in this and in the other list.
+	 *
+	 * @methodtype factory
+	 */
+	public PostingList intersect(PostingList other) {
+		int[] result = new int[Math.min(size, other.size)];
+		int resultSize = 0;
+		for (int i = 0, j = 0; i < size && j < other.size; ) {
+			if (ids[i] < other.ids[j]) {
+				i++;
+			} else if (ids[i] > other.ids[j]) {
+				j++;
+			} else {
+				result[resultSize++] = ids[i];
+				i++;
+				j++;
+			}
+		}
+		return new PostingList(result, resultSize);
+	}
+
+	/**
+	 * Returns a new list with all ids that are contained in this or in the other list.
+	 *
+	 * @methodtype factory
+	 */
+	public PostingList union(PostingList other) {
+		int[] result = new int[size + other.size];
+		int resultSize = 0;
+		int i = 0;
+		int j = 0;
+		while (i < size && j < other.size) {
+			if (ids[i] < other.ids[j]) {
+				result[resultSize++] = ids[i++];
+			} else if (ids[i] > other.ids[j]) {
+				result[resultSize++] = other.ids[j++];
+			} else {
+				result[resultSize++] = ids[i++];
+				j++;
+			}
+		}
+		while (i < size) {
+			result[resultSize++] = ids[i++];
+		}
+		while (j < other.size) {
+			result[resultSize++] = other.ids[j++];
+		}
+		return new PostingList(result, resultSize);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public int[] asArray() {
+		return Arrays.copyOf(ids, size);
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof PostingList)) {
+			return false;
+		}
+
+		PostingList other = (PostingList) o;
+		if (size != other.size) {
+			return false;
+		}
+		for (int i = 0; i < size; i++) {
+			if (ids[i] != other.ids[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 */
+	@Override
+	public int hashCode() {
+		int result = 1;
+		for (int i = 0; i < size; i++) {
+			result = 31 * result + ids[i];
+		}
+		return result;
+	}
+
+}
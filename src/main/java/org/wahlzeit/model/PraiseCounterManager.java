@@ -0,0 +1,463 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.WriteBehindBuffer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.wahlzeit.services.OfyService.ofy;
+
+/**
+ * The PraiseCounterManager persists votes in PraiseCounterShards instead of the photos themselves. Votes are first
+ * collected in a memcache batch per write-behind window, which a task writes in one transaction per photo, each to a
+ * shard chosen by the batch. From time to time, aggregatePraise() sums up the shards of the photos that have new votes
+ * and stores the totals with the photos.
+ */
+public class PraiseCounterManager extends ObjectManager {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_NO_COUNTER_SHARDS = 8;
+
+	/**
+	 * Memcache namespace and lifetime (ms) of the batches of votes, see addPraise()
+	 */
+	protected static final String PENDING_PRAISE_NAMESPACE = "pendingPraise";
+	protected static final long PENDING_PRAISE_EXPIRATION = 60 * 60 * 1000;
+
+	/**
+	 *
+	 */
+	protected static PraiseCounterManager instance = new PraiseCounterManager();
+
+	private static final Logger log = Logger.getLogger(PraiseCounterManager.class.getName());
+
+	/**
+	 * Number of shards a photo's votes are spread over; may be raised, but must never be lowered
+	 */
+	protected int noCounterShards = DEFAULT_NO_COUNTER_SHARDS;
+
+	/**
+	 * Ids of photos with votes waiting to be written
+	 */
+	protected WriteBehindBuffer<PhotoId> pendingPhotoIds = new WriteBehindBuffer<PhotoId>();
+
+	/**
+	 * Memcache key and photo ids of the batch of the current write-behind window, see addPraise(); guarded by
+	 * pendingPhotoIds
+	 */
+	protected String pendingBatchId = null;
+	protected List<String> pendingBatchPhotoIds = new ArrayList<String>();
+
+	/**
+	 * @methodtype get
+	 */
+	public static PraiseCounterManager getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static void setInstance(PraiseCounterManager manager) {
+		instance = manager;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoCounterShards() {
+		return noCounterShards;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setNoCounterShards(int newNoCounterShards) {
+		if (newNoCounterShards < 1) {
+			throw new IllegalArgumentException("number of counter shards must be positive");
+		}
+		noCounterShards = newNoCounterShards;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public WriteBehindBuffer<PhotoId> getPendingPhotoIds() {
+		return pendingPhotoIds;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setPendingPhotoIds(WriteBehindBuffer<PhotoId> newPendingPhotoIds) {
+		pendingPhotoIds = newPendingPhotoIds;
+	}
+
+	/**
+	 * Counts the vote with the photo and adds it to the memcache batch of the current write-behind window, so that any
+	 * instance can write it with savePraiseBatch(). Returns the id of the batch if the caller has to schedule
+	 * savePraiseBatch() for it, i.e. if WriteBehindBuffer.mark() started a new window, and null otherwise. If the vote
+	 * cannot be added to the memcache, it is written right away.
+	 *
+	 * @methodtype command
+	 */
+	public String addPraise(Photo photo, int value) {
+		if (value < 0) {
+			// memcache counters cannot go below zero
+			throw new IllegalArgumentException("praise must not be negative");
+		}
+
+		PhotoId id = photo.getId();
+		MemcacheService memcache = getPendingPraiseMemcache();
+		Expiration expiration = Expiration.byDeltaMillis((int) PENDING_PRAISE_EXPIRATION);
+		String result = null;
+		boolean isInBatch;
+		synchronized (pendingPhotoIds) {
+			if (pendingPhotoIds.isDue()) {
+				// the batch of the last window belongs to its task now
+				countPraise(removePendingPraise());
+			}
+
+			boolean isNewPhoto = !pendingPhotoIds.isPending(id);
+			if (pendingPhotoIds.mark(id)) {
+				pendingBatchId = UUID.randomUUID().toString();
+				pendingBatchPhotoIds = new ArrayList<String>();
+				result = pendingBatchId;
+			}
+			isInBatch = memcache.increment(asBatchEntryKey(pendingBatchId, id.asString()), asBatchEntry(value, 1),
+					0L) != null;
+			if (isInBatch) {
+				photo.addToPraise(value);
+				if (isNewPhoto) {
+					pendingBatchPhotoIds.add(id.asString());
+					memcache.put(pendingBatchId, new ArrayList<String>(pendingBatchPhotoIds), expiration);
+				}
+			}
+		}
+
+		if (!isInBatch) {
+			log.warning(LogBuilder.createSystemMessage().addParameter("Could not add vote to batch, writing it",
+					id.asString()).toString());
+			addToCounterShard(UUID.randomUUID().toString(), id, value, 1);
+			photo.addCountedPraise(value, 1);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns how long to wait before calling savePraiseBatch() for a new batch: the batch is closed after the window,
+	 * one more window lets votes that were in flight at that time reach the memcache.
+	 *
+	 * @methodtype get
+	 */
+	public long getPraiseBatchDelay() {
+		return 2 * pendingPhotoIds.getWindow();
+	}
+
+	/**
+	 * Removes the pending votes of all marked photos and returns them as praise sum and number of votes per photo.
+	 *
+	 * @methodtype command
+	 */
+	protected Map<PhotoId, long[]> removePendingPraise() {
+		Map<PhotoId, long[]> result = new LinkedHashMap<PhotoId, long[]>();
+		for (PhotoId id : pendingPhotoIds.drain()) {
+			Photo photo = PhotoManager.getInstance().getPhotoCache().get(id);
+			// photos with pending praise are never evicted from the cache
+			if (photo != null && photo.hasPendingPraise()) {
+				result.put(id, new long[] { photo.removePendingPraiseSum(), photo.removePendingNoVotes() });
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds votes taken with removePendingPraise() to the counted votes of their photos.
+	 *
+	 * @methodtype command
+	 */
+	protected void countPraise(Map<PhotoId, long[]> praise) {
+		for (Map.Entry<PhotoId, long[]> entry : praise.entrySet()) {
+			Photo photo = PhotoManager.getInstance().getPhotoCache().get(entry.getKey());
+			if (photo != null) {
+				photo.addCountedPraise(entry.getValue()[0], entry.getValue()[1]);
+			}
+		}
+	}
+
+	/**
+	 * Hands the votes of the current window on to their batch, e.g. on shutdown, so that they no longer pin their
+	 * photos to the cache; they are written by the task of the batch.
+	 *
+	 * @methodtype command
+	 */
+	public void savePendingPraise() {
+		synchronized (pendingPhotoIds) {
+			countPraise(removePendingPraise());
+		}
+	}
+
+	/**
+	 * Writes the votes of a batch created by addPraise() from the memcache, on whichever instance runs this. If a write
+	 * fails, the exception is passed on and the batch is kept, so that a retry can write it.
+	 *
+	 * @methodtype command
+	 */
+	@SuppressWarnings("unchecked")
+	public void savePraiseBatch(String batchId) {
+		MemcacheService memcache = getPendingPraiseMemcache();
+		List<String> ids = (List<String>) memcache.get(batchId);
+		if (ids == null) {
+			log.warning(LogBuilder.createSystemMessage().addParameter("Batch of votes is not in the memcache",
+					batchId).toString());
+			return;
+		}
+
+		List<String> keys = new ArrayList<String>(ids.size() + 1);
+		for (String id : ids) {
+			keys.add(asBatchEntryKey(batchId, id));
+		}
+		Map<String, Object> entries = memcache.getAll(keys);
+		Map<PhotoId, long[]> praise = new LinkedHashMap<PhotoId, long[]>();
+		for (String id : ids) {
+			Object entry = entries.get(asBatchEntryKey(batchId, id));
+			if (entry != null) {
+				long value = Long.parseLong(entry.toString());
+				praise.put(PhotoId.getIdFromString(id), new long[] { value >>> 32, value & 0xFFFFFFFFL });
+			} else {
+				log.warning(LogBuilder.createSystemMessage().addParameter("Votes are not in the memcache, lost them",
+						id).toString());
+			}
+		}
+
+		savePraise(batchId, praise);
+		keys.add(batchId);
+		memcache.deleteAll(keys);
+	}
+
+	/**
+	 * Writes the given votes of a batch to PraiseCounterShards, one transaction per photo. A shard records the ids of
+	 * the batches it has added, so writing a batch again does not count its votes twice. If some votes could not be
+	 * written, the first exception is passed on after all others have been written.
+	 *
+	 * @methodtype command
+	 */
+	public void savePraise(String batchId, Map<PhotoId, long[]> praise) {
+		RuntimeException failure = null;
+		int noFailures = 0;
+		for (Map.Entry<PhotoId, long[]> entry : praise.entrySet()) {
+			PhotoId id = entry.getKey();
+			try {
+				addToCounterShard(batchId, id, entry.getValue()[0], entry.getValue()[1]);
+			} catch (RuntimeException ex) {
+				failure = failure == null ? ex : failure;
+				noFailures++;
+				log.warning(LogBuilder.createSystemMessage().addException("Could not write praise of photo " +
+						id.asString(), ex).toString());
+			}
+		}
+
+		log.config(LogBuilder.createSystemMessage().addParameter("Saved praise of photos",
+				praise.size() - noFailures).toString());
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Adds the votes of a batch to a shard of the photo. The shard is chosen by the batch, so that a retry finds the
+	 * batch in the same shard; raising the number of shards while batches are retried may count them twice.
+	 *
+	 * @methodtype command
+	 */
+	protected void addToCounterShard(final String batchId, final PhotoId photoId, final long praise, final long votes) {
+		final int shardIndex = ((batchId + photoId.asString()).hashCode() & Integer.MAX_VALUE) % noCounterShards;
+		ofy().transact(new VoidWork() {
+			@Override
+			public void vrun() {
+				String shardId = PraiseCounterShard.createId(photoId, shardIndex);
+				PraiseCounterShard shard = ofy().load().type(PraiseCounterShard.class).id(shardId).now();
+				if (shard == null) {
+					shard = new PraiseCounterShard(photoId, shardIndex);
+				} else if (shard.hasBatch(batchId)) {
+					return;
+				}
+				shard.addPraise(batchId, praise, votes);
+				ofy().save().entity(shard).now();
+			}
+		});
+	}
+
+	/**
+	 * Sums up the PraiseCounterShards of all photos that have shards changed since the last aggregation, and writes
+	 * the totals to the stored photos; nothing else of the photos is written. The query for changed shards is
+	 * eventually consistent, so recently written votes may be missed; they are counted by a later call.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void aggregatePraise() {
+		Set<String> changedPhotoIds = new LinkedHashSet<String>();
+		List<PraiseCounterShard> changedShards = new ArrayList<PraiseCounterShard>();
+		for (PraiseCounterShard shard : ofy().load().type(PraiseCounterShard.class).
+				filter(PraiseCounterShard.IS_AGGREGATED, false)) {
+			changedPhotoIds.add(shard.getPhotoId());
+			changedShards.add(shard);
+		}
+
+		Map<String, long[]> totals = new HashMap<String, long[]>();
+		for (String photoId : changedPhotoIds) {
+			List<String> shardIds = new ArrayList<String>(noCounterShards);
+			for (int i = 0; i < noCounterShards; i++) {
+				shardIds.add(PraiseCounterShard.createId(PhotoId.getIdFromString(photoId), i));
+			}
+			long[] total = new long[2];
+			for (PraiseCounterShard shard : ofy().load().type(PraiseCounterShard.class).ids(shardIds).values()) {
+				total[0] += shard.getPraiseSum();
+				total[1] += shard.getNoVotes();
+			}
+			totals.put(photoId, total);
+		}
+
+		int noSavedPhotos = 0;
+		Set<String> failedPhotoIds = new HashSet<String>();
+		for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+			try {
+				if (saveCountedPraise(entry.getKey(), entry.getValue()[0], entry.getValue()[1])) {
+					noSavedPhotos++;
+				}
+			} catch (RuntimeException ex) {
+				log.warning(LogBuilder.createSystemMessage().addException("Could not save praise of photo " +
+						entry.getKey(), ex).toString());
+				failedPhotoIds.add(entry.getKey());
+			}
+		}
+
+		for (PraiseCounterShard shard : changedShards) {
+			if (!failedPhotoIds.contains(shard.getPhotoId())) {
+				markAggregated(shard);
+			}
+		}
+
+		log.info(LogBuilder.createSystemMessage().addAction("aggregate praise")
+				.addParameter("number of changed photos", noSavedPhotos).toString());
+	}
+
+	/**
+	 * Writes the praise totals to the stored photo in a transaction, and sets them with the cached photo, if any.
+	 * Returns true if the stored photo has changed.
+	 *
+	 * @methodtype command
+	 */
+	protected boolean saveCountedPraise(String photoId, final long praise, final long votes) {
+		PhotoManager photoManager = PhotoManager.getInstance();
+		Photo photo = photoManager.getPhoto(photoId);
+		if (photo == null) {
+			return false;
+		}
+
+		final com.googlecode.objectify.Key<Photo> key = com.googlecode.objectify.Key.create(photo);
+		boolean result = ofy().transact(new Work<Boolean>() {
+			@Override
+			public Boolean run() {
+				Photo storedPhoto = ofy().load().key(key).now();
+				if (storedPhoto == null || !storedPhoto.setCountedPraise(praise, votes)) {
+					return false;
+				}
+				ofy().save().entity(storedPhoto).now();
+				return true;
+			}
+		});
+
+		boolean wasDirty = photo.isDirty();
+		if (photo.setCountedPraise(praise, votes) && !wasDirty) {
+			// the totals have just been written
+			photo.resetWriteCount();
+		}
+		return result;
+	}
+
+	/**
+	 * Marks the shard as aggregated in a transaction, unless votes have been added to it since it has been read.
+	 *
+	 * @methodtype command
+	 */
+	protected void markAggregated(final PraiseCounterShard shard) {
+		try {
+			ofy().transact(new VoidWork() {
+				@Override
+				public void vrun() {
+					PraiseCounterShard storedShard = ofy().load().entity(shard).now();
+					if (storedShard != null && storedShard.getNoVotes() == shard.getNoVotes()) {
+						storedShard.setAggregated(true);
+						ofy().save().entity(storedShard).now();
+					}
+				}
+			});
+		} catch (RuntimeException ex) {
+			// the shard is aggregated again by the next call
+			log.warning(LogBuilder.createSystemMessage().addException("Could not mark shard as aggregated " +
+					shard.getId(), ex).toString());
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected MemcacheService getPendingPraiseMemcache() {
+		return MemcacheServiceFactory.getMemcacheService(PENDING_PRAISE_NAMESPACE);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asBatchEntryKey(String batchId, String photoIdAsString) {
+		return batchId + "/" + photoIdAsString;
+	}
+
+	/**
+	 * Packs praise sum and number of votes into one number, so that the memcache can add both in one atomic increment.
+	 *
+	 * @methodtype conversion
+	 */
+	protected static long asBatchEntry(long praise, long votes) {
+		return (praise << 32) + votes;
+	}
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import org.wahlzeit.services.DataObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A PraiseCounterShard holds part of the votes of a photo. Each photo has several shards; a vote is added to a
+ * shard chosen by the batch the vote belongs to, so that concurrent votes rarely contend for the same entity. Shards
+ * are root entities, i.e. each one is an entity group of its own. A shard remembers the batches it has recently added
+ * and whether it has changed since the last aggregation.
+ */
+@Entity
+public class PraiseCounterShard extends DataObject {
+
+	public static final String PHOTO_ID = "photoId";
+	public static final String IS_AGGREGATED = "isAggregated";
+
+	/**
+	 * Number of batch ids a shard remembers; enough to recognize retries of the tasks that write the batches
+	 */
+	public static final int MAX_RECENT_BATCH_IDS = 100;
+
+	@Id
+	protected String id;
+
+	@Index
+	protected String photoId;
+
+	protected long praiseSum = 0;
+	protected long noVotes = 0;
+
+	/**
+	 * Ids of the batches added last, oldest first
+	 */
+	protected List<String> recentBatchIds = new ArrayList<String>();
+
+	/**
+	 *
+	 */
+	@Index
+	protected boolean isAggregated = false;
+
+	/**
+	 *
+	 */
+	public PraiseCounterShard() {
+		// do nothing, necessary for Objectify
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public PraiseCounterShard(PhotoId myPhotoId, int shardIndex) {
+		id = createId(myPhotoId, shardIndex);
+		photoId = myPhotoId.asString();
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public static String createId(PhotoId photoId, int shardIndex) {
+		return photoId.asString() + "-" + shardIndex;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getPhotoId() {
+		return photoId;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getPraiseSum() {
+		return praiseSum;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoVotes() {
+		return noVotes;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean hasBatch(String batchId) {
+		return recentBatchIds.contains(batchId);
+	}
+
+	/**
+	 * Adds the votes of a batch, unless the batch has been added already.
+	 *
+	 * @methodtype command
+	 */
+	public void addPraise(String batchId, long praise, long votes) {
+		if (hasBatch(batchId)) {
+			return;
+		}
+
+		praiseSum += praise;
+		noVotes += votes;
+		recentBatchIds.add(batchId);
+		if (recentBatchIds.size() > MAX_RECENT_BATCH_IDS) {
+			recentBatchIds.remove(0);
+		}
+		isAggregated = false;
+		incWriteCount();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isAggregated() {
+		return isAggregated;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setAggregated(boolean aggregated) {
+		isAggregated = aggregated;
+		incWriteCount();
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+/**
+ * A PraisePhotoWeighting prefers well-rated photos. The weight is proportional to the average praise of a photo,
+ * which ranges from 1 to 10.
+ */
+@Pattern(
+	name = "Strategy",
+	participants = {
+		"ConcreteStrategy" // This class
+	}
+)
+public class PraisePhotoWeighting implements PhotoWeighting {
+
+	/**
+	 *
+	 */
+	public static final double MAX_PRAISE = 10.0;
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	public double getWeight(Photo photo) {
+		return Math.min(1.0, photo.getPraise() / MAX_PRAISE);
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+/**
+ * A RecencyPhotoWeighting prefers new photos. The weight of a photo halves with every half-life that has passed
+ * since its creation, but never drops below a minimum weight, so that old photos are still shown sometimes.
+ */
+@Pattern(
+	name = "Strategy",
+	participants = {
+		"ConcreteStrategy" // This class
+	}
+)
+public class RecencyPhotoWeighting implements PhotoWeighting {
+
+	/**
+	 *
+	 */
+	public static final long DEFAULT_HALF_LIFE = 7L * 24 * 60 * 60 * 1000; // one week
+	public static final double DEFAULT_MIN_WEIGHT = 0.1;
+
+	/**
+	 *
+	 */
+	protected final long halfLife;
+	protected final double minWeight;
+
+	/**
+	 *
+	 */
+	public RecencyPhotoWeighting() {
+		this(DEFAULT_HALF_LIFE, DEFAULT_MIN_WEIGHT);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public RecencyPhotoWeighting(long myHalfLife, double myMinWeight) {
+		if (myHalfLife <= 0) {
+			throw new IllegalArgumentException("half-life must be positive");
+		}
+		halfLife = myHalfLife;
+		minWeight = myMinWeight;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	@Override
+	public double getWeight(Photo photo) {
+		long age = Math.max(0, System.currentTimeMillis() - photo.getCreationTime());
+		return Math.max(minWeight, Math.pow(0.5, (double) age / halfLife));
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesService;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import com.google.appengine.api.images.Transform;
+import org.wahlzeit.services.LogBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * A ScalingPipeline scales an image to several PhotoSizes. Instead of scaling every size from the original, sizes
+ * are computed from the largest to the smallest in noChains interleaved chains, e.g. EXTRA_LARGE, MEDIUM, EXTRA_SMALL
+ * and LARGE, SMALL, THUMB for two chains. Each step starts from the previous, i.e. the nearest larger, size of its
+ * chain, so the images service handles ever smaller images. The steps of one stage, i.e. one step of each chain, run
+ * concurrently as asynchronous calls of the images service. A pipeline records the duration of each stage, so use
+ * one instance per image.
+ */
+public class ScalingPipeline {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_NO_CHAINS = 2;
+
+	private static final Logger log = Logger.getLogger(ScalingPipeline.class.getName());
+
+	/**
+	 * Number of concurrent calls of the images service
+	 */
+	protected final int noChains;
+
+	/**
+	 * Duration of each stage of the last call of scale() in milliseconds
+	 */
+	protected List<Long> stageTimes = new ArrayList<Long>();
+
+	/**
+	 *
+	 */
+	public ScalingPipeline() {
+		this(DEFAULT_NO_CHAINS);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public ScalingPipeline(int myNoChains) {
+		if (myNoChains < 1) {
+			throw new IllegalArgumentException("number of chains must be positive");
+		}
+		noChains = myNoChains;
+	}
+
+	/**
+	 * Scales the source to all given sizes that it is large enough for, see PhotoSize.isWiderAndHigher(). The source
+	 * is not changed.
+	 *
+	 * @methodtype command
+	 */
+	public Map<PhotoSize, Image> scale(Image source, Collection<PhotoSize> sizes) {
+		// width and height are determined once, all target sizes depend on them
+		int sourceWidth = source.getWidth();
+		int sourceHeight = source.getHeight();
+
+		ImagesService imagesService = ImagesServiceFactory.getImagesService();
+		Map<PhotoSize, Image> result = new EnumMap<PhotoSize, Image>(PhotoSize.class);
+		List<PhotoSize> done = new ArrayList<PhotoSize>();
+		stageTimes = new ArrayList<Long>();
+		for (List<PhotoSize> stage : getStages(sizes, sourceWidth, sourceHeight)) {
+			long startTime = System.currentTimeMillis();
+			Map<PhotoSize, Future<Image>> futures = new LinkedHashMap<PhotoSize, Future<Image>>();
+			for (int i = 0; i < stage.size(); i++) {
+				PhotoSize size = stage.get(i);
+				int parentIndex = done.size() - noChains + i;
+				Image parent = parentIndex >= 0 ? result.get(done.get(parentIndex)) : source;
+				int targetWidth = size.calcAdjustedWidth(sourceWidth, sourceHeight);
+				int targetHeight = size.calcAdjustedHeight(sourceWidth, sourceHeight);
+				Transform resize = ImagesServiceFactory.makeResize(targetWidth, targetHeight);
+				// the images service replaces the data of the image it is given, so each step gets its own wrapper
+				Image input = ImagesServiceFactory.makeImage(parent.getImageData());
+				futures.put(size, imagesService.applyTransformAsync(resize, input));
+			}
+
+			for (Map.Entry<PhotoSize, Future<Image>> entry : futures.entrySet()) {
+				result.put(entry.getKey(), getImage(entry.getValue()));
+			}
+			done.addAll(stage);
+
+			long stageTime = System.currentTimeMillis() - startTime;
+			stageTimes.add(stageTime);
+			log.config(LogBuilder.createSystemMessage().addAction("scale image").
+					addParameter("sizes", stage).
+					addParameter("time in ms", stageTime).toString());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the sizes to be computed, grouped into stages. The n-th size of a stage is scaled from the n-th size of
+	 * the previous stage, or from the source in the first stage.
+	 *
+	 * @methodtype get
+	 */
+	public List<List<PhotoSize>> getStages(Collection<PhotoSize> sizes, int sourceWidth, int sourceHeight) {
+		List<PhotoSize> plan = new ArrayList<PhotoSize>();
+		for (PhotoSize size : sizes) {
+			if (!size.isWiderAndHigher(sourceWidth, sourceHeight) && !plan.contains(size)) {
+				plan.add(size);
+			}
+		}
+		Collections.sort(plan, Collections.reverseOrder());
+
+		List<List<PhotoSize>> result = new ArrayList<List<PhotoSize>>();
+		for (int i = 0; i < plan.size(); i += noChains) {
+			result.add(new ArrayList<PhotoSize>(plan.subList(i, Math.min(i + noChains, plan.size()))));
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<Long> getStageTimes() {
+		return stageTimes;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoChains() {
+		return noChains;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Image getImage(Future<Image> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while scaling image", ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new IllegalStateException("could not scale image", ex.getCause());
+		}
+	}
+
+}
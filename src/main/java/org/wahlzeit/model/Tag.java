@@ -6,7 +6,9 @@ import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Index;
 import com.googlecode.objectify.annotation.Parent;
 import org.wahlzeit.services.DataObject;
+import org.wahlzeit.services.EntityShards;
 import org.wahlzeit.services.ObjectManager;
+import org.wahlzeit.services.ShardedEntity;
 
 /**
  * A class to hold one tag.
@@ -14,7 +16,7 @@ import org.wahlzeit.services.ObjectManager;
  * @review
  */
 @Entity
-public class Tag extends DataObject {
+public class Tag extends DataObject implements ShardedEntity {
 
 	public static final String TEXT = "text";
 	public static final String PHOTO_ID = "photoId";
@@ -35,6 +37,8 @@ public class Tag extends DataObject {
 	public Tag(String text, String photoId) {
 		this.text = text;
 		this.photoId = photoId;
+		// tags live in the entity group of their photo
+		this.parent = EntityShards.getInstance().getRootKey(photoId);
 		incWriteCount();
 	}
 
@@ -46,6 +50,21 @@ public class Tag extends DataObject {
 		return photoId;
 	}
 
+	@Override
+	public String getShardingKey() {
+		return photoId;
+	}
+
+	@Override
+	public Key getParent() {
+		return parent;
+	}
+
+	@Override
+	public void setParent(Key newParent) {
+		parent = newParent;
+	}
+
 	public String asString() {
 		return "PhotoId: " + photoId + ", Tag: " + text;
 	}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A TagIndex is an in-memory inverted index from tag text, as produced by the PhotoTagCollector, to the ids of all
+ * photos carrying that tag. It lets the PhotoFilter evaluate filter conditions without querying the Datastore.
+ * The index is thread-safe; queries return copies that the caller may keep.
+ */
+public class TagIndex {
+
+	/**
+	 * tag text -> ids of all photos with that tag
+	 */
+	protected Map<String, PostingList> postingLists = new HashMap<String, PostingList>();
+
+	/**
+	 * photo id -> all tags of that photo, needed to remove outdated postings
+	 */
+	protected Map<Integer, Set<String>> photoTags = new HashMap<Integer, Set<String>>();
+
+	/**
+	 *
+	 */
+	protected ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Incremented with every change of the index, so that query results can be recognized as outdated
+	 */
+	protected volatile long version = 0;
+
+	/**
+	 * Replaces all tags of the photo with the given tags.
+	 *
+	 * @methodtype command
+	 */
+	public void update(PhotoId photoId, Set<String> tags) {
+		int id = photoId.asInt();
+		Set<String> newTags = new HashSet<String>(tags);
+
+		lock.writeLock().lock();
+		try {
+			Set<String> oldTags = photoTags.remove(id);
+			boolean isChanged = false;
+			if (oldTags != null) {
+				for (String tag : oldTags) {
+					if (!newTags.contains(tag)) {
+						doRemovePosting(tag, id);
+						isChanged = true;
+					}
+				}
+			}
+
+			for (String tag : newTags) {
+				if (oldTags == null || !oldTags.contains(tag)) {
+					doAddPosting(tag, id);
+					isChanged = true;
+				}
+			}
+
+			if (!newTags.isEmpty()) {
+				photoTags.put(id, newTags);
+			}
+			if (isChanged) {
+				version++;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void remove(PhotoId photoId) {
+		update(photoId, Collections.<String>emptySet());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			postingLists.clear();
+			photoTags.clear();
+			version++;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doAddPosting(String tag, int id) {
+		PostingList postingList = postingLists.get(tag);
+		if (postingList == null) {
+			postingList = new PostingList();
+			postingLists.put(tag, postingList);
+		}
+		postingList.add(id);
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doRemovePosting(String tag, int id) {
+		PostingList postingList = postingLists.get(tag);
+		if (postingList != null) {
+			postingList.remove(id);
+			if (postingList.isEmpty()) {
+				postingLists.remove(tag);
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Set<String> getTags(PhotoId photoId) {
+		lock.readLock().lock();
+		try {
+			Set<String> result = photoTags.get(photoId.asInt());
+			return result == null ? Collections.<String>emptySet() : new HashSet<String>(result);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public PostingList getPhotoIds(String tag) {
+		lock.readLock().lock();
+		try {
+			PostingList result = postingLists.get(tag);
+			return result == null ? new PostingList() : result.copy();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the ids of all photos that carry every one of the tags (AND). No tags match no photos.
+	 *
+	 * @methodtype get
+	 */
+	public PostingList getPhotoIdsWithAllTags(Collection<String> tags) {
+		lock.readLock().lock();
+		try {
+			PostingList result = null;
+			for (String tag : tags) {
+				PostingList postingList = postingLists.get(tag);
+				if (postingList == null) {
+					return new PostingList();
+				}
+				result = (result == null) ? postingList.copy() : result.intersect(postingList);
+				if (result.isEmpty()) {
+					return new PostingList();
+				}
+			}
+			return result == null ? new PostingList() : result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the ids of all photos that carry at least one of the tags (OR).
+	 *
+	 * @methodtype get
+	 */
+	public PostingList getPhotoIdsWithAnyTag(Collection<String> tags) {
+		lock.readLock().lock();
+		try {
+			PostingList result = new PostingList();
+			for (String tag : tags) {
+				PostingList postingList = postingLists.get(tag);
+				if (postingList != null) {
+					result = result.union(postingList);
+				}
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoTags() {
+		lock.readLock().lock();
+		try {
+			return postingLists.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+}
@@ -22,6 +22,7 @@ package org.wahlzeit.model.persistence;
 
 import com.google.appengine.api.images.Image;
 import com.google.appengine.api.images.ImagesServiceFactory;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Work;
 import com.googlecode.objectify.annotation.Entity;
@@ -112,22 +113,19 @@ public class DatastoreAdapter extends ImageStorage {
 		return result;
 	}
 
+	/**
+	 * Asks for the key only, so that the image is not transferred. As the query is eventually consistent, an image
+	 * that has just been written may not be found yet.
+	 */
 	@Override
-	protected boolean doDoesImageExist(String photoIdAsString, int size) {
-		Image image = null;
-		boolean result = false;
-		try {
-			image = doReadImage(photoIdAsString, size);
-		} catch (IOException e) {
-			log.warning(LogBuilder
-					.createSystemMessage()
-					.addException(
-							"IOException when checking for Image existance", e)
-					.toString());
-		}
-		if (image != null) {
-			result = true;
-		}
+	protected boolean doDoesImageExist(final String photoIdAsString, final int size) {
+		boolean result = ObjectifyService.run(new Work<Boolean>() {
+			@Override
+			public Boolean run() {
+				Key<ImageWrapper> key = Key.create(ImageWrapper.class, photoIdAsString + size);
+				return OfyService.ofy().load().type(ImageWrapper.class).filterKey(key).keys().first().now() != null;
+			}
+		});
 		log.config(LogBuilder.createSystemMessage()
 				.addParameter("does image exist", result).toString());
 		return result;
@@ -0,0 +1,184 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.wahlzeit.model.Pattern;
+import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.SysConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.logging.Logger;
+
+/**
+ * Adapter for the local file system, e.g. to run Wahlzeit outside of App Engine. Images are stored as files in the
+ * photos directory, named like the files of the GcsAdapter. Files are written to the temp directory first and then
+ * moved, so that readers never see a partially written image. Images are served without copying them through the
+ * heap via openImageChannel(), so files are not memory-mapped; a mapping would also keep the file open, which prevents
+ * replacing it on some platforms.
+ */
+@Pattern(
+	name = "Adapter",
+	participants = {
+		"Target", 	// The ImageStorage class
+		"Client", 	// The Wahlzeit application
+		"Adaptee", 	// The local file system
+		"Adapter", 	// This Class itself
+	}
+)
+public class FileSystemAdapter extends ImageStorage {
+
+	private static final Logger log = Logger.getLogger(FileSystemAdapter.class.getName());
+
+	/**
+	 *
+	 */
+	protected final Path photosDir;
+	protected final Path tempDir;
+
+	/**
+	 * Uses the photos and temp directory of the SysConfig.
+	 */
+	public FileSystemAdapter() {
+		this(new File(SysConfig.getPhotosDir().asString()), new File(SysConfig.getTempDir().asString()));
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public FileSystemAdapter(File myPhotosDir, File myTempDir) {
+		photosDir = myPhotosDir.toPath();
+		tempDir = myTempDir.toPath();
+		try {
+			Files.createDirectories(photosDir);
+			Files.createDirectories(tempDir);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not create directories for images", e);
+		}
+	}
+
+	@Override
+	protected void doWriteImage(Serializable image, String photoIdAsString, int size)
+			throws IOException, InvalidParameterException {
+		if (!(image instanceof Image)) {
+			throw new InvalidParameterException("not an Image object!");
+		}
+
+		String fileName = getFileName(photoIdAsString, size);
+		Path tempFile = Files.createTempFile(tempDir, fileName, ".tmp");
+		try {
+			FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+			try {
+				ByteBuffer bb = ByteBuffer.wrap(((Image) image).getImageData());
+				while (bb.hasRemaining()) {
+					channel.write(bb);
+				}
+				channel.force(false);
+			} finally {
+				channel.close();
+			}
+			moveFile(tempFile, photosDir.resolve(fileName));
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+
+		log.config(LogBuilder.createSystemMessage().addMessage("image successfully written").toString());
+	}
+
+	/**
+	 * Moves the file atomically; if the temp directory is on another file system, it is moved the ordinary way.
+	 *
+	 * @methodtype command
+	 */
+	protected void moveFile(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@Override
+	protected Image doReadImage(String photoIdAsString, int size) throws IOException {
+		String fileName = getFileName(photoIdAsString, size);
+		byte[] imageData;
+		try {
+			imageData = readFile(fileName);
+		} catch (NoSuchFileException e) {
+			log.info(LogBuilder.createSystemMessage().addMessage("does not exist!").toString());
+			return null;
+		}
+
+		log.config(LogBuilder.createSystemMessage().addMessage("image successfully read").toString());
+		return ImagesServiceFactory.makeImage(imageData);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected byte[] readFile(String fileName) throws IOException {
+		FileChannel channel = FileChannel.open(photosDir.resolve(fileName), StandardOpenOption.READ);
+		try {
+			byte[] result = new byte[(int) channel.size()];
+			ByteBuffer bb = ByteBuffer.wrap(result);
+			while (bb.hasRemaining() && channel.read(bb) >= 0) {
+				// continue until the array is full or the end of the file is reached
+			}
+			return result;
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Override
+	protected boolean doDoesImageExist(String photoIdAsString, int size) {
+		boolean result = Files.isRegularFile(photosDir.resolve(getFileName(photoIdAsString, size)));
+		log.config(LogBuilder.createSystemMessage().addParameter("does image exist", result).toString());
+		return result;
+	}
+
+	@Override
+	protected long doGetImageLength(String photoIdAsString, int size) throws IOException {
+		try {
+			return Files.size(photosDir.resolve(getFileName(photoIdAsString, size)));
+		} catch (NoSuchFileException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns a FileChannel, so that callers can transfer the file directly, see FileChannel.transferTo().
+	 */
+	@Override
+	protected ReadableByteChannel doOpenImageChannel(String photoIdAsString, int size, long position)
+			throws IOException {
+		FileChannel result;
+		try {
+			result = FileChannel.open(photosDir.resolve(getFileName(photoIdAsString, size)), StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		return result.position(position);
+	}
+
+	/**
+	 * Same naming as in the GcsAdapter: photo id followed by the size as int
+	 *
+	 * @methodtype conversion
+	 */
+	protected String getFileName(String photoIdAsString, int size) {
+		return photoIdAsString + size;
+	}
+
+}
@@ -30,15 +30,21 @@ import com.google.appengine.tools.cloudstorage.GcsOutputChannel;
 import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
 import com.google.appengine.tools.cloudstorage.RetryParams;
+import org.wahlzeit.services.ByteBufferPool;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SysConfig;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.URLConnection;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -49,6 +55,11 @@ import java.util.logging.Logger;
  */
 public class GcsAdapter extends ImageStorage {
 
+	/**
+	 * Smallest block size accepted by a prefetching read channel
+	 */
+	protected static final int MIN_BLOCK_SIZE = 1024;
+
 	private static final Logger log = Logger.getLogger(GcsAdapter.class.getName());
 
 	private String bucketName;
@@ -106,12 +117,14 @@ public class GcsAdapter extends ImageStorage {
 		GcsFilename gcsFilename = getGcsFileName(filename, size);
 		log.config(LogBuilder.createSystemMessage().addParameter("gcsFileName", gcsFilename).toString());
 
-		GcsInputChannel readChannel = gcsService.openReadChannel(gcsFilename, 0);
-		ByteBuffer bb = ByteBuffer.allocate(bufferLength);
 		Image result = null;
 		try {
-			readChannel.read(bb);
-			result = ImagesServiceFactory.makeImage(bb.array());
+			// will be null if file does not exist
+			GcsFileMetadata gcsFileMetadata = gcsService.getMetadata(gcsFilename);
+			if (gcsFileMetadata != null) {
+				byte[] imageData = readFully(openReadChannel(gcsFileMetadata), gcsFileMetadata.getLength());
+				result = ImagesServiceFactory.makeImage(imageData);
+			}
 		} catch (IOException e) {
 			// when image does not exist, IOException is thrown
 		}
@@ -123,6 +136,105 @@ public class GcsAdapter extends ImageStorage {
 		return result;
 	}
 
+	/**
+	 * Opens all channels before reading the first one. Each channel starts to fetch its file when it is opened, so
+	 * the files are transferred concurrently.
+	 */
+	@Override
+	protected Map<Integer, Serializable> doReadImages(String photoIdAsString, int[] sizes) throws IOException {
+		Map<Integer, GcsFileMetadata> metadata = new LinkedHashMap<Integer, GcsFileMetadata>();
+		Map<Integer, GcsInputChannel> channels = new LinkedHashMap<Integer, GcsInputChannel>();
+		for (int size : sizes) {
+			try {
+				// will be null if file does not exist
+				GcsFileMetadata gcsFileMetadata = gcsService.getMetadata(getGcsFileName(photoIdAsString, size));
+				if (gcsFileMetadata != null) {
+					metadata.put(size, gcsFileMetadata);
+					channels.put(size, openReadChannel(gcsFileMetadata));
+				}
+			} catch (IOException e) {
+				log.warning(LogBuilder.createSystemMessage().addParameter("could not find size", size).toString());
+			}
+		}
+
+		Map<Integer, Serializable> result = new LinkedHashMap<Integer, Serializable>();
+		for (Map.Entry<Integer, GcsInputChannel> entry : channels.entrySet()) {
+			try {
+				byte[] imageData = readFully(entry.getValue(), metadata.get(entry.getKey()).getLength());
+				result.put(entry.getKey(), ImagesServiceFactory.makeImage(imageData));
+			} catch (IOException e) {
+				log.warning(LogBuilder.createSystemMessage().addParameter("could not read size", entry.getKey())
+						.toString());
+			}
+		}
+		log.config(LogBuilder.createSystemMessage().addParameter("images read", result.size()).toString());
+		return result;
+	}
+
+	/**
+	 * Opens a channel that fetches the file in blocks of at most bufferLength bytes. Files up to this length are
+	 * fetched at once, starting right away.
+	 *
+	 * @methodtype factory
+	 */
+	protected GcsInputChannel openReadChannel(GcsFileMetadata gcsFileMetadata) {
+		int blockSize = (int) Math.max(MIN_BLOCK_SIZE, Math.min(gcsFileMetadata.getLength(), bufferLength));
+		return gcsService.openPrefetchingReadChannel(gcsFileMetadata.getFilename(), 0, blockSize);
+	}
+
+	/**
+	 * Reads the channel to its end and closes it. The result has the expected length, unless the file has been
+	 * replaced since its length was determined.
+	 *
+	 * @methodtype get
+	 */
+	protected byte[] readFully(ReadableByteChannel channel, long expectedLength) throws IOException {
+		try {
+			byte[] result = new byte[(int) expectedLength];
+			ByteBuffer bb = ByteBuffer.wrap(result);
+			while (bb.hasRemaining() && channel.read(bb) >= 0) {
+				// continue until the array is full or the end of the file is reached
+			}
+			if (bb.hasRemaining()) {
+				return Arrays.copyOf(result, bb.position());
+			}
+
+			ByteBufferPool bufferPool = ByteBufferPool.getInstance();
+			ByteBuffer chunk = bufferPool.acquire();
+			try {
+				if (channel.read(chunk) <= 0) {
+					return result;
+				}
+
+				ByteArrayOutputStream out = new ByteArrayOutputStream(result.length + chunk.capacity());
+				out.write(result);
+				do {
+					out.write(chunk.array(), 0, chunk.position());
+					chunk.clear();
+				} while (channel.read(chunk) >= 0);
+				return out.toByteArray();
+			} finally {
+				bufferPool.release(chunk);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Override
+	protected long doGetImageLength(String photoIdAsString, int size) throws IOException {
+		// will be null if file does not exist
+		GcsFileMetadata gcsFileMetadata = gcsService.getMetadata(getGcsFileName(photoIdAsString, size));
+		return gcsFileMetadata != null ? gcsFileMetadata.getLength() : -1;
+	}
+
+	@Override
+	protected ReadableByteChannel doOpenImageChannel(String photoIdAsString, int size, long position)
+			throws IOException {
+		// a missing file is only noticed by the first read
+		return gcsService.openReadChannel(getGcsFileName(photoIdAsString, size), position);
+	}
+
 	@Override
 	protected boolean doDoesImageExist(String photoIdAsString, int size) {
 		GcsFilename gcsFilename = getGcsFileName(photoIdAsString, size);
@@ -164,8 +276,8 @@ public class GcsAdapter extends ImageStorage {
 			photoFolderName = "photos";
 			defaultImageMimeTypeName = "image/jpeg";
 			/**
-			 * 1 MB Buffer, does not limit the size of the files. A valid compromise between unused allocation and
-			 * reallocation.
+			 * 1 MB blocks, does not limit the size of the files. Smaller files are fetched in one block of their own
+			 * length.
 			 */
 			bufferLength = 1024 * 1024;
 			gcsService = GcsServiceFactory.createGcsService(RetryParams.getDefaultInstance());
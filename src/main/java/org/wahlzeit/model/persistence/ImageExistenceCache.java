@@ -0,0 +1,117 @@
+package org.wahlzeit.model.persistence;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe cache that remembers which images exist in an ImageStorage, so that repeated existence checks do not
+ * access the storage. Images are never deleted, so known images stay known. That an image is missing is only
+ * remembered for a short time, as another instance may write it in the meantime. Least recently used entries are
+ * dropped when the cache is full.
+ */
+public class ImageExistenceCache {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 16 * 1024;
+	public static final long DEFAULT_NEGATIVE_TTL = 60 * 1000; // 1 minute
+
+	/**
+	 *
+	 */
+	protected final int maxEntries;
+	protected final long negativeTtl;
+
+	/**
+	 * Point in time until which an entry is valid, guarded by this
+	 */
+	protected final Map<String, Long> expirationTimes;
+
+	/**
+	 *
+	 */
+	public ImageExistenceCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_NEGATIVE_TTL);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public ImageExistenceCache(int myMaxEntries, long myNegativeTtl) {
+		if (myMaxEntries <= 0 || myNegativeTtl < 0) {
+			throw new IllegalArgumentException("cache bound must be positive, time to live not negative");
+		}
+
+		maxEntries = myMaxEntries;
+		negativeTtl = myNegativeTtl;
+		expirationTimes = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isKnownToExist(String photoIdAsString, int size) {
+		Long expirationTime = expirationTimes.get(asKey(photoIdAsString, size));
+		return expirationTime != null && expirationTime == Long.MAX_VALUE;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isKnownToBeMissing(String photoIdAsString, int size) {
+		String key = asKey(photoIdAsString, size);
+		Long expirationTime = expirationTimes.get(key);
+		if (expirationTime == null || expirationTime == Long.MAX_VALUE) {
+			return false;
+		} else if (expirationTime <= getCurrentTime()) {
+			expirationTimes.remove(key);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void recordExistence(String photoIdAsString, int size, boolean exists) {
+		long expirationTime = exists ? Long.MAX_VALUE : getCurrentTime() + negativeTtl;
+		expirationTimes.put(asKey(photoIdAsString, size), expirationTime);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int size() {
+		return expirationTimes.size();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void clear() {
+		expirationTimes.clear();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long getCurrentTime() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Same naming as the storage adapters: photo id followed by the size
+	 *
+	 * @methodtype conversion
+	 */
+	protected static String asKey(String photoIdAsString, int size) {
+		return photoIdAsString + size;
+	}
+
+}
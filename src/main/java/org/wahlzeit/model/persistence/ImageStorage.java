@@ -1,11 +1,19 @@
 package org.wahlzeit.model.persistence;
 
+import com.google.appengine.api.images.Image;
 import org.wahlzeit.model.PhotoSize;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.services.metrics.MetricsRegistry;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -18,6 +26,18 @@ public abstract class ImageStorage {
 	private static final Logger log = Logger.getLogger(ImageStorage.class.getName());
 	private static ImageStorage instance = null;
 
+	/**
+	 * Latency metrics of storage I/O, tagged by storage type
+	 */
+	public static final String WRITE_METRIC = "imageStorage.write";
+	public static final String READ_METRIC = "imageStorage.read";
+	public static final String EXISTS_METRIC = "imageStorage.exists";
+
+	/**
+	 * Remembers which images exist, for all storage types
+	 */
+	protected ImageExistenceCache existenceCache = new ImageExistenceCache();
+
 	/**
 	 * @methodtype get
 	 */
@@ -63,7 +83,27 @@ public abstract class ImageStorage {
 				addParameter("photo id", photoIdAsString).
 				addParameter("size", size).toString());
 
+		long startTime = System.nanoTime();
 		doWriteImage(image, photoIdAsString, size);
+		recordTime(WRITE_METRIC, startTime);
+		existenceCache.recordExistence(photoIdAsString, size, true);
+	}
+
+	/**
+	 * Writes the image unless it exists in the storage already. Returns true if the image has been written. Use this
+	 * instead of doesImageExist() followed by writeImage(), to check the existence cache only once.
+	 *
+	 * @methodtype command
+	 */
+	public boolean writeIfAbsent(Serializable image, String photoIdAsString, int size)
+			throws InvalidParameterException, IOException {
+
+		if (doesImageExist(photoIdAsString, size)) {
+			return false;
+		}
+
+		writeImage(image, photoIdAsString, size);
+		return true;
 	}
 
 	/**
@@ -95,7 +135,29 @@ public abstract class ImageStorage {
 				addParameter("photo id", photoIdAsString).
 				addParameter("size", size).toString());
 
-		return doReadImage(photoIdAsString, size);
+		long startTime = System.nanoTime();
+		Serializable result = doReadImage(photoIdAsString, size);
+		recordTime(READ_METRIC, startTime);
+		existenceCache.recordExistence(photoIdAsString, size, result != null);
+		return result;
+	}
+
+	/**
+	 * Reads the image, unless it is known to be missing. Returns null if the image is not found. Use this instead of
+	 * doesImageExist() followed by readImage(), as the read itself tells whether the image exists.
+	 *
+	 * @methodtype get
+	 */
+	public Serializable readIfExists(String photoIdAsString, int size)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+
+		if (existenceCache.isKnownToBeMissing(photoIdAsString, size)) {
+			return null;
+		}
+		return readImage(photoIdAsString, size);
 	}
 
 	/**
@@ -108,10 +170,154 @@ public abstract class ImageStorage {
 			throws IOException;
 
 
+	/**
+	 * Reads several sizes of an image at once, e.g. to prefetch them. Sizes that are not found are missing in the
+	 * result.
+	 *
+	 * @methodtype get
+	 * @methodproperty convenience
+	 */
+	public Map<Integer, Serializable> readImages(String photoIdAsString, int... sizes)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		for (int size : sizes) {
+			PhotoSize.assertIsValidPhotoSizeAsInt(size);
+		}
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("read images from storage").
+				addParameter("photo id", photoIdAsString).
+				addParameter("sizes", Arrays.toString(sizes)).toString());
+
+		long startTime = System.nanoTime();
+		Map<Integer, Serializable> result = doReadImages(photoIdAsString, sizes);
+		recordTime(READ_METRIC, startTime);
+		for (int size : sizes) {
+			existenceCache.recordExistence(photoIdAsString, size, result.containsKey(size));
+		}
+		return result;
+	}
+
+	/**
+	 * Actually reads the images. The default implementation reads them one after the other; storage types that can
+	 * read files concurrently should override it.
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected Map<Integer, Serializable> doReadImages(String photoIdAsString, int[] sizes)
+			throws IOException {
+
+		Map<Integer, Serializable> result = new LinkedHashMap<Integer, Serializable>();
+		for (int size : sizes) {
+			Serializable image = doReadImage(photoIdAsString, size);
+			if (image != null) {
+				result.put(size, image);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the length of the image in bytes, or -1 if it does not exist.
+	 *
+	 * @methodtype get
+	 * @methodproperty wrapper
+	 */
+	public long getImageLength(String photoIdAsString, int size)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+
+		if (existenceCache.isKnownToBeMissing(photoIdAsString, size)) {
+			return -1;
+		}
+
+		long result = doGetImageLength(photoIdAsString, size);
+		existenceCache.recordExistence(photoIdAsString, size, result >= 0);
+		return result;
+	}
+
+	/**
+	 * Actually determines the length of the image. The default implementation reads the whole image; storage types
+	 * that know the length of their files should override it.
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected long doGetImageLength(String photoIdAsString, int size)
+			throws IOException {
+
+		byte[] imageData = readImageData(photoIdAsString, size);
+		return imageData != null ? imageData.length : -1;
+	}
+
+	/**
+	 * Opens a channel to read the image, starting at the given position, so that it can be copied in chunks instead
+	 * of being read into memory at once. If the image does not exist, either null is returned or the first read throws
+	 * an IOException, depending on the storage type. The caller has to close the channel.
+	 *
+	 * @methodtype get
+	 * @methodproperty wrapper
+	 */
+	public ReadableByteChannel openImageChannel(String photoIdAsString, int size, long position)
+			throws IllegalArgumentException, IOException {
+
+		assertValidPhotoId(photoIdAsString);
+		PhotoSize.assertIsValidPhotoSizeAsInt(size);
+		if (position < 0) {
+			throw new IllegalArgumentException("Invalid position: " + position);
+		} else if (existenceCache.isKnownToBeMissing(photoIdAsString, size)) {
+			return null;
+		}
+
+		log.config(LogBuilder.createSystemMessage().
+				addAction("open image channel").
+				addParameter("photo id", photoIdAsString).
+				addParameter("size", size).
+				addParameter("position", position).toString());
+
+		return doOpenImageChannel(photoIdAsString, size, position);
+	}
+
+	/**
+	 * Actually opens the channel. The default implementation reads the whole image; storage types that can read files
+	 * in chunks should override it.
+	 *
+	 * @methodtype get
+	 * @methodproperty hook
+	 */
+	protected ReadableByteChannel doOpenImageChannel(String photoIdAsString, int size, long position)
+			throws IOException {
+
+		byte[] imageData = readImageData(photoIdAsString, size);
+		if (imageData == null) {
+			return null;
+		}
+
+		int offset = (int) Math.min(position, imageData.length);
+		return Channels.newChannel(new ByteArrayInputStream(imageData, offset, imageData.length - offset));
+	}
+
+	/**
+	 * @methodtype get
+	 * @methodproperty primitive
+	 */
+	protected byte[] readImageData(String photoIdAsString, int size)
+			throws IOException {
+
+		Serializable image = doReadImage(photoIdAsString, size);
+		return image instanceof Image ? ((Image) image).getImageData() : null;
+	}
+
+
 	// exist method ----------------------------------------------------------------------------------------------------
 
 	/**
-	 * Checks if the specified image already exists in the storage
+	 * Checks if the specified image already exists in the storage. The storage is only asked if the existence cache
+	 * does not know the answer.
 	 *
 	 * @methodtype boolean query
 	 * @methodproperty wrapper
@@ -122,12 +328,22 @@ public abstract class ImageStorage {
 		assertValidPhotoId(photoIdAsString);
 		PhotoSize.assertIsValidPhotoSizeAsInt(size);
 
+		if (existenceCache.isKnownToExist(photoIdAsString, size)) {
+			return true;
+		} else if (existenceCache.isKnownToBeMissing(photoIdAsString, size)) {
+			return false;
+		}
+
 		log.config(LogBuilder.createSystemMessage().
 				addAction("check if image exists in storage").
 				addParameter("photo id", photoIdAsString).
 				addParameter("size", size).toString());
 
-		return doDoesImageExist(photoIdAsString, size);
+		long startTime = System.nanoTime();
+		boolean result = doDoesImageExist(photoIdAsString, size);
+		recordTime(EXISTS_METRIC, startTime);
+		existenceCache.recordExistence(photoIdAsString, size, result);
+		return result;
 	}
 
 
@@ -140,6 +356,28 @@ public abstract class ImageStorage {
 	protected abstract boolean doDoesImageExist(String photoIdAsString, int size);
 
 
+	/**
+	 * @methodtype command
+	 */
+	protected void recordTime(String metric, long startNanoTime) {
+		MetricsRegistry.getInstance().recordTime(metric, getClass().getSimpleName(), startNanoTime);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public ImageExistenceCache getExistenceCache() {
+		return existenceCache;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setExistenceCache(ImageExistenceCache newExistenceCache) {
+		existenceCache = newExistenceCache;
+	}
+
+
 	// assertion methods -----------------------------------------------------------------------------------------------
 
 	/**
@@ -41,6 +41,12 @@ public abstract class AbstractConfig implements Configuration, Serializable {
 	 */
 	protected Map<String, String> store = new HashMap<String, String>();
 
+	/**
+	 * Incremented by every change of the store; values are set while loading the configuration or by single updates,
+	 * so concurrent increments are not expected
+	 */
+	protected volatile long version = 0;
+
 	/**
 	 *
 	 */
@@ -69,6 +75,14 @@ public abstract class AbstractConfig implements Configuration, Serializable {
 	 */
 	protected final void doSetValue(String key, String value) {
 		store.put(key, value);
+		version++;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getVersion() {
+		return version;
 	}
 
 	/**
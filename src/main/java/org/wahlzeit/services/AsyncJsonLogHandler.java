@@ -0,0 +1,566 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.wahlzeit.model.UserSession;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * An AsyncJsonLogHandler writes log records as one JSON object per line. Publishing only captures the session of the
+ * logging thread and puts the record into a RingBuffer; a writer thread formats and writes the records, so logging
+ * threads never wait for I/O. If the buffer is full, records are dropped and counted, or, with the BLOCK policy, the
+ * logging thread waits for the writer thread to make room.
+ *
+ * Records of LogEvents are written with their entries as fields, all other records with their message. Without a
+ * writer thread, e.g. where background threads are not available, records are only written by flush().
+ */
+public class AsyncJsonLogHandler extends Handler {
+
+	/**
+	 * What to do with a record if the buffer is full
+	 */
+	public enum OverflowPolicy {
+		DROP, BLOCK
+	}
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_CAPACITY = 8192;
+	public static final long DEFAULT_IDLE_WAIT = 1000; // milliseconds, publish() wakes the writer thread earlier
+	public static final long DEFAULT_CLOSE_TIMEOUT = 5000; // milliseconds
+
+	/**
+	 *
+	 */
+	protected static final int MAX_BATCH_SIZE = 256;
+	protected static final long BLOCK_WAIT = TimeUnit.MICROSECONDS.toNanos(100);
+
+	/**
+	 *
+	 */
+	protected final RingBuffer<Entry> buffer;
+	protected final OverflowPolicy overflowPolicy;
+	protected final AtomicLong noDropped = new AtomicLong();
+	protected volatile boolean isClosed = false;
+	protected Thread writerThread = null;
+
+	/**
+	 * The writer thread while it waits for records, null otherwise
+	 */
+	protected volatile Thread idleWriterThread = null;
+
+	/**
+	 * Fields below are only used while holding the writeLock
+	 */
+	protected final Object writeLock = new Object();
+	protected final Writer writer;
+	protected final boolean isToCloseWriter;
+	protected final List<Entry> batch = new ArrayList<Entry>(MAX_BATCH_SIZE);
+	protected final StringBuilder json = new StringBuilder(256);
+	protected final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+	protected final SimpleFormatter messageFormatter = new SimpleFormatter();
+	protected long noWritten = 0;
+	protected long noReportedDropped = 0;
+
+	/**
+	 * Writes to System.err, like the ConsoleHandler, and does not close it.
+	 */
+	public AsyncJsonLogHandler() {
+		this(DEFAULT_CAPACITY, OverflowPolicy.DROP);
+	}
+
+	/**
+	 * Writes to System.err, like the ConsoleHandler, and does not close it.
+	 *
+	 * @methodtype constructor
+	 */
+	public AsyncJsonLogHandler(int capacity, OverflowPolicy myOverflowPolicy) {
+		this(new OutputStreamWriter(System.err, StandardCharsets.UTF_8), capacity, myOverflowPolicy, false);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public AsyncJsonLogHandler(Writer myWriter, int capacity, OverflowPolicy myOverflowPolicy) {
+		this(myWriter, capacity, myOverflowPolicy, true);
+	}
+
+	/**
+	 * @param capacity maximum number of buffered records, must be a power of 2
+	 * @methodtype constructor
+	 */
+	protected AsyncJsonLogHandler(Writer myWriter, int capacity, OverflowPolicy myOverflowPolicy,
+			boolean myIsToCloseWriter) {
+		buffer = new RingBuffer<Entry>(capacity);
+		overflowPolicy = myOverflowPolicy;
+		writer = myWriter;
+		isToCloseWriter = myIsToCloseWriter;
+		timeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	/**
+	 * Starts the writer thread; returns false if the factory could not create it.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized boolean start(ThreadFactory threadFactory) {
+		if (writerThread != null || isClosed) {
+			return writerThread != null;
+		}
+
+		try {
+			writerThread = threadFactory.newThread(new Runnable() {
+				public void run() {
+					runWriter();
+				}
+			});
+		} catch (RuntimeException ex) {
+			// e.g. background threads are not allowed on automatically scaled App Engine instances
+			reportError("Could not create writer thread", ex, ErrorManager.GENERIC_FAILURE);
+		}
+		if (writerThread == null) {
+			return false;
+		}
+
+		writerThread.setDaemon(true);
+		writerThread.setName("AsyncJsonLogHandler");
+		writerThread.start();
+		return true;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	@Override
+	public void publish(LogRecord record) {
+		if (isClosed || !isLoggable(record)) {
+			return;
+		}
+
+		Entry entry = createEntry(record);
+		if (buffer.offer(entry)) {
+			wakeWriter();
+			return;
+		}
+
+		if (overflowPolicy == OverflowPolicy.BLOCK) {
+			wakeWriter();
+			while (!isClosed) {
+				LockSupport.parkNanos(BLOCK_WAIT);
+				if (buffer.offer(entry)) {
+					return;
+				}
+			}
+		}
+		noDropped.incrementAndGet();
+	}
+
+	/**
+	 * Unparks the writer thread if it waits for records.
+	 *
+	 * @methodtype command
+	 */
+	protected void wakeWriter() {
+		Thread thread = idleWriterThread;
+		if (thread != null) {
+			idleWriterThread = null;
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Captures what is only known in the logging thread.
+	 *
+	 * @methodtype factory
+	 */
+	protected Entry createEntry(LogRecord record) {
+		if (record instanceof LogEventRecord) {
+			LogEventRecord eventRecord = (LogEventRecord) record;
+			return new Entry(record, eventRecord.getSessionName(), eventRecord.getClientId());
+		}
+
+		Session session = SessionManager.getThreadLocalSession();
+		String sessionName = session != null ? session.getName() : Session.NO_SESSION;
+		String clientId = session != null ? session.getClientId() : null;
+		return new Entry(record, sessionName, clientId != null ? clientId : UserSession.ANONYMOUS_CLIENT);
+	}
+
+	/**
+	 * Writes all records that have been published so far.
+	 *
+	 * @methodtype command
+	 */
+	@Override
+	public void flush() {
+		synchronized (writeLock) {
+			while (writeEntries() > 0) {
+				// keep on writing
+			}
+			try {
+				writer.flush();
+			} catch (IOException ioex) {
+				reportError("Could not flush log", ioex, ErrorManager.FLUSH_FAILURE);
+			}
+		}
+	}
+
+	/**
+	 * Stops the writer thread and writes all remaining records.
+	 *
+	 * @methodtype command
+	 */
+	@Override
+	public void close() {
+		isClosed = true;
+
+		Thread thread;
+		synchronized (this) {
+			thread = writerThread;
+			writerThread = null;
+		}
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join(DEFAULT_CLOSE_TIMEOUT);
+			} catch (InterruptedException iex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		flush();
+		if (isToCloseWriter) {
+			synchronized (writeLock) {
+				try {
+					writer.close();
+				} catch (IOException ioex) {
+					reportError("Could not close log", ioex, ErrorManager.CLOSE_FAILURE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void runWriter() {
+		long idleWait = TimeUnit.MILLISECONDS.toNanos(DEFAULT_IDLE_WAIT);
+		while (!isClosed) {
+			if (writeBatch() == 0) {
+				idleWriterThread = Thread.currentThread();
+				// records published before the writer became visible as idle would wait for the idle wait otherwise
+				if (buffer.isEmpty() && !isClosed) {
+					LockSupport.parkNanos(idleWait);
+				}
+				idleWriterThread = null;
+			}
+		}
+	}
+
+	/**
+	 * Writes one batch and flushes the writer; returns the number of written records.
+	 *
+	 * @methodtype command
+	 */
+	protected int writeBatch() {
+		synchronized (writeLock) {
+			int result = writeEntries();
+			if (result > 0) {
+				try {
+					writer.flush();
+				} catch (IOException ioex) {
+					reportError("Could not flush log", ioex, ErrorManager.FLUSH_FAILURE);
+				}
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Writes up to MAX_BATCH_SIZE records and a notice of dropped records, if any; must hold the writeLock.
+	 *
+	 * @methodtype command
+	 */
+	protected int writeEntries() {
+		batch.clear();
+		int result = buffer.drainTo(batch, MAX_BATCH_SIZE);
+		try {
+			for (Entry entry : batch) {
+				writeJson(entry);
+			}
+			long dropped = noDropped.get() - noReportedDropped;
+			if (dropped > 0) {
+				noReportedDropped += dropped;
+				writeDroppedNotice(dropped);
+			}
+		} catch (IOException | RuntimeException ex) {
+			// the writer thread must not die of a bad record
+			reportError("Could not write log", ex, ErrorManager.WRITE_FAILURE);
+		} finally {
+			batch.clear();
+		}
+		noWritten += result;
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void writeJson(Entry entry) throws IOException {
+		LogRecord record = entry.record;
+		json.setLength(0);
+		json.append('{');
+		appendField("time", timeFormat.format(new Date(record.getMillis())));
+		appendField("level", record.getLevel().getName());
+		appendField("logger", record.getLoggerName());
+		appendNumberField("thread", record.getThreadID());
+		appendField("session", entry.sessionName);
+		appendField("client", entry.clientId);
+
+		if (record instanceof LogEventRecord) {
+			appendEventFields((LogEventRecord) record);
+		} else {
+			appendField("message", messageFormatter.formatMessage(record));
+		}
+
+		if (record.getThrown() != null) {
+			StringWriter stackTrace = new StringWriter();
+			record.getThrown().printStackTrace(new PrintWriter(stackTrace));
+			appendField("exception", stackTrace.toString());
+		}
+		json.append("}\n");
+		writer.append(json);
+	}
+
+	/**
+	 * Writes action, messages, duration and exception reason as fields of their own, all other entries as data.
+	 *
+	 * @methodtype command
+	 */
+	protected void appendEventFields(LogEventRecord record) {
+		appendField("type", record.isUserEvent() ? "user" : "system");
+
+		StringBuilder messages = null;
+		int noData = 0;
+		for (int i = 0; i < record.getNoEntries(); i++) {
+			String key = record.getKey(i);
+			String value = record.getValue(i);
+			if (key == null) {
+				messages = messages == null ? new StringBuilder(value) : messages.append(", ").append(value);
+			} else if (key.equals(LogBuilder.ACTION)) {
+				appendField("action", value);
+			} else if (key.equals(LogEvent.DURATION)) {
+				appendDurationField(value);
+			} else if (key.equals(LogBuilder.EXCEPTION_REASON)) {
+				appendField("exceptionReason", value);
+			} else {
+				noData++;
+			}
+		}
+		if (messages != null) {
+			appendField("message", messages.toString());
+		}
+
+		if (noData > 0) {
+			json.append(",\"data\":{");
+			boolean isFirst = true;
+			for (int i = 0; i < record.getNoEntries(); i++) {
+				String key = record.getKey(i);
+				if (key != null && !key.equals(LogBuilder.ACTION) && !key.equals(LogEvent.DURATION)
+						&& !key.equals(LogBuilder.EXCEPTION_REASON)) {
+					if (!isFirst) {
+						json.append(',');
+					}
+					appendString(key);
+					json.append(':');
+					appendString(record.getValue(i));
+					isFirst = false;
+				}
+			}
+			json.append('}');
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void writeDroppedNotice(long dropped) throws IOException {
+		json.setLength(0);
+		json.append('{');
+		appendField("time", timeFormat.format(new Date()));
+		appendField("level", "WARNING");
+		appendField("logger", AsyncJsonLogHandler.class.getName());
+		appendField("message", "log buffer overflow, records dropped");
+		appendNumberField("dropped", dropped);
+		json.append("}\n");
+		writer.append(json);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void appendField(String name, String value) {
+		if (json.length() > 1) {
+			json.append(',');
+		}
+		appendString(name);
+		json.append(':');
+		if (value != null) {
+			appendString(value);
+		} else {
+			json.append("null");
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void appendNumberField(String name, long value) {
+		if (json.length() > 1) {
+			json.append(',');
+		}
+		appendString(name);
+		json.append(':').append(value);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void appendDurationField(String value) {
+		try {
+			appendNumberField("durationMs", Long.parseLong(value));
+		} catch (NumberFormatException nfex) {
+			appendField("durationMs", value);
+		}
+	}
+
+	/**
+	 * Appends the value as JSON string literal.
+	 *
+	 * @methodtype command
+	 */
+	protected void appendString(String value) {
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					json.append("\\\"");
+					break;
+				case '\\':
+					json.append("\\\\");
+					break;
+				case '\n':
+					json.append("\\n");
+					break;
+				case '\r':
+					json.append("\\r");
+					break;
+				case '\t':
+					json.append("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						json.append(String.format("\\u%04x", (int) c));
+					} else {
+						json.append(c);
+					}
+			}
+		}
+		json.append('"');
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoDropped() {
+		return noDropped.get();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getNoWritten() {
+		synchronized (writeLock) {
+			return noWritten;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPending() {
+		return buffer.size();
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isStarted() {
+		return writerThread != null;
+	}
+
+	/**
+	 * A published record with the session and client of the logging thread
+	 */
+	protected static class Entry {
+
+		protected final LogRecord record;
+		protected final String sessionName;
+		protected final String clientId;
+
+		/**
+		 *
+		 */
+		protected Entry(LogRecord myRecord, String mySessionName, String myClientId) {
+			record = myRecord;
+			sessionName = mySessionName;
+			clientId = myClientId;
+		}
+	}
+
+}
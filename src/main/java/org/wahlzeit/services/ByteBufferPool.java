@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ByteBufferPool hands out heap buffers of one fixed size for copying data in chunks, e.g. from storage to a
+ * response, so that every copy does not allocate its own buffer. At most maxPooledBuffers idle buffers are kept; if
+ * more are in use at the same time, additional ones are allocated and dropped on release.
+ */
+public class ByteBufferPool {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 32 * 1024;
+	public static final int DEFAULT_MAX_POOLED_BUFFERS = 32;
+
+	/**
+	 *
+	 */
+	protected static ByteBufferPool instance = new ByteBufferPool();
+
+	/**
+	 *
+	 */
+	protected final int bufferSize;
+	protected final int maxPooledBuffers;
+
+	/**
+	 * Idle buffers, noPooledBuffers is the size of the queue
+	 */
+	protected final ConcurrentLinkedQueue<ByteBuffer> pooledBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	protected final AtomicInteger noPooledBuffers = new AtomicInteger();
+
+	/**
+	 *
+	 */
+	public ByteBufferPool() {
+		this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED_BUFFERS);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public ByteBufferPool(int myBufferSize, int myMaxPooledBuffers) {
+		if (myBufferSize <= 0 || myMaxPooledBuffers < 0) {
+			throw new IllegalArgumentException("buffer size must be positive, number of buffers not negative");
+		}
+		bufferSize = myBufferSize;
+		maxPooledBuffers = myMaxPooledBuffers;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static ByteBufferPool getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static void setInstance(ByteBufferPool pool) {
+		instance = pool;
+	}
+
+	/**
+	 * Returns a cleared buffer; it has to be given back with release() after use.
+	 *
+	 * @methodtype command
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer result = pooledBuffers.poll();
+		if (result == null) {
+			return ByteBuffer.allocate(bufferSize);
+		}
+
+		noPooledBuffers.decrementAndGet();
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || buffer.capacity() != bufferSize) {
+			return;
+		}
+
+		if (noPooledBuffers.incrementAndGet() <= maxPooledBuffers) {
+			buffer.clear();
+			pooledBuffers.offer(buffer);
+		} else {
+			noPooledBuffers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPooledBuffers() {
+		return noPooledBuffers.get();
+	}
+
+}
@@ -46,6 +46,13 @@ public interface Configuration {
 	 */
 	void setValue(String key, String value) throws IllegalArgumentException;
 
+	/**
+	 * Returns a number that changes whenever a value is set, e.g. to detect outdated values derived from it.
+	 *
+	 * @methodtype get
+	 */
+	long getVersion();
+
 	/**
 	 *
 	 */
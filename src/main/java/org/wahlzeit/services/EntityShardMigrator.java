@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.datastore.Key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * An EntityShardMigrator moves stored entities to the shards the current EntityShards assign to them. It has to be
+ * run after the number of shards has been changed. Entities that are saved before they have been migrated move
+ * themselves, see ObjectManager.moveToShard(), so the migration can run while the application is in use.
+ */
+public class EntityShardMigrator extends ObjectManager {
+
+	private static final Logger log = Logger.getLogger(EntityShardMigrator.class.getName());
+
+	/**
+	 * @methodtype command
+	 */
+	public <E extends Persistent> int migrate(Class<E> type) {
+		return migrate(type, this);
+	}
+
+	/**
+	 * Moves all entities of the given type that the given manager considers misplaced, using the manager's
+	 * moveToShard(), so that e.g. the PhotoManager also keys legacy photos by their PhotoId. As the previous number of
+	 * shards is not known, the root keys of all possible shards are scanned. Only the entities themselves are written,
+	 * not their dependents. Returns the number of moved entities.
+	 *
+	 * @methodtype command
+	 */
+	public <E extends Persistent> int migrate(Class<E> type, ObjectManager manager) {
+		assertIsNonNullArgument(type, "type");
+		assertIsNonNullArgument(manager, "manager");
+
+		int result = 0;
+		for (Key rootKey : EntityShards.getAllPossibleRootKeys()) {
+			List<E> misplacedObjects = new ArrayList<E>();
+			for (E object : OfyService.ofy().load().type(type).ancestor(rootKey).list()) {
+				if (manager.isMisplaced(object)) {
+					misplacedObjects.add(object);
+				}
+			}
+
+			if (!misplacedObjects.isEmpty()) {
+				log.info(LogBuilder.createSystemMessage().
+						addParameter("Migrate entities of type", type.getSimpleName()).
+						addParameter("from shard", rootKey).
+						addParameter("number of entities", misplacedObjects.size()).toString());
+				for (int i = 0; i < misplacedObjects.size(); i += batchSize) {
+					moveObjects(misplacedObjects.subList(i, Math.min(i + batchSize, misplacedObjects.size())),
+							manager);
+				}
+				result += misplacedObjects.size();
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Saves the objects in their new places and then deletes them from their old ones. If the save fails, the objects
+	 * are restored to their old places and the exception is passed on.
+	 *
+	 * @methodtype command
+	 */
+	protected void moveObjects(List<? extends Persistent> objects, ObjectManager manager) {
+		List<com.googlecode.objectify.Key<?>> oldKeys = new ArrayList<com.googlecode.objectify.Key<?>>();
+		for (Persistent object : objects) {
+			oldKeys.add(manager.moveToShard(object));
+		}
+
+		try {
+			OfyService.ofy().save().entities(objects).now();
+		} catch (RuntimeException e) {
+			for (int i = 0; i < objects.size(); i++) {
+				manager.restoreShard(objects.get(i), oldKeys.get(i));
+			}
+			throw e;
+		}
+
+		oldKeys.removeAll(Collections.singleton(null));
+		OfyService.ofy().delete().keys(oldKeys).now();
+	}
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * EntityShards spreads entities over several root keys, i.e. entity groups, because the Datastore only allows about
+ * one write per second per entity group. An entity is assigned to a shard by the hash of its sharding key, e.g. the
+ * photo id. Shard 0 is the ObjectManager.applicationRootKey, so a single shard is the same as no sharding at all.
+ * If the number of shards is changed, existing entities have to be moved, see EntityShardMigrator.
+ */
+public class EntityShards {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_NO_SHARDS = 1;
+
+	/**
+	 * Upper bound for the number of shards, so that a migration knows all root keys that may be in use
+	 */
+	public static final int MAX_NO_SHARDS = 64;
+
+	/**
+	 *
+	 */
+	protected static EntityShards instance = new EntityShards(DEFAULT_NO_SHARDS);
+
+	/**
+	 *
+	 */
+	protected final List<Key> rootKeys;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public EntityShards(int noShards) {
+		if (noShards < 1 || noShards > MAX_NO_SHARDS) {
+			throw new IllegalArgumentException("number of shards must be between 1 and " + MAX_NO_SHARDS);
+		}
+
+		List<Key> keys = new ArrayList<Key>(noShards);
+		for (int i = 0; i < noShards; i++) {
+			keys.add(createRootKey(i));
+		}
+		rootKeys = Collections.unmodifiableList(keys);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public static EntityShards getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Sets the sharding scheme; do this at startup, before any entities are created or loaded.
+	 *
+	 * @methodtype set
+	 */
+	public static void setInstance(EntityShards newInstance) {
+		instance = newInstance;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected static Key createRootKey(int shardIndex) {
+		if (shardIndex == 0) {
+			return ObjectManager.applicationRootKey;
+		}
+		return KeyFactory.createKey(ObjectManager.applicationRootKey.getKind(),
+				ObjectManager.applicationRootKey.getName() + "-" + shardIndex);
+	}
+
+	/**
+	 * Returns the root keys of all shards that may be in use by any sharding scheme.
+	 *
+	 * @methodtype get
+	 */
+	public static List<Key> getAllPossibleRootKeys() {
+		List<Key> result = new ArrayList<Key>(MAX_NO_SHARDS);
+		for (int i = 0; i < MAX_NO_SHARDS; i++) {
+			result.add(createRootKey(i));
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoShards() {
+		return rootKeys.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public List<Key> getRootKeys() {
+		return rootKeys;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getShardIndex(String shardingKey) {
+		// String.hashCode() is specified, so the result is the same on all instances
+		return (shardingKey.hashCode() & Integer.MAX_VALUE) % rootKeys.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Key getRootKey(String shardingKey) {
+		return rootKeys.get(getShardIndex(shardingKey));
+	}
+
+}
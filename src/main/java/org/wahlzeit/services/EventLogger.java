@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.wahlzeit.model.Pattern;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An EventLogger is a facade to a Logger that creates structured LogEvents, e.g.
+ * log.config().action("load image").with("photo ID", id).log(). The level is checked before anything else is done;
+ * for disabled levels, the calls cost no allocation and no string building. Unlike LogBuilder, the client is not
+ * looked up, the client id of the session is logged.
+ */
+@Pattern(
+	name = "Facade",
+	participants = {
+		"Facade" // This class
+	}
+)
+public class EventLogger {
+
+	/**
+	 * Reusable event of each thread
+	 */
+	protected static final ThreadLocal<LogEvent> threadEvents = new ThreadLocal<LogEvent>() {
+		@Override
+		protected LogEvent initialValue() {
+			return new LogEvent();
+		}
+	};
+
+	/**
+	 *
+	 */
+	protected final Logger logger;
+
+	/**
+	 * @methodtype constructor
+	 */
+	protected EventLogger(Logger myLogger) {
+		logger = myLogger;
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static EventLogger getLogger(Class<?> type) {
+		return new EventLogger(Logger.getLogger(type.getName()));
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isLoggable(Level level) {
+		return logger.isLoggable(level);
+	}
+
+	/**
+	 * Returns a system event of the level, or LogEvent.NONE if the level is disabled.
+	 *
+	 * @methodtype factory
+	 */
+	public LogEvent at(Level level) {
+		return createEvent(level, false);
+	}
+
+	/**
+	 * Returns a user event of the level, or LogEvent.NONE if the level is disabled.
+	 *
+	 * @methodtype factory
+	 */
+	public LogEvent userAt(Level level) {
+		return createEvent(level, true);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public LogEvent fine() {
+		return createEvent(Level.FINE, false);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public LogEvent config() {
+		return createEvent(Level.CONFIG, false);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public LogEvent info() {
+		return createEvent(Level.INFO, false);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public LogEvent warning() {
+		return createEvent(Level.WARNING, false);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	protected LogEvent createEvent(Level level, boolean isUserEvent) {
+		if (!logger.isLoggable(level)) {
+			return LogEvent.NONE;
+		}
+
+		LogEvent result = threadEvents.get();
+		if (result.isInUse()) {
+			// e.g. a value logs while the event of this thread is being built or logged
+			result = new LogEvent();
+		}
+		return result.start(logger, level, isUserEvent);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Logger getLogger() {
+		return logger;
+	}
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.wahlzeit.model.Pattern;
+
+import java.util.Iterator;
+
+/**
+ * An EvictionPolicy decides in which order the entries of a bounded cache are removed when the cache is full.
+ * Implementations are not thread-safe; the owning cache has to synchronize all calls.
+ */
+@Pattern(
+	name = "Strategy",
+	participants = {
+		"Strategy" // This interface
+	}
+)
+public interface EvictionPolicy<K> {
+
+	/**
+	 * @methodtype command
+	 */
+	void recordInsertion(K key);
+
+	/**
+	 * @methodtype command
+	 */
+	void recordAccess(K key);
+
+	/**
+	 * @methodtype command
+	 */
+	void recordRemoval(K key);
+
+	/**
+	 * Returns all known keys, the best candidate for eviction first. The iterator must not be used after the policy
+	 * has been modified.
+	 *
+	 * @methodtype get
+	 */
+	Iterator<K> getEvictionOrder();
+
+	/**
+	 * @methodtype command
+	 */
+	void clear();
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.wahlzeit.model.Pattern;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An EvictionPolicy that evicts the least frequently used entry first. Entries with the same number of accesses are
+ * evicted in insertion order. All operations run in O(log f), where f is the number of distinct access counts.
+ */
+@Pattern(
+	name = "Strategy",
+	participants = {
+		"ConcreteStrategy" // This class
+	}
+)
+public class LfuEvictionPolicy<K> implements EvictionPolicy<K> {
+
+	/**
+	 *
+	 */
+	protected Map<K, Integer> frequencies = new HashMap<K, Integer>();
+
+	/**
+	 * Access count -> keys with exactly that access count
+	 */
+	protected TreeMap<Integer, Set<K>> buckets = new TreeMap<Integer, Set<K>>();
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordInsertion(K key) {
+		recordRemoval(key);
+		frequencies.put(key, 1);
+		addToBucket(key, 1);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordAccess(K key) {
+		Integer frequency = frequencies.get(key);
+		if (frequency != null && frequency < Integer.MAX_VALUE) {
+			removeFromBucket(key, frequency);
+			frequencies.put(key, frequency + 1);
+			addToBucket(key, frequency + 1);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordRemoval(K key) {
+		Integer frequency = frequencies.remove(key);
+		if (frequency != null) {
+			removeFromBucket(key, frequency);
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Iterator<K> getEvictionOrder() {
+		final Iterator<Set<K>> bucketIterator = buckets.values().iterator();
+
+		return new Iterator<K>() {
+			private Iterator<K> keyIterator = Collections.<K>emptySet().iterator();
+
+			@Override
+			public boolean hasNext() {
+				while (!keyIterator.hasNext() && bucketIterator.hasNext()) {
+					keyIterator = bucketIterator.next().iterator();
+				}
+				return keyIterator.hasNext();
+			}
+
+			@Override
+			public K next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return keyIterator.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("use recordRemoval() instead");
+			}
+		};
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		frequencies.clear();
+		buckets.clear();
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void addToBucket(K key, int frequency) {
+		Set<K> bucket = buckets.get(frequency);
+		if (bucket == null) {
+			bucket = new LinkedHashSet<K>();
+			buckets.put(frequency, bucket);
+		}
+		bucket.add(key);
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void removeFromBucket(K key, int frequency) {
+		Set<K> bucket = buckets.get(frequency);
+		if (bucket != null) {
+			bucket.remove(key);
+			if (bucket.isEmpty()) {
+				buckets.remove(frequency);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.common.base.Supplier;
+import org.wahlzeit.model.UserSession;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * A LogEvent is a log statement as a list of key/value pairs, created by an EventLogger. Values, including those of
+ * suppliers, are only converted to strings when the event is logged; an exception is attached to the log record
+ * instead of being printed into the message. The rendered message has the format of LogBuilder messages; the
+ * entries themselves are passed on in a LogEventRecord.
+ *
+ * Events are reused per thread, so an event must not be kept after log() has been called. Events of disabled levels
+ * are the shared NONE event, which ignores all calls.
+ */
+public class LogEvent {
+
+	/**
+	 *
+	 */
+	public static final int INITIAL_CAPACITY = 8;
+
+	/**
+	 * Event of disabled levels
+	 */
+	protected static final LogEvent NONE = new LogEvent();
+
+	/**
+	 * Key of the duration of an operation in milliseconds
+	 */
+	public static final String DURATION = "duration ms";
+
+	/**
+	 *
+	 */
+	protected Logger logger = null;
+	protected Level level = null;
+	protected boolean isUserEvent = false;
+	protected boolean isInUse = false;
+
+	/**
+	 * Keys and values of the first noEntries entries; a message has no key
+	 */
+	protected String[] keys = new String[INITIAL_CAPACITY];
+	protected Object[] values = new Object[INITIAL_CAPACITY];
+	protected int noEntries = 0;
+	protected Throwable thrown = null;
+
+	/**
+	 *
+	 */
+	protected final StringBuilder text = new StringBuilder(128);
+
+	/**
+	 * @methodtype initialization
+	 */
+	protected LogEvent start(Logger myLogger, Level myLevel, boolean myIsUserEvent) {
+		logger = myLogger;
+		level = myLevel;
+		isUserEvent = myIsUserEvent;
+		isInUse = true;
+		return this;
+	}
+
+	/**
+	 * @methodtype mutate
+	 */
+	public LogEvent action(String action) {
+		return with(LogBuilder.ACTION, action);
+	}
+
+	/**
+	 * @methodtype mutate
+	 */
+	public LogEvent message(String message) {
+		return with(null, message);
+	}
+
+	/**
+	 * @methodtype mutate
+	 */
+	public LogEvent with(String key, Object value) {
+		if (this == NONE) {
+			return this;
+		}
+
+		if (noEntries == keys.length) {
+			keys = Arrays.copyOf(keys, 2 * noEntries);
+			values = Arrays.copyOf(values, 2 * noEntries);
+		}
+		keys[noEntries] = key;
+		values[noEntries] = value;
+		noEntries++;
+		return this;
+	}
+
+	/**
+	 * Adds a value that is only computed if the event is logged.
+	 *
+	 * @methodtype mutate
+	 */
+	public LogEvent with(String key, Supplier<?> supplier) {
+		return with(key, (Object) supplier);
+	}
+
+	/**
+	 * @methodtype mutate
+	 */
+	public LogEvent exception(String reason, Throwable throwable) {
+		if (this == NONE) {
+			return this;
+		}
+
+		thrown = throwable;
+		return with(LogBuilder.EXCEPTION_REASON, reason);
+	}
+
+	/**
+	 * Adds the time in milliseconds since the start time, which was taken from System.nanoTime().
+	 *
+	 * @methodtype mutate
+	 */
+	public LogEvent duration(long startNanoTime) {
+		if (this == NONE) {
+			return this;
+		}
+
+		return with(DURATION, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanoTime));
+	}
+
+	/**
+	 * Logs the event and releases it for reuse.
+	 *
+	 * @methodtype command
+	 */
+	public void log() {
+		if (this == NONE) {
+			return;
+		}
+
+		try {
+			Session session = SessionManager.getThreadLocalSession();
+			String sessionName = session != null ? session.getName() : Session.NO_SESSION;
+			String clientId = session != null ? session.getClientId() : null;
+			if (clientId == null) {
+				clientId = UserSession.ANONYMOUS_CLIENT;
+			}
+			String[] renderedValues = renderValues();
+
+			LogRecord record = new LogEventRecord(level, format(sessionName, clientId, renderedValues),
+					Arrays.copyOf(keys, noEntries), renderedValues, sessionName, clientId, isUserEvent);
+			record.setLoggerName(logger.getName());
+			// the caller is not inferred from the stack, it would be this class
+			record.setSourceClassName(logger.getName());
+			record.setSourceMethodName(null);
+			record.setThrown(thrown);
+			logger.log(record);
+		} finally {
+			reset();
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String format() {
+		Session session = SessionManager.getThreadLocalSession();
+		String sessionName = session != null ? session.getName() : Session.NO_SESSION;
+		String clientId = session != null ? session.getClientId() : null;
+		return format(sessionName, clientId != null ? clientId : UserSession.ANONYMOUS_CLIENT, renderValues());
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected String format(String sessionName, String clientId, String[] renderedValues) {
+		text.setLength(0);
+		append(LogBuilder.LEVEL, isUserEvent ? LogBuilder.USER_LEVEL : LogBuilder.SYSTEM_LEVEL);
+		append(LogBuilder.SESSION, sessionName);
+		append(LogBuilder.CLIENT, clientId);
+		for (int i = 0; i < noEntries; i++) {
+			append(keys[i], renderedValues[i]);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Converts all values to strings, evaluating suppliers.
+	 *
+	 * @methodtype conversion
+	 */
+	protected String[] renderValues() {
+		String[] result = new String[noEntries];
+		for (int i = 0; i < noEntries; i++) {
+			Object value = values[i];
+			if (value instanceof Supplier) {
+				value = ((Supplier<?>) value).get();
+			}
+			result[i] = String.valueOf(value);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void append(String key, Object value) {
+		if (text.length() > 0) {
+			text.append(LogBuilder.INFO_SEPARATOR);
+		}
+		if (key != null) {
+			text.append(key).append(LogBuilder.NAME_VALUE_SEPARATOR);
+		}
+		text.append(value);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void reset() {
+		Arrays.fill(values, 0, noEntries, null);
+		noEntries = 0;
+		thrown = null;
+		logger = null;
+		if (text.capacity() > 4096) {
+			text.setLength(0);
+			text.trimToSize();
+		}
+		isInUse = false;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoEntries() {
+		return noEntries;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getKey(int index) {
+		return keys[index];
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Object getValue(int index) {
+		return values[index];
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEnabled() {
+		return this != NONE;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	protected boolean isInUse() {
+		return isInUse;
+	}
+
+}
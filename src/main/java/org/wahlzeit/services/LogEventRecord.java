@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * A LogEventRecord is the LogRecord of a LogEvent. Besides the rendered message, it keeps the entries of the event
+ * and the session and client of the logging thread, so that handlers can write them as fields without parsing the
+ * message or looking up the session on another thread.
+ */
+public class LogEventRecord extends LogRecord {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 2418377591360128741L;
+
+	/**
+	 *
+	 */
+	protected final String[] keys;
+	protected final String[] values;
+	protected final String sessionName;
+	protected final String clientId;
+	protected final boolean isUserEvent;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public LogEventRecord(Level level, String message, String[] myKeys, String[] myValues, String mySessionName,
+			String myClientId, boolean myIsUserEvent) {
+		super(level, message);
+		keys = myKeys;
+		values = myValues;
+		sessionName = mySessionName;
+		clientId = myClientId;
+		isUserEvent = myIsUserEvent;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoEntries() {
+		return keys.length;
+	}
+
+	/**
+	 * Returns the key of the entry, null for a message.
+	 *
+	 * @methodtype get
+	 */
+	public String getKey(int index) {
+		return keys[index];
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getValue(int index) {
+		return values[index];
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getSessionName() {
+		return sessionName;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public String getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isUserEvent() {
+		return isUserEvent;
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.wahlzeit.model.Pattern;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An EvictionPolicy that evicts the least recently used entry first.
+ */
+@Pattern(
+	name = "Strategy",
+	participants = {
+		"ConcreteStrategy" // This class
+	}
+)
+public class LruEvictionPolicy<K> implements EvictionPolicy<K> {
+
+	/**
+	 * Access-ordered, i.e. the least recently used key is iterated first
+	 */
+	protected Map<K, Boolean> keys = new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordInsertion(K key) {
+		keys.put(key, Boolean.TRUE);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordAccess(K key) {
+		keys.get(key);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void recordRemoval(K key) {
+		keys.remove(key);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Iterator<K> getEvictionOrder() {
+		return keys.keySet().iterator();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void clear() {
+		keys.clear();
+	}
+
+}
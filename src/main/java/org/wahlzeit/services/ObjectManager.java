@@ -22,10 +22,19 @@ package org.wahlzeit.services;
 
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Iterables;
+import com.googlecode.objectify.LoadResult;
+import com.googlecode.objectify.Result;
+import org.wahlzeit.services.metrics.MetricsRegistry;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An ObjectManager creates/reads/updates/deletes Persistent (objects) from Google Datastore.
@@ -34,12 +43,27 @@ import java.util.logging.Logger;
 public abstract class ObjectManager {
 
 	/**
-	 * All objects are now saved under this root key. In case of multi-tenancy this may change to several keys.
+	 * All objects used to be saved under this root key. Now it is the root key of the first shard, see EntityShards.
 	 */
 	public static final Key applicationRootKey = KeyFactory.createKey("Application", "Wahlzeit");
 
-	private static final Logger log = Logger.getLogger(ObjectManager.class.getName());
+	private static final EventLogger log = EventLogger.getLogger(ObjectManager.class);
 
+	/**
+	 * The Datastore accepts at most 500 entities per batch call
+	 */
+	public static final int MAX_BATCH_SIZE = 500;
+
+	/**
+	 * Maximum number of entities saved with one call by writeObjects
+	 */
+	protected int batchSize = MAX_BATCH_SIZE;
+
+	/**
+	 * Latency metrics of reads and writes, tagged by entity type
+	 */
+	public static final String READ_METRIC = "datastore.read";
+	public static final String WRITE_METRIC = "datastore.write";
 
 	/**
 	 * Reads the first Entity with the given key in the Datastore
@@ -48,9 +72,13 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
-		return OfyService.ofy().load().type(type).id(id).now();
+		log.config().action("Datastore: load entity").with("type", type).with("ID", id).log();
+		long startTime = System.nanoTime();
+		try {
+			return OfyService.ofy().load().type(type).id(id).now();
+		} finally {
+			recordTime(READ_METRIC, type, startTime);
+		}
 	}
 
 	/**
@@ -69,26 +97,56 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(id, "id");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with ID " + id + " from datastore.").toString());
-		return OfyService.ofy().load().type(type).id(id).now();
+		log.config().action("Datastore: load entity").with("type", type).with("ID", id).log();
+		long startTime = System.nanoTime();
+		try {
+			return OfyService.ofy().load().type(type).id(id).now();
+		} finally {
+			recordTime(READ_METRIC, type, startTime);
+		}
 	}
 
 	/**
 	 * Reads an Entity of the specified type where the wanted parameter has the given name, e.g. readObject(User.class,
-	 * "emailAddress", "name@provider.com").
+	 * "emailAddress", "name@provider.com"). All shards are queried concurrently.
 	 */
 	protected <E> E readObject(Class<E> type, String parameterName, Object value) {
 		assertIsNonNullArgument(type, "type");
 		assertIsNonNullArgument(parameterName, "parameterName");
 		assertIsNonNullArgument(value, "value");
 
-		log.config(LogBuilder.createSystemMessage().
-				addMessage("Load Type " + type.toString() + " with parameter " +
-						parameterName + " == " + value + " from datastore.").toString());
+		log.config().action("Datastore: load entity").with("type", type).with(parameterName, value).log();
 
-		return OfyService.ofy().load().type(type).ancestor(applicationRootKey).filter(parameterName, value).first()
-				.now();
+		long startTime = System.nanoTime();
+		try {
+			List<LoadResult<E>> results = new ArrayList<LoadResult<E>>();
+			for (Key rootKey : getRootKeys()) {
+				results.add(OfyService.ofy().load().type(type).ancestor(rootKey).filter(parameterName, value).first());
+			}
+			for (LoadResult<E> result : results) {
+				E object = result.now();
+				if (object != null) {
+					return object;
+				}
+			}
+			return null;
+		} finally {
+			recordTime(READ_METRIC, type, startTime);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected static void recordTime(String metric, Class<?> type, long startNanoTime) {
+		MetricsRegistry.getInstance().recordTime(metric, type.getSimpleName(), startNanoTime);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected List<Key> getRootKeys() {
+		return EntityShards.getInstance().getRootKeys();
 	}
 
 	/**
@@ -98,12 +156,30 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(result, "result");
 		assertIsNonNullArgument(type, "type");
 
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: load all entities of type", type.getName()).toString());
-		List<E> objects = OfyService.ofy().load().type(type).ancestor(applicationRootKey).list();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: number of loaded objects", objects.size()).toString());
-		result.addAll(objects);
+		log.config().with("Datastore: load all entities of type", type).log();
+		long startTime = System.nanoTime();
+		List<List<E>> shardObjects = new ArrayList<List<E>>();
+		for (Key rootKey : getRootKeys()) {
+			// the lists are loaded asynchronously, so all shards are queried concurrently
+			shardObjects.add(OfyService.ofy().load().type(type).ancestor(rootKey).list());
+		}
+		addAllObjects(result, shardObjects);
+		recordTime(READ_METRIC, type, startTime);
+	}
+
+	/**
+	 * Iterates over all Entities of the specified type, shard after shard. Entities are loaded in chunks of batchSize
+	 * while iterating, so that not all of them are held in memory at once.
+	 */
+	protected <E> Iterable<E> iterateObjects(Class<E> type) {
+		assertIsNonNullArgument(type, "type");
+
+		log.config().with("Datastore: iterate all entities of type", type).log();
+		List<Iterable<E>> shardObjects = new ArrayList<Iterable<E>>();
+		for (Key rootKey : getRootKeys()) {
+			shardObjects.add(OfyService.ofy().load().type(type).ancestor(rootKey).chunk(batchSize).iterable());
+		}
+		return Iterables.concat(shardObjects);
 	}
 
 	/**
@@ -116,22 +192,148 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
-		log.info(LogBuilder.createSystemMessage().
-				addMessage("Datastore: Load all Entities of type " + type.toString() + " where parameter "
-						+ propertyName + " = " + value.toString() + " from datastore.").toString());
-		List<E> objects = OfyService.ofy().load().type(type).
-				ancestor(applicationRootKey).filter(propertyName, value).list();
-		log.config(LogBuilder.createSystemMessage().
-				addParameter("Datastore: number of loaded objects", objects.size()).toString());
-		result.addAll(objects);
+		log.info().with("Datastore: load all entities of type", type).with(propertyName, value).log();
+		long startTime = System.nanoTime();
+		List<List<E>> shardObjects = new ArrayList<List<E>>();
+		for (Key rootKey : getRootKeys()) {
+			shardObjects.add(OfyService.ofy().load().type(type).ancestor(rootKey).filter(propertyName, value).list());
+		}
+		addAllObjects(result, shardObjects);
+		recordTime(READ_METRIC, type, startTime);
+	}
+
+	/**
+	 *
+	 */
+	protected <E> void addAllObjects(Collection<E> result, List<List<E>> shardObjects) {
+		int noObjects = 0;
+		for (List<E> objects : shardObjects) {
+			result.addAll(objects);
+			noObjects += objects.size();
+		}
+		log.config().with("Datastore: number of loaded objects", noObjects).log();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setBatchSize(int newBatchSize) {
+		if (newBatchSize < 1 || newBatchSize > MAX_BATCH_SIZE) {
+			throw new IllegalArgumentException("batch size must be between 1 and " + MAX_BATCH_SIZE);
+		}
+		batchSize = newBatchSize;
 	}
 
 	/**
 	 * Updates all entities of the given collection in the datastore.
 	 */
 	protected void updateObjects(Collection<? extends Persistent> collection) {
+		writeObjects(collection);
+	}
+
+	/**
+	 * Writes all dirty entities of the given collection to the datastore. The entities are grouped by kind and saved
+	 * asynchronously in batches of at most batchSize entities. After all batches have completed, the dependents of all
+	 * written entities are updated at once. If a batch fails, the entities of all other batches are still handled and
+	 * the first failure is rethrown at the end.
+	 */
+	protected void writeObjects(Collection<? extends Persistent> collection) {
+		assertIsNonNullArgument(collection, "collection");
+
+		// subclasses like ChurchPhoto share the Datastore kind of their @Entity class and therefore its batches
+		Map<String, List<Persistent>> dirtyObjectsByKind = new LinkedHashMap<String, List<Persistent>>();
 		for (Persistent object : collection) {
-			updateObject(object);
+			if (object.isDirty()) {
+				String kind = com.googlecode.objectify.Key.getKind(object.getClass());
+				List<Persistent> objects = dirtyObjectsByKind.get(kind);
+				if (objects == null) {
+					objects = new ArrayList<Persistent>();
+					dirtyObjectsByKind.put(kind, objects);
+				}
+				objects.add(object);
+			}
+		}
+
+		if (dirtyObjectsByKind.isEmpty()) {
+			log.config().message("Datastore: No need to update objects").log();
+			return;
+		}
+
+		// start all batches
+		List<List<Persistent>> batches = new ArrayList<List<Persistent>>();
+		List<Map<Persistent, com.googlecode.objectify.Key<?>>> batchOldKeys =
+				new ArrayList<Map<Persistent, com.googlecode.objectify.Key<?>>>();
+		List<Result<?>> results = new ArrayList<Result<?>>();
+		long startTime = System.nanoTime();
+		for (List<Persistent> objects : dirtyObjectsByKind.values()) {
+			for (int i = 0; i < objects.size(); i += batchSize) {
+				List<Persistent> batch = new ArrayList<Persistent>(objects.subList(i, Math.min(i + batchSize,
+						objects.size())));
+				Map<Persistent, com.googlecode.objectify.Key<?>> oldKeys =
+						new IdentityHashMap<Persistent, com.googlecode.objectify.Key<?>>();
+				for (Persistent object : batch) {
+					com.googlecode.objectify.Key<?> oldKey = moveToShard(object);
+					if (oldKey != null) {
+						oldKeys.put(object, oldKey);
+					}
+				}
+				batches.add(batch);
+				batchOldKeys.add(oldKeys);
+				results.add(OfyService.ofy().save().entities(batch));
+			}
+		}
+
+		// wait for all batches to complete
+		List<Persistent> writtenObjects = new ArrayList<Persistent>();
+		List<com.googlecode.objectify.Key<?>> movedKeys = new ArrayList<com.googlecode.objectify.Key<?>>();
+		RuntimeException failure = null;
+		for (int i = 0; i < batches.size(); i++) {
+			List<Persistent> batch = batches.get(i);
+			String kind = com.googlecode.objectify.Key.getKind(batch.get(0).getClass());
+			try {
+				results.get(i).now();
+				writtenObjects.addAll(batch);
+				movedKeys.addAll(batchOldKeys.get(i).values());
+				log.info().with("Datastore: Wrote batch of type", kind).with("size", batch.size()).log();
+			} catch (RuntimeException e) {
+				log.warning().with("Datastore: Failed batch of type", kind).
+						with("size", batch.size()).
+						exception("Could not write batch", e).log();
+				// the objects are still stored in their old shards, so they have to be moved by the next write
+				for (Map.Entry<Persistent, com.googlecode.objectify.Key<?>> entry : batchOldKeys.get(i).entrySet()) {
+					restoreShard(entry.getKey(), entry.getValue());
+				}
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+
+		// the batches run concurrently, so only the duration of the whole write is meaningful
+		String kinds = Joiner.on(',').join(dirtyObjectsByKind.keySet());
+		MetricsRegistry.getInstance().recordTime(WRITE_METRIC, kinds, startTime);
+		log.info().with("Datastore: Wrote batches of types", kinds).
+				with("batches", batches.size()).
+				with("latency (ms)", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)).log();
+
+		if (!movedKeys.isEmpty()) {
+			OfyService.ofy().delete().keys(movedKeys).now();
+		}
+
+		updateDependents(writtenObjects);
+		for (Persistent object : writtenObjects) {
+			object.resetWriteCount();
+		}
+
+		if (failure != null) {
+			throw failure;
 		}
 	}
 
@@ -149,14 +351,88 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(object, "object");
 
 		if (object.isDirty()) {
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("Datastore: Write object of type", object).toString());
-			OfyService.ofy().save().entity(object).now();
+			log.info().with("Datastore: Write object of type", object).log();
+			com.googlecode.objectify.Key<?> oldKey = moveToShard(object);
+			long startTime = System.nanoTime();
+			try {
+				OfyService.ofy().save().entity(object).now();
+			} catch (RuntimeException e) {
+				restoreShard(object, oldKey);
+				throw e;
+			}
+			recordTime(WRITE_METRIC, object.getClass(), startTime);
+			if (oldKey != null) {
+				OfyService.ofy().delete().key(oldKey).now();
+			}
 			updateDependents(object);
 			object.resetWriteCount();
 		} else {
-			log.info(LogBuilder.createSystemMessage().
-					addParameter("Datastore: No need to update object", object).toString());
+			log.info().with("Datastore: No need to update object", object).log();
+		}
+	}
+
+	/**
+	 * Saves and deletes the given entities with one batch call each, both running concurrently. Dependents are not
+	 * updated.
+	 */
+	protected void saveAndDeleteObjects(Collection<? extends Persistent> toSave, Collection<?> toDelete) {
+		assertIsNonNullArgument(toSave, "toSave");
+		assertIsNonNullArgument(toDelete, "toDelete");
+
+		log.config().with("Datastore: number of entities to save", toSave.size()).
+				with("Datastore: number of entities to delete", toDelete.size()).log();
+		Result<?> saveResult = toSave.isEmpty() ? null : OfyService.ofy().save().entities(toSave);
+		Result<?> deleteResult = toDelete.isEmpty() ? null : OfyService.ofy().delete().entities(toDelete);
+		if (saveResult != null) {
+			saveResult.now();
+		}
+		if (deleteResult != null) {
+			deleteResult.now();
+		}
+
+		for (Persistent object : toSave) {
+			object.resetWriteCount();
+		}
+	}
+
+	/**
+	 * If the object is a ShardedEntity that is not stored in the shard the current EntityShards assign to it, e.g.
+	 * because the number of shards has changed, its parent is set to the right shard. Returns the key of the object
+	 * in its old shard, which has to be deleted once the object has been saved, or null if the object was not moved.
+	 */
+	protected com.googlecode.objectify.Key<?> moveToShard(Object object) {
+		if (!isMisplaced(object)) {
+			return null;
+		}
+
+		ShardedEntity entity = (ShardedEntity) object;
+		Key rootKey = EntityShards.getInstance().getRootKey(entity.getShardingKey());
+		com.googlecode.objectify.Key<?> oldKey = com.googlecode.objectify.Key.create(object);
+		entity.setParent(rootKey);
+		log.config().with("Datastore: move entity", oldKey).with("to shard", rootKey).log();
+		return oldKey;
+	}
+
+	/**
+	 * Returns true if the object is a ShardedEntity that is not stored in the shard the current EntityShards assign to
+	 * it, i.e. if moveToShard() would move it.
+	 */
+	protected boolean isMisplaced(Object object) {
+		if (!(object instanceof ShardedEntity)) {
+			return false;
+		}
+
+		ShardedEntity entity = (ShardedEntity) object;
+		return !EntityShards.getInstance().getRootKey(entity.getShardingKey()).equals(entity.getParent());
+	}
+
+	/**
+	 * Sets the parent of an object moved by moveToShard() back to its old shard, after the object could not be saved.
+	 * Does nothing if oldKey is null, i.e. if the object was not moved.
+	 */
+	protected void restoreShard(Object object, com.googlecode.objectify.Key<?> oldKey) {
+		if (oldKey != null) {
+			((ShardedEntity) object).setParent(oldKey.getParent().getRaw());
 		}
 	}
 
@@ -167,13 +443,23 @@ public abstract class ObjectManager {
 		// overwrite if your object has additional dependencies
 	}
 
+	/**
+	 * Updates all dependencies of the objects, which have just been written in one go. Overwrite to combine the
+	 * updates of several objects.
+	 */
+	protected void updateDependents(Collection<? extends Persistent> objects) {
+		for (Persistent object : objects) {
+			updateDependents(object);
+		}
+	}
+
 	/**
 	 * Deletes the given entity from the datastore.
 	 */
 	protected <E> void deleteObject(E object) {
 		assertIsNonNullArgument(object, "object");
 
-		log.config(LogBuilder.createSystemMessage().addParameter("Datastore: delete entity", object).toString());
+		log.config().with("Datastore: delete entity", object).log();
 		OfyService.ofy().delete().entity(object).now();
 	}
 
@@ -186,12 +472,15 @@ public abstract class ObjectManager {
 		assertIsNonNullArgument(propertyName, "propertyName");
 		assertIsNonNullArgument(value, "value");
 
-		log.info(LogBuilder.createSystemMessage().
-				addMessage("Datastore: delete entities of type " + type
-						+ " where property " + propertyName + " == " + value).toString());
-		List<com.googlecode.objectify.Key<E>> keys = OfyService.ofy().load().type(type).
-				ancestor(applicationRootKey).filter(propertyName, value).keys().list();
-		OfyService.ofy().delete().keys(keys);
+		log.info().with("Datastore: delete entities of type", type).with(propertyName, value).log();
+		List<List<com.googlecode.objectify.Key<E>>> shardKeys =
+				new ArrayList<List<com.googlecode.objectify.Key<E>>>();
+		for (Key rootKey : getRootKeys()) {
+			shardKeys.add(OfyService.ofy().load().type(type).ancestor(rootKey).filter(propertyName, value).keys().list());
+		}
+		for (List<com.googlecode.objectify.Key<E>> keys : shardKeys) {
+			OfyService.ofy().delete().keys(keys);
+		}
 	}
 
 	/**
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An OffHeapByteCache keeps byte arrays outside of the Java heap, in one direct buffer that is allocated up front, so
+ * that cached data does not have to be traced by the garbage collector. The buffer is divided into blocks of equal
+ * size; an entry occupies as many blocks as it needs, in any order. When the free blocks do not suffice, entries are
+ * evicted according to the EvictionPolicy. All methods are synchronized.
+ */
+public class OffHeapByteCache {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 8 * 1024;
+
+	/**
+	 *
+	 */
+	protected final int blockSize;
+	protected final ByteBuffer slab;
+	protected final EvictionPolicy<String> evictionPolicy;
+
+	/**
+	 * Blocks of each entry, in order; guarded by this
+	 */
+	protected Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/**
+	 * Stack of unused blocks, the first noFreeBlocks elements are valid; guarded by this
+	 */
+	protected final int[] freeBlocks;
+	protected int noFreeBlocks;
+	protected long totalBytes = 0;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public OffHeapByteCache(long maxBytes, EvictionPolicy<String> myEvictionPolicy) {
+		this(maxBytes, DEFAULT_BLOCK_SIZE, myEvictionPolicy);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public OffHeapByteCache(long maxBytes, int myBlockSize, EvictionPolicy<String> myEvictionPolicy) {
+		if (myBlockSize <= 0 || maxBytes < myBlockSize || maxBytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("cache bound must hold at least one block and fit into one buffer");
+		}
+		if (myEvictionPolicy == null) {
+			throw new IllegalArgumentException("eviction policy must not be null");
+		}
+
+		blockSize = myBlockSize;
+		evictionPolicy = myEvictionPolicy;
+		int noBlocks = (int) (maxBytes / myBlockSize);
+		slab = ByteBuffer.allocateDirect(noBlocks * myBlockSize);
+		freeBlocks = new int[noBlocks];
+		for (int i = 0; i < noBlocks; i++) {
+			freeBlocks[i] = noBlocks - 1 - i;
+		}
+		noFreeBlocks = noBlocks;
+	}
+
+	/**
+	 * Returns a copy of the cached data, or null if there is none.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized byte[] get(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+
+		evictionPolicy.recordAccess(key);
+		byte[] result = new byte[entry.length];
+		for (int i = 0, offset = 0; offset < entry.length; i++, offset += blockSize) {
+			slab.position(entry.blocks[i] * blockSize);
+			slab.get(result, offset, Math.min(blockSize, entry.length - offset));
+		}
+		return result;
+	}
+
+	/**
+	 * Copies the cached data from the given position on into the buffer, until the buffer is full or the data ends,
+	 * without copying the rest of it. Reading from position 0 counts as an access. Returns the number of bytes copied,
+	 * or -1 if there is no data for the key or the position is at its end.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized int read(String key, long position, ByteBuffer target) {
+		Entry entry = entries.get(key);
+		if (entry == null || position >= entry.length) {
+			return -1;
+		}
+
+		if (position == 0) {
+			evictionPolicy.recordAccess(key);
+		}
+		int offset = (int) position;
+		int end = (int) Math.min(entry.length, position + target.remaining());
+		while (offset < end) {
+			int start = entry.blocks[offset / blockSize] * blockSize + offset % blockSize;
+			int length = Math.min(blockSize - offset % blockSize, end - offset);
+			slab.limit(start + length).position(start);
+			target.put(slab);
+			offset += length;
+		}
+		slab.clear();
+		return end - (int) position;
+	}
+
+	/**
+	 * Returns the length of the cached data, or -1 if there is none.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized int getLength(String key) {
+		Entry entry = entries.get(key);
+		return entry != null ? entry.length : -1;
+	}
+
+	/**
+	 * Copies the data into the cache. Data larger than the whole cache is not cached.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized void put(String key, byte[] data) {
+		int noBlocks = (data.length + blockSize - 1) / blockSize;
+		if (noBlocks > freeBlocks.length) {
+			return;
+		}
+
+		doRemove(key);
+		while (noFreeBlocks < noBlocks) {
+			doRemove(evictionPolicy.getEvictionOrder().next());
+		}
+
+		Entry entry = new Entry(data.length, new int[noBlocks]);
+		for (int i = 0, offset = 0; i < noBlocks; i++, offset += blockSize) {
+			int block = freeBlocks[--noFreeBlocks];
+			entry.blocks[i] = block;
+			slab.position(block * blockSize);
+			slab.put(data, offset, Math.min(blockSize, data.length - offset));
+		}
+
+		entries.put(key, entry);
+		totalBytes += data.length;
+		evictionPolicy.recordInsertion(key);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void remove(String key) {
+		doRemove(key);
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean contains(String key) {
+		return entries.containsKey(key);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of cached bytes, without the unused rest of the last block of each entry.
+	 *
+	 * @methodtype get
+	 */
+	public synchronized long getBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxBytes() {
+		return slab.capacity();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public synchronized void clear() {
+		for (String key : entries.keySet().toArray(new String[0])) {
+			doRemove(key);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 * @methodproperties primitive
+	 */
+	protected void doRemove(String key) {
+		Entry entry = entries.remove(key);
+		if (entry != null) {
+			for (int block : entry.blocks) {
+				freeBlocks[noFreeBlocks++] = block;
+			}
+			totalBytes -= entry.length;
+			evictionPolicy.recordRemoval(key);
+		}
+	}
+
+	/**
+	 * The blocks of one cached byte array
+	 */
+	protected static class Entry {
+
+		protected final int length;
+		protected final int[] blocks;
+
+		protected Entry(int myLength, int[] myBlocks) {
+			length = myLength;
+			blocks = myBlocks;
+		}
+	}
+
+}
@@ -14,6 +14,7 @@ import org.wahlzeit.model.Guest;
 import org.wahlzeit.model.Moderator;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoCase;
+import org.wahlzeit.model.PraiseCounterShard;
 import org.wahlzeit.model.Tag;
 import org.wahlzeit.model.User;
 import org.wahlzeit.model.persistence.DatastoreAdapter.ImageWrapper;
@@ -33,6 +34,7 @@ public class OfyService {
 		factory().register(Photo.class);
 		factory().register(Globals.class);
 		factory().register(Tag.class);
+		factory().register(PraiseCounterShard.class);
 		factory().register(User.class);
 		factory().register(Administrator.class);
 		factory().register(Moderator.class);
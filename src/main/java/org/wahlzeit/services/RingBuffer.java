@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A RingBuffer is a bounded queue that many threads may offer to and poll from without locking. Each slot has a
+ * sequence number that tells whether the slot is free for the current round of producers or filled for the current
+ * round of consumers; producers and consumers claim positions by compare-and-set. A full buffer rejects elements
+ * instead of waiting, the caller decides whether to drop or to retry.
+ */
+public class RingBuffer<E> {
+
+	/**
+	 * Elements are published by the following write of their slot sequence
+	 */
+	protected final Object[] elements;
+	protected final AtomicLongArray sequences;
+	protected final int mask;
+
+	/**
+	 * Next position to offer to and to poll from
+	 */
+	protected final AtomicLong tail = new AtomicLong();
+	protected final AtomicLong head = new AtomicLong();
+
+	/**
+	 * @param capacity maximum number of elements, must be a power of 2
+	 * @methodtype constructor
+	 */
+	public RingBuffer(int capacity) {
+		if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("capacity must be a power of 2");
+		}
+		elements = new Object[capacity];
+		sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Adds the element and returns true, or returns false if the buffer is full.
+	 *
+	 * @methodtype command
+	 */
+	public boolean offer(E element) {
+		if (element == null) {
+			throw new IllegalArgumentException("element must not be null");
+		}
+
+		long position = tail.get();
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements[index] = element;
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (difference < 0) {
+				return false; // slot still holds the element of the previous round
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Removes and returns the oldest element, or returns null if the buffer is empty.
+	 *
+	 * @methodtype command
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long position = head.get();
+		while (true) {
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - (position + 1);
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					E result = (E) elements[index];
+					elements[index] = null;
+					sequences.set(index, position + elements.length);
+					return result;
+				}
+				position = head.get();
+			} else if (difference < 0) {
+				return null; // slot has not been filled yet
+			} else {
+				position = head.get();
+			}
+		}
+	}
+
+	/**
+	 * Moves up to maxElements of the oldest elements to the target and returns their number.
+	 *
+	 * @methodtype command
+	 */
+	public int drainTo(Collection<? super E> target, int maxElements) {
+		int result = 0;
+		for (E element; result < maxElements && (element = poll()) != null; result++) {
+			target.add(element);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of elements that have been offered successfully so far.
+	 *
+	 * @methodtype get
+	 */
+	public long getNoOffered() {
+		return tail.get();
+	}
+
+	/**
+	 * Returns the number of elements that have been polled so far.
+	 *
+	 * @methodtype get
+	 */
+	public long getNoPolled() {
+		return head.get();
+	}
+
+	/**
+	 * Returns the number of elements; only an estimate while other threads modify the buffer.
+	 *
+	 * @methodtype get
+	 */
+	public int size() {
+		long noPolled = head.get();
+		long noOffered = tail.get();
+		return (int) Math.max(0, Math.min(noOffered - noPolled, elements.length));
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getCapacity() {
+		return elements.length;
+	}
+
+}
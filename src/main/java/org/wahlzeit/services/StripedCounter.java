@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A StripedCounter is a counter for frequent concurrent updates. Each thread adds to one of several stripes, so that
+ * threads rarely compete for the same value; reading sums up all stripes. Stripes are spaced apart in the underlying
+ * array, so that they do not share a cache line.
+ */
+public class StripedCounter implements Serializable {
+
+	/**
+	 *
+	 */
+	public static final int DEFAULT_NO_STRIPES = 8;
+
+	/**
+	 * Distance between two stripes in the array, 8 longs are one cache line of 64 bytes
+	 */
+	protected static final int STRIPE_DISTANCE = 8;
+
+	/**
+	 *
+	 */
+	protected final AtomicLongArray stripes;
+	protected final int stripeMask;
+
+	/**
+	 *
+	 */
+	public StripedCounter() {
+		this(DEFAULT_NO_STRIPES);
+	}
+
+	/**
+	 * @param noStripes number of stripes, must be a power of 2
+	 * @methodtype constructor
+	 */
+	public StripedCounter(int noStripes) {
+		if (noStripes < 1 || Integer.bitCount(noStripes) != 1) {
+			throw new IllegalArgumentException("number of stripes must be a power of 2");
+		}
+		stripes = new AtomicLongArray(noStripes * STRIPE_DISTANCE);
+		stripeMask = noStripes - 1;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void add(long value) {
+		int stripe = (int) Thread.currentThread().getId() & stripeMask;
+		stripes.addAndGet(stripe * STRIPE_DISTANCE, value);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * Returns the current value; concurrent updates may or may not be included.
+	 *
+	 * @methodtype get
+	 */
+	public long sum() {
+		long result = 0;
+		for (int i = 0; i < stripes.length(); i += STRIPE_DISTANCE) {
+			result += stripes.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the current value and resets the counter to 0. Each concurrent update is either included in the result
+	 * or kept in the counter, so no update is lost.
+	 *
+	 * @methodtype command
+	 */
+	public long sumThenReset() {
+		long result = 0;
+		for (int i = 0; i < stripes.length(); i += STRIPE_DISTANCE) {
+			result += stripes.getAndSet(i, 0);
+		}
+		return result;
+	}
+
+}
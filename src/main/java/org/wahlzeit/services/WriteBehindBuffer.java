@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A WriteBehindBuffer collects the keys of entities that have to be saved, so that repeated saves of the same entity
+ * within a time window are coalesced into one write. The owner flushes the buffer by draining it, typically from a
+ * task that has been scheduled when the first key of a window was marked. If a scheduled flush does not happen within
+ * the maximum staleness, e.g. because the task ran on another instance, the next mark asks for a new flush.
+ */
+public class WriteBehindBuffer<K> {
+
+	/**
+	 *
+	 */
+	public static final long DEFAULT_WINDOW = 10 * 1000; // 10 seconds
+	public static final long DEFAULT_MAX_STALENESS = 60 * 1000; // 1 minute
+
+	/**
+	 *
+	 */
+	protected final long window;
+	protected final long maxStaleness;
+
+	/**
+	 * Keys to be written, in the order they were marked first
+	 */
+	protected Set<K> pendingKeys = new LinkedHashSet<K>();
+
+	/**
+	 * Point in time when the last flush was requested, -1 if no flush is pending
+	 */
+	protected long flushRequestTime = -1;
+
+	/**
+	 *
+	 */
+	public WriteBehindBuffer() {
+		this(DEFAULT_WINDOW, DEFAULT_MAX_STALENESS);
+	}
+
+	/**
+	 * @methodtype constructor
+	 */
+	public WriteBehindBuffer(long myWindow, long myMaxStaleness) {
+		if (myWindow < 0 || myMaxStaleness < myWindow) {
+			throw new IllegalArgumentException("window must not be negative and not exceed maxStaleness");
+		}
+		window = myWindow;
+		maxStaleness = myMaxStaleness;
+	}
+
+	/**
+	 * Marks the entity with the given key as to be written. Returns true if the caller has to request a flush in
+	 * getWindow() milliseconds, false if a flush is already pending.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized boolean mark(K key) {
+		pendingKeys.add(key);
+
+		long now = getCurrentTime();
+		if (flushRequestTime < 0 || now - flushRequestTime > maxStaleness) {
+			flushRequestTime = now;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns all marked keys and empties the buffer.
+	 *
+	 * @methodtype command
+	 */
+	public synchronized List<K> drain() {
+		List<K> result = new ArrayList<K>(pendingKeys);
+		pendingKeys.clear();
+		flushRequestTime = -1;
+		return result;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isPending(K key) {
+		return pendingKeys.contains(key);
+	}
+
+	/**
+	 * Returns true if the window of the pending keys has passed, i.e. if they should be flushed now.
+	 *
+	 * @methodtype boolean-query
+	 */
+	public synchronized boolean isDue() {
+		return flushRequestTime >= 0 && getCurrentTime() - flushRequestTime >= window;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public synchronized int size() {
+		return pendingKeys.size();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getWindow() {
+		return window;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMaxStaleness() {
+		return maxStaleness;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long getCurrentTime() {
+		return System.currentTimeMillis();
+	}
+
+}
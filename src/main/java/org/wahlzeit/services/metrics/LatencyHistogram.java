@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A LatencyHistogram counts durations in microseconds in buckets of bounded relative width, like an HdrHistogram:
+ * values below 64 have a bucket each, above that every power of 2 is split into 32 buckets, so that percentiles are
+ * accurate to about 3% at any magnitude. Recording is lock-free and takes constant time; values above MAX_VALUE, about
+ * 19 hours, are counted as MAX_VALUE.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Values below 2^SUB_BUCKET_BITS are counted exactly
+	 */
+	protected static final int SUB_BUCKET_BITS = 6;
+	protected static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	protected static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+	/**
+	 *
+	 */
+	public static final long MAX_VALUE = (1L << 36) - 1;
+
+	/**
+	 *
+	 */
+	protected final AtomicLongArray counts = new AtomicLongArray(getIndex(MAX_VALUE) + 1);
+	protected final AtomicLong sum = new AtomicLong();
+	protected final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records the time since the start time, which was taken from System.nanoTime().
+	 *
+	 * @methodtype command
+	 */
+	public void recordSince(long startNanoTime) {
+		record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanoTime));
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void record(long micros) {
+		long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+		counts.incrementAndGet(getIndex(value));
+		sum.addAndGet(value);
+
+		long oldMax = max.get();
+		while (value > oldMax && !max.compareAndSet(oldMax, value)) {
+			oldMax = max.get();
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static int getIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+
+		// value has highestBit + 1 bits, the SUB_BUCKET_BITS highest of them select the sub bucket
+		int highestBit = 63 - Long.numberOfLeadingZeros(value);
+		int shift = highestBit - SUB_BUCKET_BITS + 1;
+		return shift * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift);
+	}
+
+	/**
+	 * Returns the largest value that is counted in the bucket of the index.
+	 *
+	 * @methodtype conversion
+	 */
+	protected static long getHighestValue(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+
+		int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+		long subBucket = index - shift * SUB_BUCKET_HALF_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getCount() {
+		long result = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			result += counts.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count > 0 ? (double) sum.get() / count : 0;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the value below or at which the given percentage of all values lie, with the precision of the buckets.
+	 *
+	 * @param percentile between 0 and 100
+	 * @methodtype get
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+		long noValues = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			noValues += counts.get(i);
+			if (noValues >= target) {
+				return Math.min(getHighestValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		sum.set(0);
+		max.set(0);
+	}
+
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.metrics;
+
+import org.wahlzeit.services.StripedCounter;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The MetricsRegistry holds the latency histograms, counters and gauges of the application. Metrics have a name, e.g.
+ * "handler.get", and optionally a tag, e.g. the name of a handler; they are created on first use. Looking a metric up
+ * does not allocate, so call sites can record into the registry directly. Rates are per second since the last reset.
+ */
+public class MetricsRegistry {
+
+	/**
+	 *
+	 */
+	protected static MetricsRegistry instance = new MetricsRegistry();
+
+	/**
+	 * Tag of metrics that have none
+	 */
+	protected static final String NO_TAG = "";
+
+	/**
+	 * Metrics by name and tag
+	 */
+	protected final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> histograms =
+			new ConcurrentHashMap<String, ConcurrentMap<String, LatencyHistogram>>();
+	protected final ConcurrentMap<String, ConcurrentMap<String, StripedCounter>> counters =
+			new ConcurrentHashMap<String, ConcurrentMap<String, StripedCounter>>();
+	protected final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+	/**
+	 *
+	 */
+	protected volatile long startTime = getCurrentTime();
+
+	/**
+	 * @methodtype get
+	 */
+	public static MetricsRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public static void setInstance(MetricsRegistry newInstance) {
+		instance = newInstance;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public LatencyHistogram getHistogram(String name) {
+		return getHistogram(name, null);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public LatencyHistogram getHistogram(String name, String tag) {
+		ConcurrentMap<String, LatencyHistogram> tagged = histograms.get(name);
+		if (tagged == null) {
+			histograms.putIfAbsent(name, new ConcurrentHashMap<String, LatencyHistogram>());
+			tagged = histograms.get(name);
+		}
+
+		String key = tag != null ? tag : NO_TAG;
+		LatencyHistogram result = tagged.get(key);
+		if (result == null) {
+			tagged.putIfAbsent(key, new LatencyHistogram());
+			result = tagged.get(key);
+		}
+		return result;
+	}
+
+	/**
+	 * Records the time since the start time, which was taken from System.nanoTime().
+	 *
+	 * @methodtype command
+	 */
+	public void recordTime(String name, String tag, long startNanoTime) {
+		getHistogram(name, tag).recordSince(startNanoTime);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public StripedCounter getCounter(String name) {
+		return getCounter(name, null);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public StripedCounter getCounter(String name, String tag) {
+		ConcurrentMap<String, StripedCounter> tagged = counters.get(name);
+		if (tagged == null) {
+			counters.putIfAbsent(name, new ConcurrentHashMap<String, StripedCounter>());
+			tagged = counters.get(name);
+		}
+
+		String key = tag != null ? tag : NO_TAG;
+		StripedCounter result = tagged.get(key);
+		if (result == null) {
+			tagged.putIfAbsent(key, new StripedCounter());
+			result = tagged.get(key);
+		}
+		return result;
+	}
+
+	/**
+	 * Registers the gauge under the name, replacing an earlier one.
+	 *
+	 * @methodtype command
+	 */
+	public void registerGauge(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public Gauge getGauge(String name) {
+		return gauges.get(name);
+	}
+
+	/**
+	 * Writes all metrics as text, one per line and sorted by name, e.g.
+	 * "handler.get{showPhoto} count=12 rate=0.10/s mean=1.250ms p50=1.000ms p90=2.000ms p99=4.000ms max=4.100ms".
+	 *
+	 * @methodtype command
+	 */
+	public void writeOn(Appendable out) throws IOException {
+		long now = getCurrentTime();
+		double seconds = Math.max(now - startTime, 1) / 1000.0;
+		out.append("# uptime=").append(format(seconds)).append("s\n");
+
+		for (Map.Entry<String, LatencyHistogram> entry : getSorted(histograms).entrySet()) {
+			LatencyHistogram histogram = entry.getValue();
+			long count = histogram.getCount();
+			out.append(entry.getKey());
+			out.append(" count=").append(String.valueOf(count));
+			out.append(" rate=").append(format(count / seconds)).append("/s");
+			out.append(" mean=").append(asMillis(histogram.getMean()));
+			out.append(" p50=").append(asMillis(histogram.getValueAtPercentile(50)));
+			out.append(" p90=").append(asMillis(histogram.getValueAtPercentile(90)));
+			out.append(" p99=").append(asMillis(histogram.getValueAtPercentile(99)));
+			out.append(" max=").append(asMillis(histogram.getMax()));
+			out.append('\n');
+		}
+
+		for (Map.Entry<String, StripedCounter> entry : getSorted(counters).entrySet()) {
+			long value = entry.getValue().sum();
+			out.append(entry.getKey()).append(' ').append(String.valueOf(value));
+			out.append(" rate=").append(format(value / seconds)).append("/s\n");
+		}
+
+		for (Map.Entry<String, Gauge> entry : new TreeMap<String, Gauge>(gauges).entrySet()) {
+			out.append(entry.getKey()).append(' ').append(String.valueOf(entry.getValue().getValue())).append('\n');
+		}
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asText() {
+		StringBuilder result = new StringBuilder(1024);
+		try {
+			writeOn(result);
+		} catch (IOException ioex) {
+			// a StringBuilder does not throw
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static <M> SortedMap<String, M> getSorted(Map<String, ConcurrentMap<String, M>> metrics) {
+		SortedMap<String, M> result = new TreeMap<String, M>();
+		for (Map.Entry<String, ConcurrentMap<String, M>> named : metrics.entrySet()) {
+			for (Map.Entry<String, M> tagged : named.getValue().entrySet()) {
+				result.put(asName(named.getKey(), tagged.getKey()), tagged.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asName(String name, String tag) {
+		return NO_TAG.equals(tag) ? name : name + "{" + tag + "}";
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String asMillis(double micros) {
+		return String.format(Locale.ENGLISH, "%.3fms", micros / 1000);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	protected static String format(double value) {
+		return String.format(Locale.ENGLISH, "%.2f", value);
+	}
+
+	/**
+	 * Resets all histograms and counters; gauges stay registered.
+	 *
+	 * @methodtype command
+	 */
+	public void reset() {
+		for (Map<String, LatencyHistogram> tagged : histograms.values()) {
+			for (LatencyHistogram histogram : tagged.values()) {
+				histogram.reset();
+			}
+		}
+		for (Map<String, StripedCounter> tagged : counters.values()) {
+			for (StripedCounter counter : tagged.values()) {
+				counter.sumThenReset();
+			}
+		}
+		startTime = getCurrentTime();
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected long getCurrentTime() {
+		return System.currentTimeMillis();
+	}
+
+}
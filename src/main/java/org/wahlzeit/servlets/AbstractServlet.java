@@ -34,6 +34,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.util.Iterator;
@@ -183,9 +184,10 @@ public abstract class AbstractServlet extends HttpServlet {
 		log.config(LogBuilder.createSystemMessage().
 				addParameter("proctime", String.valueOf(processingTime)).toString());
 
-		response.setContentType("text/html");
+		// templates are precompiled to UTF-8, so the page is written as bytes without a Writer
+		response.setContentType("text/html; charset=UTF-8");
 
-		PrintWriter out = response.getWriter();
+		OutputStream out = response.getOutputStream();
 		result.writeOn(out);
 		out.close();
 
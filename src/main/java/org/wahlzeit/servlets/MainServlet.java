@@ -26,21 +26,24 @@ import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.common.io.CharStreams;
 import org.apache.commons.fileupload.FileItemIterator;
 import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadBase;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.wahlzeit.handlers.PartUtil;
 import org.wahlzeit.handlers.WebFormHandler;
 import org.wahlzeit.handlers.WebPageHandler;
+import org.wahlzeit.handlers.WebPartHandler;
 import org.wahlzeit.handlers.WebPartHandlerManager;
-import org.wahlzeit.model.User;
+import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.UserSession;
 import org.wahlzeit.services.LogBuilder;
 import org.wahlzeit.services.SessionManager;
+import org.wahlzeit.services.metrics.MetricsRegistry;
+import org.wahlzeit.utils.StreamUtil;
 import org.wahlzeit.webparts.WebPart;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -60,6 +63,24 @@ public class MainServlet extends AbstractServlet {
 	 */
 	private static final long serialVersionUID = 42L; // any one does; class never serialized
 
+	/**
+	 * Maximum size of an uploaded file and additional bytes allowed for the other parts of a multipart request
+	 */
+	public static final int DEFAULT_MAX_UPLOAD_SIZE = 8 * 1024 * 1024;
+	public static final int MAX_FORM_FIELDS_SIZE = 64 * 1024;
+
+	/**
+	 * Latency metrics of the handlers, tagged by handler name
+	 */
+	public static final String HANDLE_GET_METRIC = "handler.get";
+	public static final String HANDLE_POST_METRIC = "handler.post";
+	public static final String MAKE_WEB_PART_METRIC = "handler.makeWebPart";
+
+	/**
+	 *
+	 */
+	protected int maxUploadSize = DEFAULT_MAX_UPLOAD_SIZE;
+
 	/**
 	 *
 	 */
@@ -78,13 +99,25 @@ public class MainServlet extends AbstractServlet {
 		log.info(LogBuilder.createUserMessage().addParameter("posted to", link).toString());
 
 		Map args = getRequestArgs(request, us);
+		if (args == null) {
+			// the upload was too large, the user has been told so
+			redirectRequest(response, PartUtil.UPLOAD_PHOTO_PAGE_NAME);
+			us.addProcessingTime(System.currentTimeMillis() - startTime);
+			SessionManager.dropThreadLocalSession();
+			return;
+		}
 		log.info(LogBuilder.createSystemMessage().
 				addParameter("POST arguments", getRequestArgsAsString(us, args)).toString());
 
 		WebFormHandler formHandler = WebPartHandlerManager.getWebFormHandler(link);
 		link = PartUtil.DEFAULT_PAGE_NAME;
 		if (formHandler != null) {
-			link = formHandler.handlePost(us, args);
+			long handleStartTime = System.nanoTime();
+			try {
+				link = formHandler.handlePost(us, args);
+			} finally {
+				recordTime(HANDLE_POST_METRIC, formHandler, handleStartTime);
+			}
 		}
 
 		redirectRequest(response, link);
@@ -116,11 +149,22 @@ public class MainServlet extends AbstractServlet {
 			Map args = getRequestArgs(request, us);
 			log.info(LogBuilder.createSystemMessage().
 					addParameter("GET arguments", getRequestArgsAsString(us, args)).toString());
-			newLink = handler.handleGet(us, link, args);
+			long handleStartTime = System.nanoTime();
+			try {
+				newLink = handler.handleGet(us, link, args);
+			} finally {
+				recordTime(HANDLE_GET_METRIC, handler, handleStartTime);
+			}
 		}
 
 		if (newLink.equals(link)) { // no redirect necessary
-			WebPart result = handler.makeWebPart(us);
+			long makeStartTime = System.nanoTime();
+			WebPart result;
+			try {
+				result = handler.makeWebPart(us);
+			} finally {
+				recordTime(MAKE_WEB_PART_METRIC, handler, makeStartTime);
+			}
 			us.addProcessingTime(System.currentTimeMillis() - startTime);
 			configureResponse(us, response, result);
 			us.clearSavedArgs(); // saved args go from post to next get
@@ -133,7 +177,15 @@ public class MainServlet extends AbstractServlet {
 	}
 
 	/**
-	 *
+	 * @methodtype command
+	 */
+	protected void recordTime(String metric, WebPartHandler handler, long startNanoTime) {
+		String handlerName = WebPartHandlerManager.getInstance().getNameOf(handler);
+		MetricsRegistry.getInstance().recordTime(metric, handlerName, startNanoTime);
+	}
+
+	/**
+	 * Returns the arguments of the request, or null if it is a multipart request exceeding the upload limit.
 	 */
 	protected Map getRequestArgs(HttpServletRequest request, UserSession us) throws IOException, ServletException {
 		String contentType = request.getContentType();
@@ -146,14 +198,19 @@ public class MainServlet extends AbstractServlet {
 
 	/**
 	 * Searches for files in the request and puts them in the resulting map with the key "fileName". When a file is
-	 * found, you can access its path by searching for elements with the key "fileName".
+	 * found, you can access its path by searching for elements with the key "fileName", and the Image by the key
+	 * Photo.UPLOADED_IMAGE. Requests larger than the upload limit are rejected before the file is read, if they
+	 * declare their length, and otherwise as soon as the limit is exceeded; then the user is told that the upload
+	 * failed and null is returned.
 	 */
 	protected Map getMultiPartRequestArgs(HttpServletRequest request, UserSession us) throws IOException,
 			ServletException {
-		Map<String, String> result = new HashMap<String, String>();
+		Map<String, Object> result = new HashMap<String, Object>();
 		result.putAll(request.getParameterMap());
 		try {
 			ServletFileUpload upload = new ServletFileUpload();
+			upload.setFileSizeMax(maxUploadSize);
+			upload.setSizeMax((long) maxUploadSize + MAX_FORM_FIELDS_SIZE);
 			FileItemIterator iterator = upload.getItemIterator(request);
 
 			while (iterator.hasNext()) {
@@ -162,9 +219,9 @@ public class MainServlet extends AbstractServlet {
 
 				if (!fileItemStream.isFormField()) {
 					InputStream inputStream = fileItemStream.openStream();
-					Image image = getImage(inputStream);
-					User user = (User) us.getClient();
-					user.setUploadedImage(image);
+					// the length of the file part is not known, the request's length includes all other parts
+					Image image = getImage(inputStream, -1);
+					result.put(Photo.UPLOADED_IMAGE, image);
 					result.put("fileName", filename);
 					log.config(LogBuilder.createSystemMessage().addParameter("Uploaded image", filename).toString());
 				} else {
@@ -178,6 +235,11 @@ public class MainServlet extends AbstractServlet {
 				}
 			}
 		} catch (Exception ex) {
+			if (isSizeLimitExceeded(ex)) {
+				log.warning(LogBuilder.createSystemMessage().addException("Upload exceeds size limit", ex).toString());
+				us.setMessage(us.getClient().getLanguageConfiguration().getPhotoUploadFailed());
+				return null;
+			}
 			throw new ServletException(ex);
 		}
 
@@ -185,22 +247,47 @@ public class MainServlet extends AbstractServlet {
 	}
 
 	/**
-	 * Create an Image object from the Input stream.
+	 * Returns true if the exception, or one of its causes, reports that the request or the file exceeds its limit.
+	 * While a part is read, such exceptions are wrapped in an IOException.
+	 *
+	 * @methodtype boolean-query
+	 */
+	protected static boolean isSizeLimitExceeded(Throwable ex) {
+		for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+			if (cause instanceof FileUploadBase.SizeLimitExceededException ||
+					cause instanceof FileUploadBase.FileSizeLimitExceededException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Create an Image object from the Input stream. The data is read into one array of the expected size, if known,
+	 * and otherwise in pooled buffers that are copied once into an array of the actual size, which is handed to the
+	 * Image without copying it again.
 	 */
-	private Image getImage(InputStream input) throws IOException {
+	private Image getImage(InputStream input, int expectedSize) throws IOException {
 		Image image;
 		try {
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			byte[] buffer = new byte[1024 * 1024];
-			int bytesRead = input.read(buffer);
-			while (bytesRead != -1) {
-				outputStream.write(buffer, 0, bytesRead);
-				bytesRead = input.read(buffer);
-			}
-			image = ImagesServiceFactory.makeImage(outputStream.toByteArray());
+			image = ImagesServiceFactory.makeImage(StreamUtil.readFully(input, expectedSize));
 		} finally {
 			input.close();
 		}
 		return image;
 	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getMaxUploadSize() {
+		return maxUploadSize;
+	}
+
+	/**
+	 * @methodtype set
+	 */
+	public void setMaxUploadSize(int newMaxUploadSize) {
+		maxUploadSize = newMaxUploadSize;
+	}
 }
@@ -2,16 +2,28 @@ package org.wahlzeit.servlets;
 
 import com.google.appengine.api.images.Image;
 import org.apache.http.HttpStatus;
+import org.wahlzeit.model.ImageCache;
+import org.wahlzeit.model.ImageETagCache;
 import org.wahlzeit.model.Photo;
 import org.wahlzeit.model.PhotoManager;
 import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.model.PhotoUtil;
 import org.wahlzeit.model.persistence.ImageStorage;
+import org.wahlzeit.services.ByteBufferPool;
 import org.wahlzeit.services.LogBuilder;
+import org.wahlzeit.utils.ByteRange;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 /**
@@ -24,8 +36,23 @@ import java.util.logging.Logger;
  */
 public class StaticDataServlet extends AbstractServlet {
 
+	/**
+	 * Scaled images of a photo never change, so they may be cached for a year, the maximum allowed by HTTP/1.1
+	 */
+	public static final String IMAGE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+	/**
+	 * Images of this size and larger are streamed, unless they are in memory already
+	 */
+	public static final PhotoSize DEFAULT_MIN_STREAMED_SIZE = PhotoSize.LARGE;
+
 	Logger log = Logger.getLogger(StaticDataServlet.class.getName());
 
+	/**
+	 *
+	 */
+	protected PhotoSize minStreamedSize = DEFAULT_MIN_STREAMED_SIZE;
+
 	@Override
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
 		try {
@@ -40,15 +67,7 @@ public class StaticDataServlet extends AbstractServlet {
 					addParameter("size", size).toString());
 
 			if ("image".equals(type)) {
-				Image image = getImage(photoId, size);
-				if (image != null) {
-					response.getOutputStream().write(image.getImageData());
-					response.getOutputStream().flush();
-					response.setStatus(HttpStatus.SC_OK);
-				} else {
-					log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
-					response.setStatus(HttpStatus.SC_NOT_FOUND);
-				}
+				doGetImage(request, response, photoId, PhotoSize.getFromInt(size));
 			} else {
 				log.warning(LogBuilder.createSystemMessage().
 						addMessage("unimplemented static resource type has been requested").toString());
@@ -63,29 +82,327 @@ public class StaticDataServlet extends AbstractServlet {
 	/**
 	 * @methodtype command
 	 *
-	 * Loads image either from the <@link>PhotoManager</@link> or from the <@link>ImageStorage</@link>. If image does
-	 * not exist, null is returned.
+	 * Sends the image with headers for HTTP caching. Conditional requests are answered with 304 Not Modified; if the
+	 * entity tag of the image is known already, without loading the image. Images in the off-heap tier of the
+	 * ImageCache are streamed from there, and large images that are not in memory are streamed from the ImageStorage
+	 * instead of being loaded and cached. Sizes that were not scaled on upload are
+	 * created by the PhotoManager on first request.
 	 */
-	private Image getImage(String photoId, int size) {
-		Image image = null;
-		Photo photo = PhotoManager.getInstance().getPhoto(photoId);
-		if (photo != null) {
-			PhotoSize photoSize = PhotoSize.getFromInt(size);
-			image = photo.getImage(photoSize);
-		}
-		// if not in cache load from Google Cloud Storage
+	protected void doGetImage(HttpServletRequest request, HttpServletResponse response, String photoId,
+			PhotoSize photoSize) throws IOException {
+		PhotoManager photoManager = PhotoManager.getInstance();
+		Photo photo = photoManager.getPhoto(photoId);
+		long lastModified = photo != null ? photo.getCreationTime() : -1;
+		String ending = photo != null ? photo.getEnding() : null;
+
+		String eTag = photoManager.getImageETags().get(photoId, photoSize);
+		if (isNotModified(request, eTag, lastModified)) {
+			sendNotModified(response, eTag, lastModified);
+			return;
+		}
+
+		Image image = photoManager.getImageFromHeap(photoId, photoSize);
+		boolean isOffHeap = image == null && photoManager.getImageCache().getOffHeapLength(photoId, photoSize) >= 0;
+		if (image == null && (isOffHeap || photoSize.asInt() >= minStreamedSize.asInt())) {
+			if (streamImage(request, response, photoId, photoSize, eTag, lastModified, ending)) {
+				return;
+			}
+		}
+
 		if (image == null) {
-			Serializable rawImage = null;
+			// creates the image if its size was deferred on upload
+			image = getImage(photoId, photoSize);
+		}
+		if (image == null) {
+			log.warning(LogBuilder.createSystemMessage().addMessage("image not found").toString());
+			response.setStatus(HttpStatus.SC_NOT_FOUND);
+			return;
+		}
+
+		byte[] imageData = image.getImageData();
+		eTag = photoManager.getImageETags().get(photoId, photoSize, imageData);
+		if (isNotModified(request, eTag, lastModified)) {
+			sendNotModified(response, eTag, lastModified);
+			return;
+		}
+
+		ByteRange range = getRange(request, imageData.length, eTag, lastModified);
+		if (range != null && !range.isSatisfiable()) {
+			sendRangeNotSatisfiable(response, range);
+			return;
+		}
+
+		int offset = range != null ? (int) range.getFirst() : 0;
+		int length = range != null ? (int) range.getLength() : imageData.length;
+		sendHeaders(response, range, eTag, lastModified, PhotoUtil.getContentType(imageData, ending), length);
+		response.getOutputStream().write(imageData, offset, length);
+		response.getOutputStream().flush();
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Copies the image, or the requested range of it, from the off-heap tier of the ImageCache or else from the
+	 * ImageStorage to the response in pooled buffers. If the
+	 * whole image is sent, its entity tag is computed on the way, so that later requests can be answered with 304.
+	 * Returns false if the image does not exist.
+	 */
+	protected boolean streamImage(HttpServletRequest request, HttpServletResponse response, String photoId,
+			PhotoSize photoSize, String eTag, long lastModified, String ending) throws IOException {
+		ImageCache imageCache = PhotoManager.getInstance().getImageCache();
+		ImageStorage imageStorage = ImageStorage.getInstance();
+		long totalLength = imageCache.getOffHeapLength(photoId, photoSize);
+		if (totalLength < 0) {
+			totalLength = imageStorage.getImageLength(photoId, photoSize.asInt());
+		}
+		if (totalLength < 0) {
+			return false;
+		}
+
+		ByteRange range = getRange(request, totalLength, eTag, lastModified);
+		if (range != null && !range.isSatisfiable()) {
+			sendRangeNotSatisfiable(response, range);
+			return true;
+		}
+
+		long position = range != null ? range.getFirst() : 0;
+		long remaining = range != null ? range.getLength() : totalLength;
+		ReadableByteChannel channel = imageCache.openOffHeapChannel(photoId, photoSize, position);
+		if (channel == null) {
+			channel = imageStorage.openImageChannel(photoId, photoSize.asInt(), position);
+		}
+		if (channel == null) {
+			return false;
+		}
+
+		ByteBufferPool bufferPool = ByteBufferPool.getInstance();
+		ByteBuffer buffer = bufferPool.acquire();
+		MessageDigest digest = range == null && eTag == null ? ImageETagCache.createDigest() : null;
+		try {
+			// the first chunk is read before the headers are sent, to detect the content type and missing images
+			long contentLength = remaining;
 			try {
-				rawImage = ImageStorage.getInstance().readImage(photoId, size);
-			} catch (IOException e) {
-				log.warning(LogBuilder.createSystemMessage().addException("Problem when reading image.", e).toString());
+				remaining -= fill(channel, buffer, remaining);
+			} catch (IOException ex) {
+				return false;
+			}
+			byte[] head = position == 0 ? Arrays.copyOf(buffer.array(), buffer.position()) : null;
+			sendHeaders(response, range, eTag, lastModified, PhotoUtil.getContentType(head, ending), contentLength);
+
+			OutputStream out = response.getOutputStream();
+			out.write(buffer.array(), 0, buffer.position());
+			if (digest != null) {
+				digest.update(buffer.array(), 0, buffer.position());
 			}
-			if (rawImage != null && rawImage instanceof Image) {
-				image = (Image) rawImage;
+			remaining -= copy(channel, remaining, createTarget(out, digest), buffer);
+			out.flush();
+
+			if (digest != null && remaining == 0) {
+				String newETag = ImageETagCache.asETag(digest.digest());
+				PhotoManager.getInstance().getImageETags().put(photoId, photoSize, newETag);
 			}
+		} finally {
+			bufferPool.release(buffer);
+			channel.close();
 		}
-		return image;
+		return true;
 	}
-}
 
+	/**
+	 * @methodtype command
+	 *
+	 * Reads from the channel until the buffer is full, at most maxLength bytes are read, or the end of the channel is
+	 * reached. Returns the number of bytes read.
+	 */
+	protected int fill(ReadableByteChannel channel, ByteBuffer buffer, long maxLength) throws IOException {
+		if (maxLength < buffer.remaining()) {
+			buffer.limit(buffer.position() + (int) maxLength);
+		}
+
+		int result = 0;
+		while (buffer.hasRemaining()) {
+			int noBytes = channel.read(buffer);
+			if (noBytes < 0) {
+				break;
+			}
+			result += noBytes;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Copies at most maxLength bytes from the channel to the target and returns their number. File channels transfer
+	 * the data themselves, without a copy on the heap; other channels are copied through the buffer.
+	 */
+	protected long copy(ReadableByteChannel channel, long maxLength, WritableByteChannel target, ByteBuffer buffer)
+			throws IOException {
+		long result = 0;
+		if (channel instanceof FileChannel) {
+			FileChannel fileChannel = (FileChannel) channel;
+			while (result < maxLength) {
+				long noBytes = fileChannel.transferTo(fileChannel.position(), maxLength - result, target);
+				if (noBytes <= 0) {
+					break;
+				}
+				fileChannel.position(fileChannel.position() + noBytes);
+				result += noBytes;
+			}
+			return result;
+		}
+
+		while (result < maxLength) {
+			buffer.clear();
+			int noBytes = fill(channel, buffer, maxLength - result);
+			if (noBytes == 0) {
+				break;
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				target.write(buffer);
+			}
+			result += noBytes;
+		}
+		return result;
+	}
+
+	/**
+	 * @methodtype factory
+	 *
+	 * Returns a channel that writes to the stream and, if a digest is given, updates it with everything written.
+	 */
+	protected WritableByteChannel createTarget(OutputStream out, final MessageDigest digest) {
+		final WritableByteChannel channel = Channels.newChannel(out);
+		if (digest == null) {
+			return channel;
+		}
+
+		return new WritableByteChannel() {
+			@Override
+			public int write(ByteBuffer source) throws IOException {
+				digest.update(source.duplicate());
+				return channel.write(source);
+			}
+
+			@Override
+			public boolean isOpen() {
+				return channel.isOpen();
+			}
+
+			@Override
+			public void close() throws IOException {
+				channel.close();
+			}
+		};
+	}
+
+	/**
+	 * @methodtype get
+	 *
+	 * Returns the requested range, or null if the whole image is to be sent. A range is ignored if an If-Range header
+	 * does not match the current image, see RFC 7233.
+	 */
+	protected ByteRange getRange(HttpServletRequest request, long totalLength, String eTag, long lastModified) {
+		ByteRange result = ByteRange.parse(request.getHeader("Range"), totalLength);
+		if (result == null) {
+			return null;
+		}
+
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange == null) {
+			return result;
+		} else if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			// If-Range requires the strong comparison
+			return ifRange.equals(eTag) ? result : null;
+		}
+
+		try {
+			long date = request.getDateHeader("If-Range");
+			return lastModified >= 0 && lastModified / 1000 == date / 1000 ? result : null;
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void sendHeaders(HttpServletResponse response, ByteRange range, String eTag, long lastModified,
+			String contentType, long contentLength) {
+		if (range != null) {
+			response.setStatus(HttpStatus.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", range.asContentRange());
+		} else {
+			response.setStatus(HttpStatus.SC_OK);
+		}
+		setCacheHeaders(response, eTag, lastModified);
+		response.setHeader("Accept-Ranges", ByteRange.BYTES_UNIT);
+		response.setContentType(contentType);
+		response.setHeader("Content-Length", String.valueOf(contentLength));
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void sendRangeNotSatisfiable(HttpServletResponse response, ByteRange range) {
+		response.setStatus(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+		response.setHeader("Content-Range", range.asContentRange());
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 *
+	 * If-None-Match takes precedence over If-Modified-Since, see RFC 7232. The entity tag and the modification time
+	 * may be unknown, i.e. null and -1, respectively.
+	 */
+	protected boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return eTag != null && ImageETagCache.matches(ifNoneMatch, eTag);
+		}
+
+		if (lastModified < 0) {
+			return false;
+		}
+
+		try {
+			long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			// HTTP dates have a resolution of seconds
+			return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+		} catch (IllegalArgumentException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void sendNotModified(HttpServletResponse response, String eTag, long lastModified) {
+		response.setStatus(HttpStatus.SC_NOT_MODIFIED);
+		setCacheHeaders(response, eTag, lastModified);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void setCacheHeaders(HttpServletResponse response, String eTag, long lastModified) {
+		response.setHeader("Cache-Control", IMAGE_CACHE_CONTROL);
+		if (eTag != null) {
+			response.setHeader("ETag", eTag);
+		}
+		if (lastModified >= 0) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+	}
+
+	/**
+	 * @methodtype command
+	 *
+	 * Loads image via the <@link>PhotoManager</@link>, which loads it from the <@link>ImageStorage</@link> on first
+	 * request. If image does not exist, null is returned.
+	 */
+	private Image getImage(String photoId, PhotoSize photoSize) {
+		return PhotoManager.getInstance().getImage(photoId, photoSize);
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+/**
+ * A ByteRange is the single byte range of an HTTP Range header, resolved against the length of the representation,
+ * see RFC 7233. Requests for several ranges are not supported; like invalid headers, they are answered with the full
+ * representation.
+ */
+public class ByteRange {
+
+	/**
+	 *
+	 */
+	public static final String BYTES_UNIT = "bytes";
+
+	/**
+	 * Positions of the first and the last byte, both inclusive
+	 */
+	protected final long first;
+	protected final long last;
+	protected final long totalLength;
+
+	/**
+	 * @methodtype constructor
+	 */
+	protected ByteRange(long myFirst, long myLast, long myTotalLength) {
+		first = myFirst;
+		last = myLast;
+		totalLength = myTotalLength;
+	}
+
+	/**
+	 * Returns the range requested by the header for a representation of the given length. Returns null if the header
+	 * is missing, invalid, or asks for several ranges.
+	 *
+	 * @methodtype conversion
+	 */
+	public static ByteRange parse(String rangeHeader, long totalLength) {
+		if (rangeHeader == null || !rangeHeader.startsWith(BYTES_UNIT + "=")) {
+			return null;
+		}
+
+		String spec = rangeHeader.substring(BYTES_UNIT.length() + 1).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0 || spec.indexOf(',') >= 0) {
+			return null;
+		}
+
+		String firstString = spec.substring(0, dash).trim();
+		String lastString = spec.substring(dash + 1).trim();
+		try {
+			if (firstString.isEmpty()) {
+				// suffix range, i.e. the last n bytes
+				long suffixLength = Long.parseLong(lastString);
+				if (suffixLength < 0) {
+					return null;
+				}
+				return new ByteRange(Math.max(0, totalLength - suffixLength), totalLength - 1, totalLength);
+			}
+
+			long myFirst = Long.parseLong(firstString);
+			long myLast = lastString.isEmpty() ? Long.MAX_VALUE : Long.parseLong(lastString);
+			if (myFirst < 0 || myLast < myFirst) {
+				return null;
+			}
+			return new ByteRange(myFirst, Math.min(myLast, totalLength - 1), totalLength);
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getFirst() {
+		return first;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLast() {
+		return last;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getLength() {
+		return last - first + 1;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public long getTotalLength() {
+		return totalLength;
+	}
+
+	/**
+	 * A range is not satisfiable if it starts behind the end of the representation.
+	 *
+	 * @methodtype boolean-query
+	 */
+	public boolean isSatisfiable() {
+		return first < totalLength;
+	}
+
+	/**
+	 * Returns the value of the Content-Range header for this range.
+	 *
+	 * @methodtype conversion
+	 */
+	public String asContentRange() {
+		if (!isSatisfiable()) {
+			return BYTES_UNIT + " */" + totalLength;
+		}
+		return BYTES_UNIT + " " + first + "-" + last + "/" + totalLength;
+	}
+
+}
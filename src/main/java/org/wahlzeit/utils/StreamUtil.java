@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import org.wahlzeit.services.ByteBufferPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of utility functions for reading streams into byte arrays of their exact length, e.g. for creating Images.
+ */
+public class StreamUtil {
+
+	/**
+	 * Reads the stream to its end. If the expected length is right, the data is read directly into the result;
+	 * otherwise, or if it is unknown (< 0), the data is read in pooled buffers and copied once into the result. The
+	 * stream is not closed.
+	 *
+	 * @methodtype conversion
+	 */
+	public static byte[] readFully(InputStream in, int expectedLength) throws IOException {
+		byte[] head = new byte[Math.max(expectedLength, 0)];
+		int headLength = read(in, head);
+		if (headLength < head.length) {
+			return copyOf(head, headLength, null, 0);
+		}
+
+		ByteBufferPool bufferPool = ByteBufferPool.getInstance();
+		List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+		try {
+			int tailLength = 0;
+			while (true) {
+				ByteBuffer chunk = bufferPool.acquire();
+				chunks.add(chunk);
+				int chunkLength = read(in, chunk.array());
+				chunk.position(chunkLength);
+				tailLength += chunkLength;
+				if (chunkLength < chunk.capacity()) {
+					break;
+				}
+			}
+			return tailLength == 0 ? head : copyOf(head, headLength, chunks, tailLength);
+		} finally {
+			for (ByteBuffer chunk : chunks) {
+				bufferPool.release(chunk);
+			}
+		}
+	}
+
+	/**
+	 * Reads into the array until it is full or the end of the stream is reached; returns the number of bytes read.
+	 *
+	 * @methodtype command
+	 */
+	protected static int read(InputStream in, byte[] target) throws IOException {
+		int offset = 0;
+		while (offset < target.length) {
+			int bytesRead = in.read(target, offset, target.length - offset);
+			if (bytesRead < 0) {
+				break;
+			}
+			offset += bytesRead;
+		}
+		return offset;
+	}
+
+	/**
+	 * @methodtype helper
+	 */
+	protected static byte[] copyOf(byte[] head, int headLength, List<ByteBuffer> chunks, int tailLength) {
+		byte[] result = new byte[headLength + tailLength];
+		System.arraycopy(head, 0, result, 0, headLength);
+		if (chunks != null) {
+			int offset = headLength;
+			for (ByteBuffer chunk : chunks) {
+				System.arraycopy(chunk.array(), 0, result, offset, chunk.position());
+				offset += chunk.position();
+			}
+		}
+		return result;
+	}
+
+}
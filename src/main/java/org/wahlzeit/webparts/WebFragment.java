@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * A WebFragment is pre-rendered output, e.g. of a WebPart that is the same for many requests. It is encoded as UTF-8
+ * once, so writing it to an OutputStream copies the bytes only.
+ */
+public class WebFragment implements Writable {
+
+	/**
+	 *
+	 */
+	protected final String text;
+	protected final byte[] bytes;
+
+	/**
+	 * @methodtype constructor
+	 */
+	public WebFragment(String myText) {
+		text = myText;
+		bytes = myText.getBytes(Charsets.UTF_8);
+	}
+
+	/**
+	 * @methodtype factory
+	 */
+	public static WebFragment render(Writable writable) throws IOException {
+		StringWriter out = new StringWriter();
+		writable.writeOn(out);
+		return new WebFragment(out.toString());
+	}
+
+	/**
+	 *
+	 */
+	public void writeOn(Writer out) throws IOException {
+		out.write(text);
+	}
+
+	/**
+	 *
+	 */
+	public void writeOn(OutputStream out) throws IOException {
+		out.write(bytes);
+	}
+
+	/**
+	 * @methodtype conversion
+	 */
+	public String asString() {
+		return text;
+	}
+
+}
@@ -23,7 +23,10 @@ package org.wahlzeit.webparts;
 import org.wahlzeit.utils.EnumValue;
 import org.wahlzeit.utils.HtmlUtil;
 
+import com.google.common.base.Charsets;
+
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
@@ -41,19 +44,29 @@ public class WebPart implements Writable {
 	protected WebPartTemplate template = null;
 
 	/**
-	 *
+	 * Values of the keys of the template, by the index of the key in the template
+	 */
+	protected Object[] values;
+
+	/**
+	 * Values of keys the template has no slot for; created on demand
 	 */
-	protected Map<String, Object> parts = new HashMap<String, Object>();
+	protected Map<String, Object> otherValues = null;
 
 	/**
 	 *
 	 */
 	public WebPart(WebPartTemplate myTemplate) {
 		template = myTemplate;
+		values = new Object[template.getNoPartKeys()];
 	}
 
 	public Object getValue(String key) {
-		return parts.get(key);
+		int index = template.getKeyIndex(key);
+		if (index >= 0) {
+			return values[index];
+		}
+		return otherValues != null ? otherValues.get(key) : null;
 	}
 
 	/**
@@ -169,8 +182,18 @@ public class WebPart implements Writable {
 	 *
 	 */
 	protected void putValue(String key, Object value) {
-		if (value != null) {
-			parts.put(key, value);
+		if (value == null) {
+			return;
+		}
+
+		int index = template.getKeyIndex(key);
+		if (index >= 0) {
+			values[index] = value;
+		} else {
+			if (otherValues == null) {
+				otherValues = new HashMap<String, Object>();
+			}
+			otherValues.put(key, value);
 		}
 	}
 
@@ -189,7 +212,7 @@ public class WebPart implements Writable {
 
 			String key = keys[i];
 			if (key != null) {
-				Object object = parts.get(key);
+				Object object = getValue(key);
 				if (object != null) {
 					if (object instanceof Writable) {
 						Writable part = (Writable) object;
@@ -207,4 +230,28 @@ public class WebPart implements Writable {
 		out.write(tmpl, start, tmpl.length() - start);
 	}
 
+	/**
+	 * Writes the precompiled static text of the template as is and encodes only the values.
+	 */
+	public void writeOn(OutputStream out) throws IOException {
+		byte[][] segments = template.getSegments();
+		int[] slotKeyIndices = template.getSlotKeyIndices();
+
+		for (int i = 0; i < slotKeyIndices.length; i++) {
+			out.write(segments[i]);
+
+			Object object = values[slotKeyIndices[i]];
+			if (object != null) {
+				if (object instanceof Writable) {
+					Writable part = (Writable) object;
+					part.writeOn(out);
+				} else {
+					out.write(object.toString().getBytes(Charsets.UTF_8));
+				}
+			}
+		}
+
+		out.write(segments[slotKeyIndices.length]);
+	}
+
 }
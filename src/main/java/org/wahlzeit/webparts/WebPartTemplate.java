@@ -20,12 +20,19 @@
 
 package org.wahlzeit.webparts;
 
+import com.google.common.base.Charsets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A WebPartTmpl is a template for a WebPart.
  * It gets initialized once and is read-only after that.
+ * On initialization, it is compiled into the static text between the slots, encoded as UTF-8 once, and the index
+ * of the key of each slot, so that WebParts can hold their values in an array and write them as bytes.
  */
 public class WebPartTemplate {
 
@@ -45,6 +52,18 @@ public class WebPartTemplate {
 	protected String[] keys = null;
 	protected int[] slots = null;
 
+	/**
+	 * Compiled template: segments has one element more than slots; the value of slot i is written after segment i
+	 */
+	protected byte[][] segments = null;
+	protected int[] slotKeyIndices = null;
+
+	/**
+	 * Distinct keys of the template and their indices
+	 */
+	protected String[] partKeys = new String[0];
+	protected Map<String, Integer> keyIndices = new HashMap<String, Integer>();
+
 	/**
 	 *
 	 */
@@ -72,9 +91,8 @@ public class WebPartTemplate {
 					slotList.add(nextSlot);
 
 					buffer.replace(nextSlot, endSlot + 1, "");
-					index = nextSlot;
 				}
-				index = endSlot;
+				index = endSlot != -1 ? nextSlot : -1;
 			} else {
 				index = -1;
 			}
@@ -89,6 +107,34 @@ public class WebPartTemplate {
 		}
 
 		template = buffer.toString();
+		compile();
+	}
+
+	/**
+	 * @methodtype initialization
+	 */
+	protected void compile() {
+		List<String> partKeyList = new ArrayList<String>();
+		keyIndices = new HashMap<String, Integer>();
+		slotKeyIndices = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			Integer keyIndex = keyIndices.get(keys[i]);
+			if (keyIndex == null) {
+				keyIndex = partKeyList.size();
+				keyIndices.put(keys[i], keyIndex);
+				partKeyList.add(keys[i]);
+			}
+			slotKeyIndices[i] = keyIndex;
+		}
+		partKeys = partKeyList.toArray(new String[partKeyList.size()]);
+
+		segments = new byte[keys.length + 1][];
+		int start = 0;
+		for (int i = 0; i < keys.length; i++) {
+			segments[i] = template.substring(start, slots[i]).getBytes(Charsets.UTF_8);
+			start = slots[i];
+		}
+		segments[keys.length] = template.substring(start).getBytes(Charsets.UTF_8);
 	}
 
 	/**
@@ -119,4 +165,35 @@ public class WebPartTemplate {
 		return slots; // @FIXME needs cloning?
 	}
 
+	/**
+	 * @methodtype get
+	 */
+	public byte[][] getSegments() {
+		return segments;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int[] getSlotKeyIndices() {
+		return slotKeyIndices;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoPartKeys() {
+		return partKeys.length;
+	}
+
+	/**
+	 * Returns the index of the key in the values of a WebPart, or -1 if the template has no slot for it.
+	 *
+	 * @methodtype get
+	 */
+	public int getKeyIndex(String key) {
+		Integer result = keyIndices.get(key);
+		return result != null ? result : -1;
+	}
+
 }
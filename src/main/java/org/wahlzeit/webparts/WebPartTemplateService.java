@@ -20,37 +20,72 @@
 
 package org.wahlzeit.webparts;
 
+import com.google.appengine.api.ThreadManager;
+import com.google.apphosting.api.ApiProxy;
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 import org.wahlzeit.services.ConfigDir;
+import org.wahlzeit.services.Language;
 import org.wahlzeit.services.LogBuilder;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 
 /**
  * The WebPartTemplateService creates WebPartTemplates upon request by reading them from disk.
  * It requires configuration with a template directory and uses the following naming convention: tmplDir/language/part-type/part-name.html
+ * All templates can be preloaded in parallel on startup. The templates are held in an immutable snapshot that is
+ * replaced as a whole, so readers need no locking. In reload mode, changed template files are detected and all
+ * templates are reloaded.
  */
 public class WebPartTemplateService {
 
+	/**
+	 *
+	 */
+	public static final String TEMPLATE_FILE_ENDING = ".html";
+	public static final int DEFAULT_NO_LOADER_THREADS = 4;
+	public static final long DEFAULT_RELOAD_CHECK_INTERVAL = 2000; // in ms
+
 	/**
 	 *
 	 */
 	protected static final WebPartTemplateService instance = new WebPartTemplateService();
 	private static final Logger log = Logger.getLogger(WebPartTemplateService.class.getName());
 	/**
-	 *
+	 * Immutable snapshot of all loaded templates
 	 */
-	protected Map<String, WebPartTemplate> templates = new HashMap<String, WebPartTemplate>();
+	protected volatile Map<String, WebPartTemplate> templates = Collections.emptyMap();
 	/**
 	 *
 	 */
 	protected ConfigDir templatesDir = null;
 
+	/**
+	 *
+	 */
+	protected int noLoaderThreads = DEFAULT_NO_LOADER_THREADS;
+
+	/**
+	 * Modification times of the template files, if changes are to be detected; otherwise null
+	 */
+	protected volatile Map<String, Long> fileModificationTimes = null;
+	protected long reloadCheckInterval = DEFAULT_RELOAD_CHECK_INTERVAL;
+	protected long lastReloadCheckTime = 0;
+
 	/**
 	 *
 	 */
@@ -69,13 +104,17 @@ public class WebPartTemplateService {
 	 *
 	 */
 	public WebPartTemplate getTemplate(String lang, String name) {
+		if (fileModificationTimes != null) {
+			reloadTemplatesIfChanged();
+		}
+
 		String shortName = lang + File.separator + name;
 		WebPartTemplate result = templates.get(shortName);
 
 		if (result == null) {
 			try {
-				loadTemplate(shortName);
-				result = templates.get(shortName);
+				result = loadTemplate(shortName);
+				addTemplate(shortName, result);
 			} catch (IOException ioex) {
 				log.warning(LogBuilder.createSystemMessage().
 						addParameter("template name", shortName).
@@ -87,30 +126,228 @@ public class WebPartTemplateService {
 	}
 
 	/**
+	 * Loads all templates of all languages that have a directory in the templates directory, in parallel, and
+	 * replaces the current templates by them.
 	 *
+	 * @methodtype command
 	 */
-	protected void loadTemplate(String shortName) throws IOException {
-		WebPartTemplate template = new WebPartTemplate(shortName);
-		String fileName = getTemplatesDir().getAbsoluteConfigFileName(shortName + ".html");
+	public void preloadTemplates() {
+		long startTime = System.currentTimeMillis();
+		Map<String, File> templateFiles = findTemplateFiles();
+		Map<String, WebPartTemplate> newTemplates = loadTemplates(templateFiles.keySet());
+		replaceTemplates(newTemplates);
+
 		log.config(LogBuilder.createSystemMessage().
-				addAction("open html template file").
-				addParameter("file name", fileName).toString());
-		File file = new File(fileName);
+				addAction("preload templates").
+				addParameter("number of templates", newTemplates.size()).
+				addParameter("time in ms", System.currentTimeMillis() - startTime).toString());
+	}
+
+	/**
+	 * Switches the reload mode on: from now on, getTemplate() checks at most once per interval whether template files
+	 * were added, changed, or removed, and then reloads all templates. Files are compared by their modification
+	 * time, so no background thread is needed.
+	 *
+	 * @methodtype command
+	 */
+	public void startReloading(long checkInterval) {
+		reloadCheckInterval = checkInterval;
+		lastReloadCheckTime = System.currentTimeMillis();
+		fileModificationTimes = getFileModificationTimes(findTemplateFiles());
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	public void stopReloading() {
+		fileModificationTimes = null;
+	}
+
+	/**
+	 * @methodtype boolean-query
+	 */
+	public boolean isReloading() {
+		return fileModificationTimes != null;
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected void reloadTemplatesIfChanged() {
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			if (now - lastReloadCheckTime < reloadCheckInterval || fileModificationTimes == null) {
+				return;
+			}
+			lastReloadCheckTime = now;
+
+			Map<String, Long> newModificationTimes = getFileModificationTimes(findTemplateFiles());
+			if (!newModificationTimes.equals(fileModificationTimes)) {
+				log.config(LogBuilder.createSystemMessage().addAction("reload changed templates").toString());
+				preloadTemplates();
+				fileModificationTimes = newModificationTimes;
+			}
+		}
+	}
+
+	/**
+	 * Returns the files of all templates by their short names, i.e. language/part-type/part-name, see getTemplate().
+	 *
+	 * @methodtype get
+	 */
+	protected Map<String, File> findTemplateFiles() {
+		Map<String, File> result = new HashMap<String, File>();
+		if (templatesDir == null) {
+			return result;
+		}
+
+		for (Language language : Language.values()) {
+			String lang = language.asIsoCode();
+			TreeSet<String> names = new TreeSet<String>();
+			String[] dirNames = {ConfigDir.DEFAULT_DIR_NAME, ConfigDir.CUSTOM_DIR_NAME};
+			for (String dirName : dirNames) {
+				File languageDir = new File(templatesDir.asString() + File.separator + dirName + File.separator + lang);
+				findTemplateNames(languageDir, "", names);
+			}
+			for (String name : names) {
+				String shortName = lang + File.separator + name;
+				result.put(shortName, getTemplateFile(shortName));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the names of all templates in the directory and its subdirectories, relative to the language directory.
+	 *
+	 * @methodtype command
+	 */
+	protected void findTemplateNames(File dir, String prefix, Collection<String> names) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			String fileName = file.getName();
+			if (file.isDirectory()) {
+				findTemplateNames(file, prefix + fileName + "/", names);
+			} else if (fileName.endsWith(TEMPLATE_FILE_ENDING)) {
+				names.add(prefix + fileName.substring(0, fileName.length() - TEMPLATE_FILE_ENDING.length()));
+			}
+		}
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected Map<String, Long> getFileModificationTimes(Map<String, File> templateFiles) {
+		Map<String, Long> result = new HashMap<String, Long>();
+		for (Map.Entry<String, File> entry : templateFiles.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().lastModified());
+		}
+		return result;
+	}
 
+	/**
+	 * Loads the templates in parallel; templates that cannot be loaded are left out.
+	 *
+	 * @methodtype command
+	 */
+	protected Map<String, WebPartTemplate> loadTemplates(Collection<String> shortNames) {
+		Map<String, WebPartTemplate> result = new HashMap<String, WebPartTemplate>();
+		if (shortNames.isEmpty()) {
+			return result;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(noLoaderThreads, getThreadFactory());
 		try {
-			String source = Files.toString(file, Charsets.UTF_8);
-			//String source = Resources.toString(Resources.getResource(fileName), Charsets.UTF_8);
+			Map<String, Future<WebPartTemplate>> futures = new LinkedHashMap<String, Future<WebPartTemplate>>();
+			for (final String shortName : shortNames) {
+				futures.put(shortName, executor.submit(new Callable<WebPartTemplate>() {
+					@Override
+					public WebPartTemplate call() throws IOException {
+						return loadTemplate(shortName);
+					}
+				}));
+			}
 
-			if (source != null) {
-				template.initialize(source);
-				log.config(LogBuilder.createSystemMessage().addAction("Initialize template").toString());
+			for (Map.Entry<String, Future<WebPartTemplate>> entry : futures.entrySet()) {
+				try {
+					result.put(entry.getKey(), entry.getValue().get());
+				} catch (ExecutionException ex) {
+					log.warning(LogBuilder.createSystemMessage().
+							addParameter("template name", entry.getKey()).
+							addException("Problem loading template", ex.getCause()).toString());
+				}
 			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+		return result;
+	}
 
-			templates.put(shortName, template);
-		} catch (IOException e) {
-			log.warning(LogBuilder.createSystemMessage().
-					addException("I/O Error while reading Template file", e).toString());
+	/**
+	 * Returns the factory for the loader threads; on App Engine, threads must be created by the ThreadManager.
+	 *
+	 * @methodtype factory
+	 */
+	protected ThreadFactory getThreadFactory() {
+		if (ApiProxy.getCurrentEnvironment() != null) {
+			return ThreadManager.currentRequestThreadFactory();
 		}
+		return Executors.defaultThreadFactory();
+	}
+
+	/**
+	 *
+	 */
+	protected WebPartTemplate loadTemplate(String shortName) throws IOException {
+		WebPartTemplate template = new WebPartTemplate(shortName);
+		File file = getTemplateFile(shortName);
+		log.config(LogBuilder.createSystemMessage().
+				addAction("open html template file").
+				addParameter("file name", file.getPath()).toString());
+
+		String source = Files.toString(file, Charsets.UTF_8);
+		template.initialize(source);
+		log.config(LogBuilder.createSystemMessage().addAction("Initialize template").toString());
+
+		return template;
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	protected File getTemplateFile(String shortName) {
+		return new File(getTemplatesDir().getAbsoluteConfigFileName(shortName + TEMPLATE_FILE_ENDING));
+	}
+
+	/**
+	 * Replaces the snapshot by a copy with the template added.
+	 *
+	 * @methodtype command
+	 */
+	protected synchronized void addTemplate(String shortName, WebPartTemplate template) {
+		Map<String, WebPartTemplate> newTemplates = new HashMap<String, WebPartTemplate>(templates);
+		newTemplates.put(shortName, template);
+		templates = Collections.unmodifiableMap(newTemplates);
+	}
+
+	/**
+	 * @methodtype command
+	 */
+	protected synchronized void replaceTemplates(Map<String, WebPartTemplate> newTemplates) {
+		templates = Collections.unmodifiableMap(new HashMap<String, WebPartTemplate>(newTemplates));
+	}
+
+	/**
+	 * @methodtype get
+	 */
+	public int getNoTemplates() {
+		return templates.size();
 	}
 
 	/**
@@ -21,6 +21,7 @@
 package org.wahlzeit.webparts;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -52,6 +53,16 @@ public class WritableList implements Writable {
 		}
 	}
 
+	/**
+	 *
+	 */
+	public void writeOn(OutputStream out) throws IOException {
+		for (Iterator<Writable> pi = writables.listIterator(); pi.hasNext(); ) {
+			Writable part = pi.next();
+			part.writeOn(out);
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.handlers;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wahlzeit.model.AccessRights;
+import org.wahlzeit.model.ModelConfig;
+import org.wahlzeit.model.PhotoSize;
+import org.wahlzeit.webparts.WebFragment;
+import org.wahlzeit.webparts.WebPartTemplate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test cases for the WebFragmentCache class.
+ */
+public class WebFragmentCacheTest {
+
+	private WebFragmentCache cache;
+	private ModelConfig config;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		cache = new WebFragmentCache();
+		config = createConfig("en");
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFragmentIsCachedPerKey() {
+		String key = WebFragmentCache.asKey("menu", config, AccessRights.USER, null);
+		assertNotEquals(key, WebFragmentCache.asKey("menu", config, AccessRights.GUEST, null));
+		assertNotEquals(key, WebFragmentCache.asKey("menu", createConfig("de"), AccessRights.USER, null));
+		assertNotEquals(key, WebFragmentCache.asKey("menu", config, AccessRights.USER, PhotoSize.MEDIUM));
+
+		WebFragment fragment = new WebFragment("<ul/>");
+		cache.put(key, config, null, fragment);
+		assertSame(fragment, cache.get(key, config, null));
+		assertEquals(1, cache.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testChangedConfigMakesFragmentStale() {
+		String key = WebFragmentCache.asKey("title", config, null, null);
+		cache.put(key, config, null, new WebFragment("Wahlzeit"));
+
+		assertNull(cache.get(key, createConfig("en"), null));
+		when(config.getVersion()).thenReturn(2L);
+		assertNull(cache.get(key, config, null));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReloadedTemplateMakesFragmentStale() {
+		WebPartTemplate template = new WebPartTemplate("infos/LinksInfo");
+		template.initialize("<p/>");
+		String key = WebFragmentCache.asKey("infos/LinksInfo", config, null, null);
+		WebFragment fragment = new WebFragment("<p/>");
+		cache.put(key, config, template, fragment);
+
+		assertSame(fragment, cache.get(key, config, template));
+		WebPartTemplate reloadedTemplate = new WebPartTemplate("infos/LinksInfo");
+		reloadedTemplate.initialize("<p/>");
+		assertNull(cache.get(key, config, reloadedTemplate));
+	}
+
+	/**
+	 *
+	 */
+	protected ModelConfig createConfig(String languageCode) {
+		ModelConfig result = mock(ModelConfig.class);
+		when(result.getLanguageCode()).thenReturn(languageCode);
+		when(result.getVersion()).thenReturn(1L);
+		return result;
+	}
+
+}
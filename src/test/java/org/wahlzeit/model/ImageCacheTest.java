@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Test;
+import org.wahlzeit.services.LruEvictionPolicy;
+import org.wahlzeit.services.OffHeapByteCache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ImageCache class.
+ */
+public class ImageCacheTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEvictionByBytes() {
+		ImageCache cache = new ImageCache(250, new LruEvictionPolicy<String>());
+		Image image1 = ImagesServiceFactory.makeImage(new byte[100]);
+		Image image2 = ImagesServiceFactory.makeImage(new byte[100]);
+		Image image3 = ImagesServiceFactory.makeImage(new byte[100]);
+
+		cache.put("x1", PhotoSize.THUMB, image1);
+		cache.put("x1", PhotoSize.SMALL, image2);
+		assertSame(image1, cache.get("x1", PhotoSize.THUMB));
+		cache.put("x2", PhotoSize.THUMB, image3);
+
+		assertEquals(2, cache.size());
+		assertEquals(200, cache.getBytes());
+		assertSame(image1, cache.get("x1", PhotoSize.THUMB));
+		assertNull(cache.get("x1", PhotoSize.SMALL));
+		assertSame(image3, cache.get("x2", PhotoSize.THUMB));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTooLargeImagesAreNotCached() {
+		ImageCache cache = new ImageCache(50, new LruEvictionPolicy<String>());
+		cache.put("x1", PhotoSize.THUMB, ImagesServiceFactory.makeImage(new byte[100]));
+
+		assertEquals(0, cache.size());
+		assertNull(cache.get("x1", PhotoSize.THUMB));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReplaceAndRemove() {
+		ImageCache cache = new ImageCache();
+		cache.put("x1", PhotoSize.THUMB, ImagesServiceFactory.makeImage(new byte[10]));
+		cache.put("x1", PhotoSize.THUMB, ImagesServiceFactory.makeImage(new byte[20]));
+		assertEquals(20, cache.getBytes());
+
+		cache.remove("x1", PhotoSize.THUMB);
+		assertEquals(0, cache.getBytes());
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLargerSizesAreKeptOffHeap() {
+		OffHeapByteCache offHeapImages = new OffHeapByteCache(1024, 64, new LruEvictionPolicy<String>());
+		ImageCache cache = new ImageCache(150, new LruEvictionPolicy<String>(), offHeapImages, PhotoSize.THUMB);
+		byte[] mediumData = new byte[100];
+		mediumData[99] = 42;
+		Image thumb1 = ImagesServiceFactory.makeImage(new byte[100]);
+
+		cache.put("x1", PhotoSize.THUMB, thumb1);
+		cache.put("x1", PhotoSize.MEDIUM, ImagesServiceFactory.makeImage(mediumData));
+		assertEquals(100, cache.getHeapBytes());
+		assertEquals(100, cache.getOffHeapBytes());
+		assertEquals(2, cache.size());
+
+		assertSame(thumb1, cache.get("x1", PhotoSize.THUMB));
+		assertArrayEquals(mediumData, cache.get("x1", PhotoSize.MEDIUM).getImageData());
+		assertNull(cache.get("x2", PhotoSize.MEDIUM));
+		assertEquals(1, cache.getNoHeapHits());
+		assertEquals(1, cache.getNoOffHeapHits());
+		assertEquals(1, cache.getNoMisses());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOffHeapImagesAreReadWithoutCopy() throws IOException {
+		OffHeapByteCache offHeapImages = new OffHeapByteCache(1024, 64, new LruEvictionPolicy<String>());
+		ImageCache cache = new ImageCache(150, new LruEvictionPolicy<String>(), offHeapImages, PhotoSize.THUMB);
+		byte[] mediumData = new byte[100];
+		mediumData[99] = 42;
+		cache.put("x1", PhotoSize.THUMB, ImagesServiceFactory.makeImage(new byte[100]));
+		cache.put("x1", PhotoSize.MEDIUM, ImagesServiceFactory.makeImage(mediumData));
+
+		assertNull(cache.getFromHeap("x1", PhotoSize.MEDIUM));
+		assertNotNull(cache.getFromHeap("x1", PhotoSize.THUMB));
+		assertEquals(-1, cache.getOffHeapLength("x1", PhotoSize.THUMB));
+		assertEquals(100, cache.getOffHeapLength("x1", PhotoSize.MEDIUM));
+		assertNull(cache.openOffHeapChannel("x2", PhotoSize.MEDIUM, 0));
+
+		ReadableByteChannel channel = cache.openOffHeapChannel("x1", PhotoSize.MEDIUM, 60);
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		assertEquals(40, channel.read(buffer));
+		assertEquals(42, buffer.get(39));
+		assertEquals(-1, channel.read(buffer));
+
+		assertEquals(1, cache.getNoHeapHits());
+		assertEquals(1, cache.getNoOffHeapHits());
+		assertEquals(0, cache.getNoMisses());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEvictedThumbnailsMoveOffHeap() {
+		OffHeapByteCache offHeapImages = new OffHeapByteCache(1024, 64, new LruEvictionPolicy<String>());
+		ImageCache cache = new ImageCache(150, new LruEvictionPolicy<String>(), offHeapImages, PhotoSize.THUMB);
+		cache.put("x1", PhotoSize.THUMB, ImagesServiceFactory.makeImage(new byte[100]));
+		cache.put("x2", PhotoSize.THUMB, ImagesServiceFactory.makeImage(new byte[100]));
+		assertEquals(100, cache.getHeapBytes());
+		assertEquals(100, cache.getOffHeapBytes());
+		assertTrue(cache.contains("x1", PhotoSize.THUMB));
+
+		// a hit moves the thumbnail back to the heap, which pushes the other one out
+		assertNotNull(cache.get("x1", PhotoSize.THUMB));
+		assertEquals(1, cache.getNoOffHeapHits());
+		assertSame(cache.get("x1", PhotoSize.THUMB), cache.get("x1", PhotoSize.THUMB));
+		assertEquals(2, cache.size());
+	}
+
+}
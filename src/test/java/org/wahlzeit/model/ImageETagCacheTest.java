@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ImageETagCache class.
+ */
+public class ImageETagCacheTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testETagIsComputedOnce() {
+		ImageETagCache cache = new ImageETagCache();
+		assertNull(cache.get("x1", PhotoSize.THUMB));
+
+		String eTag = cache.get("x1", PhotoSize.THUMB, new byte[] {1, 2, 3});
+		assertEquals("\"5289df737df57326fcdd22597afb1fac\"", eTag);
+		assertEquals(eTag, cache.get("x1", PhotoSize.THUMB));
+		assertEquals(eTag, cache.get("x1", PhotoSize.THUMB, new byte[] {4}));
+		assertNull(cache.get("x1", PhotoSize.SMALL));
+		assertNotEquals(eTag, cache.get("x1", PhotoSize.SMALL, new byte[] {4}));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLeastRecentlyUsedETagIsDropped() {
+		ImageETagCache cache = new ImageETagCache(2);
+		cache.get("x1", PhotoSize.THUMB, new byte[] {1});
+		cache.get("x2", PhotoSize.THUMB, new byte[] {2});
+		cache.get("x1", PhotoSize.THUMB);
+		cache.get("x3", PhotoSize.THUMB, new byte[] {3});
+
+		assertEquals(2, cache.size());
+		assertNull(cache.get("x2", PhotoSize.THUMB));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIfNoneMatch() {
+		String eTag = "\"abc\"";
+		assertTrue(ImageETagCache.matches("\"abc\"", eTag));
+		assertTrue(ImageETagCache.matches("\"xyz\", W/\"abc\"", eTag));
+		assertTrue(ImageETagCache.matches("*", eTag));
+		assertFalse(ImageETagCache.matches("\"xyz\"", eTag));
+		assertFalse(ImageETagCache.matches("abc", eTag));
+	}
+
+}
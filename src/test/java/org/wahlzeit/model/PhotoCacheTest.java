@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.wahlzeit.services.LfuEvictionPolicy;
+import org.wahlzeit.services.LruEvictionPolicy;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the PhotoCache class.
+ */
+public class PhotoCacheTest {
+
+	@ClassRule
+	public static LocalDatastoreServiceTestConfigProvider datastoreProvider =
+			new LocalDatastoreServiceTestConfigProvider();
+
+	/**
+	 *
+	 */
+	protected Photo createCleanPhoto(int imageBytes) {
+		Photo result = new Photo();
+		if (imageBytes > 0) {
+			result.setImage(PhotoSize.THUMB, ImagesServiceFactory.makeImage(new byte[imageBytes]));
+		}
+		result.resetWriteCount();
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLruEvictionByPhotoCount() {
+		PhotoCache cache = new PhotoCache(2, 1024, new LruEvictionPolicy<PhotoId>());
+		Photo photo1 = createCleanPhoto(0);
+		Photo photo2 = createCleanPhoto(0);
+		Photo photo3 = createCleanPhoto(0);
+
+		cache.put(photo1);
+		cache.put(photo2);
+		assertSame(photo1, cache.get(photo1.getId())); // photo2 is now least recently used
+		cache.put(photo3);
+
+		assertEquals(2, cache.size());
+		assertTrue(cache.contains(photo1.getId()));
+		assertFalse(cache.contains(photo2.getId()));
+		assertTrue(cache.contains(photo3.getId()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLfuEvictionByPhotoCount() {
+		PhotoCache cache = new PhotoCache(2, 1024, new LfuEvictionPolicy<PhotoId>());
+		Photo photo1 = createCleanPhoto(0);
+		Photo photo2 = createCleanPhoto(0);
+		Photo photo3 = createCleanPhoto(0);
+
+		cache.put(photo1);
+		cache.put(photo2);
+		cache.get(photo2.getId());
+		cache.get(photo2.getId());
+		cache.get(photo1.getId());
+		cache.put(photo3);
+
+		assertFalse(cache.contains(photo1.getId()));
+		assertTrue(cache.contains(photo2.getId()));
+		assertTrue(cache.contains(photo3.getId()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEvictionByImageBytes() {
+		PhotoCache cache = new PhotoCache(10, 250, new LruEvictionPolicy<PhotoId>());
+		Photo photo1 = createCleanPhoto(100);
+		Photo photo2 = createCleanPhoto(100);
+		Photo photo3 = createCleanPhoto(100);
+
+		cache.put(photo1);
+		cache.put(photo2);
+		assertEquals(200, cache.getImageBytes());
+		cache.put(photo3);
+
+		assertEquals(2, cache.size());
+		assertEquals(200, cache.getImageBytes());
+		assertFalse(cache.contains(photo1.getId()));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDirtyPhotosAreNotEvicted() {
+		PhotoCache cache = new PhotoCache(1, 1024, new LruEvictionPolicy<PhotoId>());
+		Photo dirtyPhoto = createCleanPhoto(0);
+		dirtyPhoto.touch();
+		Photo photo = createCleanPhoto(0);
+
+		cache.put(dirtyPhoto);
+		cache.put(photo);
+
+		assertTrue(cache.contains(dirtyPhoto.getId()));
+		assertTrue(cache.contains(photo.getId()));
+
+		dirtyPhoto.resetWriteCount();
+		cache.put(createCleanPhoto(0));
+		assertEquals(1, cache.size());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPutIfAbsentAndUpdateImageBytes() {
+		PhotoCache cache = new PhotoCache();
+		Photo photo = createCleanPhoto(0);
+		Photo copy = new Photo(photo.getId());
+
+		assertSame(photo, cache.putIfAbsent(photo));
+		assertSame(photo, cache.putIfAbsent(copy));
+		assertEquals(0, cache.getImageBytes());
+
+		photo.setImage(PhotoSize.SMALL, ImagesServiceFactory.makeImage(new byte[42]));
+		cache.updateImageBytes(photo);
+		assertEquals(42, cache.getImageBytes());
+
+		assertSame(photo, cache.remove(photo.getId()));
+		assertNull(cache.get(photo.getId()));
+		assertEquals(0, cache.getImageBytes());
+	}
+
+}
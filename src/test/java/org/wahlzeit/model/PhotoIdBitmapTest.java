@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the PhotoIdBitmap class.
+ */
+public class PhotoIdBitmapTest {
+
+	/**
+	 *
+	 */
+	protected static PhotoIdBitmap createBitmap(int... ids) {
+		PhotoIdBitmap result = new PhotoIdBitmap();
+		for (int id : ids) {
+			result.add(id);
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected static void assertIds(PhotoIdBitmap bitmap, int... expectedIds) {
+		assertEquals(expectedIds.length, bitmap.size());
+		int id = -1;
+		for (int expectedId : expectedIds) {
+			id = bitmap.nextId(id + 1);
+			assertEquals(expectedId, id);
+		}
+		assertEquals(-1, bitmap.nextId(id + 1));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddRemoveContains() {
+		PhotoIdBitmap bitmap = createBitmap(5, 200000, 63, 64, 5);
+		assertIds(bitmap, 5, 63, 64, 200000);
+		assertTrue(bitmap.contains(64));
+		assertFalse(bitmap.contains(65));
+		assertFalse(bitmap.contains(1000));
+
+		assertTrue(bitmap.remove(64));
+		assertFalse(bitmap.remove(64));
+		assertEquals(2, bitmap.length);
+		assertIds(bitmap, 5, 63, 200000);
+
+		bitmap.clear();
+		assertTrue(bitmap.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSetOperations() {
+		PhotoIdBitmap bitmap = createBitmap(1, 2, 3, 100, 130, 5000);
+		PhotoIdBitmap other = createBitmap(2, 3, 130, 131, 9000);
+
+		PhotoIdBitmap and = bitmap.copy();
+		and.and(other);
+		assertIds(and, 2, 3, 130);
+
+		PhotoIdBitmap andNot = bitmap.copy();
+		andNot.andNot(other);
+		assertIds(andNot, 1, 100, 5000);
+
+		PhotoIdBitmap or = bitmap.copy();
+		or.or(other);
+		assertIds(or, 1, 2, 3, 100, 130, 131, 5000, 9000);
+
+		assertIds(bitmap, 1, 2, 3, 100, 130, 5000);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSerializationKeepsIds() throws Exception {
+		PhotoIdBitmap bitmap = createBitmap(7, 70, 700);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(bitmap);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		PhotoIdBitmap result = (PhotoIdBitmap) in.readObject();
+
+		assertIds(result, 7, 70, 700);
+		result.add(8);
+		assertIds(result, 7, 8, 70, 700);
+	}
+
+}
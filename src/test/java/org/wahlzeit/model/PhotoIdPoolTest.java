@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the PhotoIdPool class.
+ */
+public class PhotoIdPoolTest {
+
+	private int currentId;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		currentId = PhotoId.getCurrentIdAsInt();
+		PhotoId.setCurrentIdFromInt(10);
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		PhotoId.setCurrentIdFromInt(currentId);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddAndRemove() {
+		PhotoIdPool pool = new PhotoIdPool();
+		assertSame(PhotoId.NULL_ID, pool.getRandomId(new Random()));
+
+		for (int i = 1; i <= 5; i++) {
+			assertTrue(pool.add(PhotoId.getIdFromInt(i)));
+		}
+		assertFalse(pool.add(PhotoId.getIdFromInt(3)));
+		assertTrue(pool.remove(PhotoId.getIdFromInt(1)));
+		assertFalse(pool.remove(PhotoId.getIdFromInt(1)));
+		assertTrue(pool.remove(PhotoId.getIdFromInt(5)));
+
+		assertEquals(3, pool.size());
+		assertTrue(pool.contains(PhotoId.getIdFromInt(2)));
+		assertFalse(pool.contains(PhotoId.getIdFromInt(5)));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRandomIdIsUniform() {
+		PhotoIdBitmap bitmap = new PhotoIdBitmap();
+		for (int i = 1; i <= 10; i++) {
+			bitmap.add(i);
+		}
+		PhotoIdPool pool = new PhotoIdPool(bitmap);
+
+		int[] counts = new int[11];
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			counts[pool.getRandomId(random).asInt()]++;
+		}
+
+		assertEquals(0, counts[0]);
+		for (int i = 1; i <= 10; i++) {
+			assertTrue("id " + i + " picked " + counts[i] + " times", counts[i] > 850 && counts[i] < 1150);
+		}
+	}
+
+}
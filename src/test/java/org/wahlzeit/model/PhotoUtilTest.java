@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for the PhotoUtil class.
+ */
+public class PhotoUtilTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLargestSizeIsAlwaysScaled() {
+		Set<PhotoSize> uploadSizes = EnumSet.of(PhotoSize.THUMB, PhotoSize.MEDIUM);
+
+		assertEquals(EnumSet.of(PhotoSize.THUMB, PhotoSize.MEDIUM, PhotoSize.EXTRA_LARGE),
+				PhotoUtil.getScaledSizes(uploadSizes, 2000, 2000));
+		assertEquals(EnumSet.of(PhotoSize.THUMB, PhotoSize.MEDIUM, PhotoSize.LARGE),
+				PhotoUtil.getScaledSizes(uploadSizes, 700, 500));
+		assertEquals(uploadSizes, PhotoUtil.getScaledSizes(uploadSizes, 500, 500));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testContentTypeIsDetectedFromData() {
+		byte[] png = new byte[] {(byte) 0x89, 'P', 'N', 'G', 0x0d, 0x0a};
+		assertEquals("image/png", PhotoUtil.getContentType(png, "jpg"));
+	}
+
+}
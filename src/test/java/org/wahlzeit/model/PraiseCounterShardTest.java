@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the PraiseCounterShard class.
+ */
+public class PraiseCounterShardTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBatchIsAddedOnce() {
+		PraiseCounterShard shard = new PraiseCounterShard();
+		shard.addPraise("a", 17, 3);
+		shard.addPraise("b", 5, 1);
+		shard.addPraise("a", 17, 3);
+
+		assertEquals(22, shard.getPraiseSum());
+		assertEquals(4, shard.getNoVotes());
+		assertTrue(shard.hasBatch("a"));
+		assertFalse(shard.hasBatch("c"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOldestBatchIsForgotten() {
+		PraiseCounterShard shard = new PraiseCounterShard();
+		for (int i = 0; i <= PraiseCounterShard.MAX_RECENT_BATCH_IDS; i++) {
+			shard.addPraise(String.valueOf(i), 1, 1);
+		}
+
+		assertFalse(shard.hasBatch("0"));
+		assertTrue(shard.hasBatch("1"));
+		assertTrue(shard.hasBatch(String.valueOf(PraiseCounterShard.MAX_RECENT_BATCH_IDS)));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddingPraiseNeedsAggregation() {
+		PraiseCounterShard shard = new PraiseCounterShard();
+		shard.setAggregated(true);
+		shard.addPraise("a", 1, 1);
+		assertFalse(shard.isAggregated());
+
+		shard.setAggregated(true);
+		shard.addPraise("a", 1, 1);
+		assertTrue(shard.isAggregated());
+	}
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ScalingPipeline class.
+ */
+public class ScalingPipelineTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStagesAreLargestFirst() {
+		ScalingPipeline pipeline = new ScalingPipeline(2);
+		List<List<PhotoSize>> stages = pipeline.getStages(EnumSet.allOf(PhotoSize.class), 2000, 2000);
+
+		assertEquals(3, stages.size());
+		assertEquals(Arrays.asList(PhotoSize.EXTRA_LARGE, PhotoSize.LARGE), stages.get(0));
+		assertEquals(Arrays.asList(PhotoSize.MEDIUM, PhotoSize.SMALL), stages.get(1));
+		assertEquals(Arrays.asList(PhotoSize.EXTRA_SMALL, PhotoSize.THUMB), stages.get(2));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSizesLargerThanSourceAreSkipped() {
+		ScalingPipeline pipeline = new ScalingPipeline(3);
+		List<List<PhotoSize>> stages = pipeline.getStages(EnumSet.allOf(PhotoSize.class), 500, 500);
+
+		assertEquals(2, stages.size());
+		assertEquals(Arrays.asList(PhotoSize.MEDIUM, PhotoSize.SMALL, PhotoSize.EXTRA_SMALL), stages.get(0));
+		assertEquals(Arrays.asList(PhotoSize.THUMB), stages.get(1));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOnlyRequestedSizesArePlanned() {
+		ScalingPipeline pipeline = new ScalingPipeline(1);
+		List<List<PhotoSize>> stages = pipeline.getStages(Arrays.asList(PhotoSize.THUMB, PhotoSize.MEDIUM), 2000, 2000);
+
+		assertEquals(2, stages.size());
+		assertEquals(Arrays.asList(PhotoSize.MEDIUM), stages.get(0));
+		assertEquals(Arrays.asList(PhotoSize.THUMB), stages.get(1));
+		assertTrue(pipeline.getStages(EnumSet.of(PhotoSize.EXTRA_LARGE), 100, 100).isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoChainsMustBePositive() {
+		new ScalingPipeline(0);
+	}
+
+}
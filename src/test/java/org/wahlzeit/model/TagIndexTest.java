@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the TagIndex and PostingList classes.
+ */
+public class TagIndexTest {
+
+	protected TagIndex tagIndex;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		tagIndex = new TagIndex();
+		tagIndex.update(new PhotoId(3), new HashSet<String>(Arrays.asList("un:alice", "tg:alice", "tg:cat")));
+		tagIndex.update(new PhotoId(1), new HashSet<String>(Arrays.asList("un:bob", "tg:bob", "tg:cat")));
+		tagIndex.update(new PhotoId(2), new HashSet<String>(Arrays.asList("un:bob", "tg:bob", "tg:dog")));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPostingListsAreSorted() {
+		assertArrayEquals(new int[] {1, 3}, tagIndex.getPhotoIds("tg:cat").asArray());
+		assertArrayEquals(new int[] {1, 2}, tagIndex.getPhotoIds("un:bob").asArray());
+		assertTrue(tagIndex.getPhotoIds("tg:unknown").isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAndOrQueries() {
+		assertArrayEquals(new int[] {1}, tagIndex.getPhotoIdsWithAllTags(Arrays.asList("un:bob", "tg:cat")).asArray());
+		assertTrue(tagIndex.getPhotoIdsWithAllTags(Arrays.asList("un:alice", "tg:dog")).isEmpty());
+		assertTrue(tagIndex.getPhotoIdsWithAllTags(Collections.<String>emptyList()).isEmpty());
+
+		assertArrayEquals(new int[] {1, 2, 3},
+				tagIndex.getPhotoIdsWithAnyTag(Arrays.asList("tg:cat", "tg:dog", "tg:unknown")).asArray());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUpdateReplacesOldTags() {
+		tagIndex.update(new PhotoId(3), new HashSet<String>(Arrays.asList("un:alice", "tg:alice", "tg:dog")));
+
+		assertArrayEquals(new int[] {1}, tagIndex.getPhotoIds("tg:cat").asArray());
+		assertArrayEquals(new int[] {2, 3}, tagIndex.getPhotoIds("tg:dog").asArray());
+		assertEquals(3, tagIndex.getTags(new PhotoId(3)).size());
+
+		tagIndex.remove(new PhotoId(1));
+		tagIndex.remove(new PhotoId(3));
+		assertTrue(tagIndex.getPhotoIds("tg:cat").isEmpty());
+		assertTrue(tagIndex.getTags(new PhotoId(3)).isEmpty());
+		assertEquals(3, tagIndex.getNoTags());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testQueryResultsAreCopies() {
+		PostingList result = tagIndex.getPhotoIds("tg:cat");
+		result.add(7);
+
+		assertArrayEquals(new int[] {1, 3}, tagIndex.getPhotoIds("tg:cat").asArray());
+	}
+
+}
@@ -0,0 +1,70 @@
+package org.wahlzeit.model.persistence;
+
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the local file system adapter.
+ */
+public class FileSystemAdapterTest extends AbstractAdapterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File photosDir;
+
+	@Override
+	protected void storageDependentSetUp() {
+		try {
+			photosDir = folder.newFolder("photos");
+			imageStorage = new FileSystemAdapter(photosDir, folder.newFolder("temp"));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test
+	public void testReplacedFileIsReadAgain() throws IOException {
+		byte[] data1 = new byte[] {1, 2, 3};
+		byte[] data2 = new byte[] {4, 5};
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(data1), "replaced", 0);
+		assertArrayEquals(data1, ((Image) imageStorage.readImage("replaced", 0)).getImageData());
+
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(data2), "replaced", 0);
+		assertArrayEquals(data2, ((Image) imageStorage.readImage("replaced", 0)).getImageData());
+		assertEquals(1, photosDir.list().length);
+	}
+
+	@Test
+	public void testOpenImageChannel() throws IOException {
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(new byte[] {1, 2, 3, 4}), "channel", 1);
+		assertEquals(4, imageStorage.getImageLength("channel", 1));
+		assertEquals(-1, imageStorage.getImageLength("channel", 2));
+		assertNull(imageStorage.openImageChannel("channel", 2, 0));
+
+		ReadableByteChannel channel = imageStorage.openImageChannel("channel", 1, 1);
+		try {
+			assertTrue(channel instanceof FileChannel);
+			ByteBuffer bb = ByteBuffer.allocate(8);
+			channel.read(bb);
+			assertEquals(3, bb.position());
+			assertEquals(2, bb.get(0));
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -1,7 +1,19 @@
 package org.wahlzeit.model.persistence;
 
+import com.google.appengine.api.images.Image;
+import com.google.appengine.api.images.ImagesServiceFactory;
 import com.google.appengine.tools.development.testing.LocalBlobstoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 /**
  * Test cases for the Google Cloud Storage adapter.
@@ -21,4 +33,38 @@ public class GcsAdapterTest extends AbstractAdapterTest {
 	protected void storageDependentTearDown() {
 		helper.tearDown();
 	}
+
+	@Test
+	public void testReadImageHasExactLength() throws IOException {
+		byte[] smallData = createData(1000);
+		byte[] largeData = createData(1024 * 1024 * 3 / 2);
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(smallData), "length", 0);
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(largeData), "length", 5);
+
+		assertArrayEquals(smallData, ((Image) imageStorage.readImage("length", 0)).getImageData());
+		assertArrayEquals(largeData, ((Image) imageStorage.readImage("length", 5)).getImageData());
+		assertEquals(largeData.length, imageStorage.getImageLength("length", 5));
+		assertEquals(-1, imageStorage.getImageLength("length", 1));
+	}
+
+	@Test
+	public void testReadImages() throws IOException {
+		byte[] data0 = createData(2000);
+		byte[] data2 = createData(3000);
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(data0), "prefetch", 0);
+		imageStorage.writeImage(ImagesServiceFactory.makeImage(data2), "prefetch", 2);
+
+		Map<Integer, Serializable> images = imageStorage.readImages("prefetch", 0, 1, 2);
+		assertEquals(2, images.size());
+		assertFalse(images.containsKey(1));
+		assertArrayEquals(data0, ((Image) images.get(0)).getImageData());
+		assertArrayEquals(data2, ((Image) images.get(2)).getImageData());
+	}
+
+	private byte[] createData(int length) {
+		byte[] result = new byte[length];
+		Arrays.fill(result, (byte) 7);
+		result[length - 1] = 42;
+		return result;
+	}
 }
@@ -0,0 +1,67 @@
+package org.wahlzeit.model.persistence;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ImageExistenceCache class.
+ */
+public class ImageExistenceCacheTest {
+
+	protected long currentTime;
+	protected ImageExistenceCache cache;
+
+	@Before
+	public void setUp() {
+		currentTime = 1000;
+		cache = new ImageExistenceCache(2, 100) {
+			@Override
+			protected long getCurrentTime() {
+				return currentTime;
+			}
+		};
+	}
+
+	@Test
+	public void testExistingImagesStayKnown() {
+		assertFalse(cache.isKnownToExist("x1", 0));
+		assertFalse(cache.isKnownToBeMissing("x1", 0));
+
+		cache.recordExistence("x1", 0, true);
+		currentTime += 1000;
+		assertTrue(cache.isKnownToExist("x1", 0));
+		assertFalse(cache.isKnownToBeMissing("x1", 0));
+		assertFalse(cache.isKnownToExist("x1", 1));
+	}
+
+	@Test
+	public void testMissingImagesExpire() {
+		cache.recordExistence("x1", 0, false);
+		assertTrue(cache.isKnownToBeMissing("x1", 0));
+		assertFalse(cache.isKnownToExist("x1", 0));
+
+		currentTime += 100;
+		assertFalse(cache.isKnownToBeMissing("x1", 0));
+		assertEquals(0, cache.size());
+
+		cache.recordExistence("x1", 0, false);
+		cache.recordExistence("x1", 0, true);
+		assertTrue(cache.isKnownToExist("x1", 0));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEntryIsDropped() {
+		cache.recordExistence("x1", 0, true);
+		cache.recordExistence("x2", 0, true);
+		cache.isKnownToExist("x1", 0);
+		cache.recordExistence("x3", 0, true);
+
+		assertEquals(2, cache.size());
+		assertTrue(cache.isKnownToExist("x1", 0));
+		assertFalse(cache.isKnownToExist("x2", 0));
+	}
+}
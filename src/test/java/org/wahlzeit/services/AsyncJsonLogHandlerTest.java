@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the AsyncJsonLogHandler class.
+ */
+public class AsyncJsonLogHandlerTest {
+
+	protected StringWriter output;
+	protected AsyncJsonLogHandler handler;
+	protected Logger logger;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		output = new StringWriter();
+		handler = new AsyncJsonLogHandler(output, 4, AsyncJsonLogHandler.OverflowPolicy.DROP);
+		logger = Logger.getLogger(AsyncJsonLogHandlerTest.class.getName());
+		logger.setUseParentHandlers(false);
+		logger.addHandler(handler);
+		logger.setLevel(Level.INFO);
+		SessionManager.dropThreadLocalSession();
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		logger.removeHandler(handler);
+		logger.setUseParentHandlers(true);
+		logger.setLevel(null);
+		handler.close();
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRecordsAreOnlyWrittenByWriterOrFlush() {
+		logger.info("first");
+		assertEquals(1, handler.getNoPending());
+		assertEquals("", output.toString());
+
+		handler.flush();
+		assertEquals(0, handler.getNoPending());
+		assertEquals(1, handler.getNoWritten());
+		String line = output.toString();
+		assertTrue(line.startsWith("{\"time\":\""));
+		assertTrue(line.contains("\"level\":\"INFO\""));
+		assertTrue(line.contains("\"logger\":\"" + AsyncJsonLogHandlerTest.class.getName() + "\""));
+		assertTrue(line.contains("\"session\":\"" + Session.NO_SESSION + "\""));
+		assertTrue(line.contains("\"message\":\"first\""));
+		assertTrue(line.endsWith("}\n"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEventEntriesBecomeFields() {
+		EventLogger log = new EventLogger(logger);
+		log.info().action("load image").with("photo ID", "x1").message("done").duration(System.nanoTime()).log();
+		handler.flush();
+
+		String line = output.toString();
+		assertTrue(line.contains("\"type\":\"system\""));
+		assertTrue(line.contains("\"action\":\"load image\""));
+		assertTrue(line.contains("\"message\":\"done\""));
+		assertTrue(line.contains("\"durationMs\":0"));
+		assertTrue(line.contains("\"data\":{\"photo ID\":\"x1\"}"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStringsAreEscaped() {
+		logger.info("say \"hi\"\\\n\tnow\u0001");
+		handler.flush();
+
+		assertTrue(output.toString().contains("\"message\":\"say \\\"hi\\\"\\\\\\n\\tnow\\u0001\""));
+		assertEquals(1, output.toString().split("\n").length);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testExceptionIsWritten() {
+		logger.log(Level.WARNING, "failed", new IllegalStateException("broken"));
+		handler.flush();
+
+		assertTrue(output.toString().contains("\"exception\":\"java.lang.IllegalStateException: broken\\n\\tat "));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDropPolicyCountsOverflow() {
+		for (int i = 0; i < 6; i++) {
+			logger.info("record " + i);
+		}
+		assertEquals(2, handler.getNoDropped());
+
+		handler.flush();
+		String[] lines = output.toString().split("\n");
+		assertEquals(5, lines.length);
+		assertTrue(lines[3].contains("record 3"));
+		assertTrue(lines[4].contains("\"dropped\":2"));
+
+		// the drop is only reported once
+		logger.info("record 6");
+		handler.flush();
+		assertEquals(6, output.toString().split("\n").length);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBlockPolicyWaitsForWriter() throws InterruptedException {
+		logger.removeHandler(handler);
+		handler.close();
+		handler = new AsyncJsonLogHandler(output, 4, AsyncJsonLogHandler.OverflowPolicy.BLOCK);
+		logger.addHandler(handler);
+		assertTrue(handler.start(Executors.defaultThreadFactory()));
+
+		for (int i = 0; i < 100; i++) {
+			logger.info("record " + i);
+		}
+		handler.flush();
+
+		assertEquals(0, handler.getNoDropped());
+		assertEquals(100, handler.getNoWritten());
+		assertEquals(100, output.toString().split("\n").length);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPublishWakesIdleWriter() throws InterruptedException {
+		assertTrue(handler.start(Executors.defaultThreadFactory()));
+		Thread.sleep(50);
+
+		logger.info("wake up");
+		long deadline = System.currentTimeMillis() + AsyncJsonLogHandler.DEFAULT_IDLE_WAIT / 2;
+		while (handler.getNoWritten() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(1, handler.getNoWritten());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCloseWritesPendingRecordsAndStopsPublishing() {
+		assertTrue(handler.start(Executors.defaultThreadFactory()));
+		logger.info("last");
+		handler.close();
+
+		assertFalse(handler.isStarted());
+		assertTrue(output.toString().contains("\"message\":\"last\""));
+
+		handler.publish(new LogRecord(Level.INFO, "after close"));
+		assertEquals(0, handler.getNoPending());
+	}
+
+}
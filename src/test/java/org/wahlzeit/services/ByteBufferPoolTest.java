@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for the ByteBufferPool class.
+ */
+public class ByteBufferPoolTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBuffersAreReused() {
+		ByteBufferPool pool = new ByteBufferPool(16, 1);
+		ByteBuffer buffer1 = pool.acquire();
+		ByteBuffer buffer2 = pool.acquire();
+		assertNotSame(buffer1, buffer2);
+		assertEquals(16, buffer1.capacity());
+
+		buffer1.put((byte) 1);
+		pool.release(buffer1);
+		pool.release(buffer2);
+		assertEquals(1, pool.getNoPooledBuffers());
+
+		ByteBuffer buffer3 = pool.acquire();
+		assertSame(buffer1, buffer3);
+		assertEquals(0, buffer3.position());
+		assertEquals(0, pool.getNoPooledBuffers());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testForeignBuffersAreNotPooled() {
+		ByteBufferPool pool = new ByteBufferPool(16, 4);
+		pool.release(ByteBuffer.allocate(8));
+		pool.release(null);
+		assertEquals(0, pool.getNoPooledBuffers());
+	}
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.appengine.api.datastore.Key;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.wahlzeit.testEnvironmentProvider.LocalDatastoreServiceTestConfigProvider;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the EntityShards class.
+ */
+public class EntityShardsTest {
+
+	@ClassRule
+	public static LocalDatastoreServiceTestConfigProvider localDatastoreServiceTestConfigProvider =
+			new LocalDatastoreServiceTestConfigProvider();
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSingleShardIsApplicationRootKey() {
+		EntityShards entityShards = new EntityShards(1);
+
+		assertEquals(1, entityShards.getNoShards());
+		assertEquals(ObjectManager.applicationRootKey, entityShards.getRootKey("x1abz"));
+		assertEquals(ObjectManager.applicationRootKey, EntityShards.getAllPossibleRootKeys().get(0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testKeysAreSpreadOverAllShards() {
+		EntityShards entityShards = new EntityShards(8);
+
+		Set<Key> usedRootKeys = new HashSet<Key>();
+		for (int i = 0; i < 1000; i++) {
+			String shardingKey = "x" + Integer.toString(i, 36);
+			Key rootKey = entityShards.getRootKey(shardingKey);
+			assertEquals(rootKey, entityShards.getRootKey(shardingKey));
+			usedRootKeys.add(rootKey);
+		}
+
+		assertEquals(8, usedRootKeys.size());
+		assertTrue(EntityShards.getAllPossibleRootKeys().containsAll(usedRootKeys));
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyShards() {
+		new EntityShards(EntityShards.MAX_NO_SHARDS + 1);
+	}
+
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import com.google.common.base.Supplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the EventLogger and LogEvent classes.
+ */
+public class EventLoggerTest {
+
+	protected Logger logger;
+	protected EventLogger log;
+	protected List<LogRecord> records;
+	protected Handler handler;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		records = new ArrayList<LogRecord>();
+		handler = new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				records.add(record);
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+
+		logger = Logger.getLogger(EventLoggerTest.class.getName());
+		logger.setUseParentHandlers(false);
+		logger.addHandler(handler);
+		logger.setLevel(Level.INFO);
+		log = new EventLogger(logger);
+		SessionManager.dropThreadLocalSession();
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void tearDown() {
+		logger.removeHandler(handler);
+		logger.setUseParentHandlers(true);
+		logger.setLevel(null);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDisabledLevelReturnsNoEvent() {
+		LogEvent event = log.config();
+		assertSame(LogEvent.NONE, event);
+		assertFalse(event.isEnabled());
+
+		event.action("load").with("photo ID", "x1").exception("failed", new Exception()).log();
+		assertEquals(0, LogEvent.NONE.getNoEntries());
+		assertTrue(records.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFormatMatchesLogBuilder() {
+		log.info().action("load image").with("photo ID", "x1").message("done").log();
+
+		assertEquals(1, records.size());
+		LogRecord record = records.get(0);
+		assertEquals(Level.INFO, record.getLevel());
+		assertEquals(logger.getName(), record.getLoggerName());
+		String expected = LogBuilder.createSystemMessage().
+				addAction("load image").
+				addParameter("photo ID", "x1").
+				addMessage("done").toString();
+		assertEquals(expected, record.getMessage());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUserEventLevel() {
+		log.userAt(Level.WARNING).message("bad input").log();
+
+		assertEquals(1, records.size());
+		assertTrue(records.get(0).getMessage().startsWith(LogBuilder.LEVEL + "=" + LogBuilder.USER_LEVEL));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSupplierIsOnlyEvaluatedWhenLogged() {
+		final int[] noCalls = new int[1];
+		Supplier<String> supplier = new Supplier<String>() {
+			@Override
+			public String get() {
+				noCalls[0]++;
+				return "expensive";
+			}
+		};
+
+		log.config().with("value", supplier).log();
+		assertEquals(0, noCalls[0]);
+
+		log.info().with("value", supplier).log();
+		assertEquals(1, noCalls[0]);
+		assertTrue(records.get(0).getMessage().endsWith("value=expensive"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testExceptionIsAttachedToRecord() {
+		Exception exception = new IllegalStateException("broken");
+		log.warning().exception("Could not load image", exception).log();
+
+		LogRecord record = records.get(0);
+		assertSame(exception, record.getThrown());
+		assertTrue(record.getMessage().endsWith(LogBuilder.EXCEPTION_REASON + "=Could not load image"));
+		assertFalse(record.getMessage().contains(LogBuilder.STACKTRACE));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEventIsReusedAndReset() {
+		LogEvent first = log.info().with("a", 1).exception("x", new Exception());
+		first.log();
+		LogEvent second = log.info();
+
+		assertSame(first, second);
+		assertEquals(0, second.getNoEntries());
+		second.log();
+		assertNull(records.get(1).getThrown());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testNestedEventsDoNotShareState() {
+		LogEvent outer = log.info().with("outer", 1);
+		LogEvent inner = log.info().with("inner", 2);
+		assertNotSame(outer, inner);
+
+		inner.log();
+		outer.log();
+		assertTrue(records.get(0).getMessage().endsWith("inner=2"));
+		assertTrue(records.get(1).getMessage().endsWith("outer=1"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEntriesGrowBeyondInitialCapacity() {
+		LogEvent event = log.info();
+		for (int i = 0; i < 2 * LogEvent.INITIAL_CAPACITY; i++) {
+			event.with("k" + i, i);
+		}
+
+		assertEquals(2 * LogEvent.INITIAL_CAPACITY, event.getNoEntries());
+		assertEquals("k9", event.getKey(9));
+		assertEquals(9, event.getValue(9));
+		event.log();
+		assertTrue(records.get(0).getMessage().endsWith("k15=15"));
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test cases for the OffHeapByteCache class.
+ */
+public class OffHeapByteCacheTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDataSpanningSeveralBlocks() {
+		OffHeapByteCache cache = new OffHeapByteCache(64, 16, new LruEvictionPolicy<String>());
+		byte[] data = new byte[40];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+
+		cache.put("a", data);
+		cache.put("b", new byte[] {1});
+		assertArrayEquals(data, cache.get("a"));
+		assertArrayEquals(new byte[] {1}, cache.get("b"));
+		assertEquals(41, cache.getBytes());
+		assertEquals(64, cache.getMaxBytes());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReadFromPosition() {
+		OffHeapByteCache cache = new OffHeapByteCache(64, 16, new LruEvictionPolicy<String>());
+		byte[] data = new byte[40];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		cache.put("b", new byte[] {1});
+		cache.put("a", data);
+		assertEquals(40, cache.getLength("a"));
+
+		ByteBuffer buffer = ByteBuffer.allocate(20);
+		assertEquals(20, cache.read("a", 10, buffer));
+		assertArrayEquals(Arrays.copyOfRange(data, 10, 30), buffer.array());
+
+		buffer.clear();
+		assertEquals(10, cache.read("a", 30, buffer));
+		assertEquals(39, buffer.get(9));
+		assertEquals(-1, cache.read("a", 40, buffer));
+		assertEquals(-1, cache.read("c", 0, buffer));
+		assertEquals(-1, cache.getLength("c"));
+		assertArrayEquals(data, cache.get("a"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEvictionFreesBlocks() {
+		OffHeapByteCache cache = new OffHeapByteCache(64, 16, new LruEvictionPolicy<String>());
+		cache.put("a", new byte[32]);
+		cache.put("b", new byte[16]);
+		cache.put("c", new byte[16]);
+		cache.get("a");
+		cache.put("d", new byte[20]);
+
+		assertNull(cache.get("b"));
+		assertNull(cache.get("c"));
+		assertEquals(52, cache.getBytes());
+		assertEquals(2, cache.size());
+
+		cache.put("e", new byte[65]);
+		assertNull(cache.get("e"));
+		cache.remove("a");
+		cache.put("e", new byte[48]);
+		assertNull(cache.get("d"));
+		assertEquals(48, cache.getBytes());
+	}
+
+}
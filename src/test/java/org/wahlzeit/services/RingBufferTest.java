@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the RingBuffer class.
+ */
+public class RingBufferTest {
+
+	/**
+	 *
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testCapacityMustBePowerOfTwo() {
+		new RingBuffer<String>(12);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOfferAndPollInOrder() {
+		RingBuffer<String> buffer = new RingBuffer<String>(4);
+		assertNull(buffer.poll());
+
+		// wrap around several times
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 4; i++) {
+				assertTrue(buffer.offer("e" + i));
+			}
+			assertFalse(buffer.offer("full"));
+			assertEquals(4, buffer.size());
+
+			for (int i = 0; i < 4; i++) {
+				assertEquals("e" + i, buffer.poll());
+			}
+			assertNull(buffer.poll());
+			assertTrue(buffer.isEmpty());
+		}
+		assertEquals(12, buffer.getNoOffered());
+		assertEquals(12, buffer.getNoPolled());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testDrainTo() {
+		RingBuffer<Integer> buffer = new RingBuffer<Integer>(8);
+		for (int i = 0; i < 5; i++) {
+			buffer.offer(i);
+		}
+
+		List<Integer> target = new ArrayList<Integer>();
+		assertEquals(3, buffer.drainTo(target, 3));
+		assertEquals(2, buffer.drainTo(target, 3));
+		assertEquals(0, buffer.drainTo(target, 3));
+		for (int i = 0; i < 5; i++) {
+			assertEquals(Integer.valueOf(i), target.get(i));
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentProducers() throws InterruptedException {
+		final int noThreads = 4;
+		final int noElementsPerThread = 10000;
+		final RingBuffer<Long> buffer = new RingBuffer<Long>(64);
+		final AtomicLong consumedSum = new AtomicLong();
+
+		Thread consumer = new Thread() {
+			public void run() {
+				int noConsumed = 0;
+				while (noConsumed < noThreads * noElementsPerThread) {
+					Long element = buffer.poll();
+					if (element != null) {
+						consumedSum.addAndGet(element);
+						noConsumed++;
+					} else {
+						Thread.yield();
+					}
+				}
+			}
+		};
+		consumer.start();
+
+		List<Thread> producers = new ArrayList<Thread>();
+		for (int t = 0; t < noThreads; t++) {
+			Thread producer = new Thread() {
+				public void run() {
+					for (long i = 1; i <= noElementsPerThread; i++) {
+						while (!buffer.offer(i)) {
+							Thread.yield();
+						}
+					}
+				}
+			};
+			producers.add(producer);
+			producer.start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		consumer.join(10000);
+
+		long expectedSum = noThreads * ((long) noElementsPerThread * (noElementsPerThread + 1) / 2);
+		assertEquals(expectedSum, consumedSum.get());
+		assertTrue(buffer.isEmpty());
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for the StripedCounter class.
+ */
+public class StripedCounterTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddAndReset() {
+		StripedCounter counter = new StripedCounter();
+		counter.add(5);
+		counter.increment();
+		counter.add(-2);
+		assertEquals(4, counter.sum());
+
+		assertEquals(4, counter.sumThenReset());
+		assertEquals(0, counter.sum());
+	}
+
+	/**
+	 *
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testNumberOfStripesMustBePowerOfTwo() {
+		new StripedCounter(6);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testConcurrentUpdatesAreNotLost() throws InterruptedException {
+		final StripedCounter counter = new StripedCounter(2);
+		final int noIncrements = 10000;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < noIncrements; j++) {
+						counter.increment();
+					}
+				}
+			});
+		}
+
+		long drained = 0;
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			drained += counter.sumThenReset();
+			thread.join();
+		}
+
+		assertEquals(8 * noIncrements, drained + counter.sum());
+	}
+
+}
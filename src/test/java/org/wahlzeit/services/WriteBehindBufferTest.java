@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the WriteBehindBuffer class.
+ */
+public class WriteBehindBufferTest {
+
+	protected long currentTime;
+	protected WriteBehindBuffer<String> buffer;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		currentTime = 1000;
+		buffer = new WriteBehindBuffer<String>(10, 100) {
+			@Override
+			protected long getCurrentTime() {
+				return currentTime;
+			}
+		};
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRepeatedMarksAreCoalesced() {
+		assertTrue(buffer.mark("a"));
+		assertFalse(buffer.mark("b"));
+		assertFalse(buffer.mark("a"));
+		assertFalse(buffer.mark("a"));
+
+		assertEquals(2, buffer.size());
+		assertTrue(buffer.isPending("a"));
+		assertEquals(Arrays.asList("a", "b"), buffer.drain());
+		assertEquals(0, buffer.size());
+
+		assertTrue(buffer.mark("a"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testKeysAreDueAfterWindow() {
+		assertFalse(buffer.isDue());
+		buffer.mark("a");
+		currentTime += 9;
+		assertFalse(buffer.isDue());
+		currentTime += 1;
+		assertTrue(buffer.isDue());
+
+		buffer.drain();
+		assertFalse(buffer.isDue());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLostFlushIsRequestedAgain() {
+		assertTrue(buffer.mark("a"));
+
+		currentTime += 100;
+		assertFalse(buffer.mark("b"));
+		currentTime += 1;
+		assertTrue(buffer.mark("c"));
+		assertFalse(buffer.mark("d"));
+
+		assertEquals(4, buffer.drain().size());
+	}
+
+}
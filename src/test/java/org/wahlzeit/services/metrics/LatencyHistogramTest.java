@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the LatencyHistogram class.
+ */
+public class LatencyHistogramTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBucketsCoverAllValues() {
+		int lastIndex = -1;
+		for (long value = 0; value < 100000; value++) {
+			int index = LatencyHistogram.getIndex(value);
+			assertTrue(index == lastIndex || index == lastIndex + 1);
+			assertTrue(LatencyHistogram.getHighestValue(index) >= value);
+			lastIndex = index;
+		}
+		assertEquals(LatencyHistogram.MAX_VALUE,
+				LatencyHistogram.getHighestValue(LatencyHistogram.getIndex(LatencyHistogram.MAX_VALUE)));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSmallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 50; value++) {
+			histogram.record(value);
+		}
+
+		assertEquals(50, histogram.getCount());
+		assertEquals(25.5, histogram.getMean(), 0.001);
+		assertEquals(25, histogram.getValueAtPercentile(50));
+		assertEquals(45, histogram.getValueAtPercentile(90));
+		assertEquals(50, histogram.getValueAtPercentile(100));
+		assertEquals(50, histogram.getMax());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLargeValuesWithinRelativeError() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 10000; value++) {
+			histogram.record(value * 1000);
+		}
+
+		long p99 = histogram.getValueAtPercentile(99);
+		assertTrue(Math.abs(p99 - 9900000) <= 9900000 / 32);
+		assertEquals(10000000, histogram.getMax());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testOutOfRangeValuesAreClamped() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+
+		assertEquals(2, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(50));
+		assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReset() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(100);
+		histogram.reset();
+
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getValueAtPercentile(99));
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.services.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the MetricsRegistry class.
+ */
+public class MetricsRegistryTest {
+
+	protected MetricsRegistry registry;
+	protected long currentTime;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() {
+		currentTime = 1000;
+		registry = new MetricsRegistry() {
+			@Override
+			protected long getCurrentTime() {
+				return currentTime;
+			}
+		};
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMetricsAreCreatedOncePerNameAndTag() {
+		LatencyHistogram histogram = registry.getHistogram("handler.get", "showPhoto");
+		assertSame(histogram, registry.getHistogram("handler.get", "showPhoto"));
+		assertNotSame(histogram, registry.getHistogram("handler.get", "about"));
+		assertNotSame(histogram, registry.getHistogram("handler.get"));
+		assertSame(registry.getCounter("uploads"), registry.getCounter("uploads", null));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAsText() {
+		LatencyHistogram histogram = registry.getHistogram("handler.get", "showPhoto");
+		histogram.record(40);
+		histogram.record(60);
+		registry.getCounter("uploads").add(4);
+		registry.registerGauge("cache.size", new Gauge() {
+			public long getValue() {
+				return 17;
+			}
+		});
+		currentTime += 2000;
+
+		String[] lines = registry.asText().split("\n");
+		assertEquals(4, lines.length);
+		assertEquals("# uptime=2.00s", lines[0]);
+		assertEquals("handler.get{showPhoto} count=2 rate=1.00/s mean=0.050ms p50=0.040ms p90=0.060ms "
+				+ "p99=0.060ms max=0.060ms", lines[1]);
+		assertEquals("uploads 4 rate=2.00/s", lines[2]);
+		assertEquals("cache.size 17", lines[3]);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRecordTime() {
+		registry.recordTime("storage.read", "DatastoreAdapter", System.nanoTime());
+		assertEquals(1, registry.getHistogram("storage.read", "DatastoreAdapter").getCount());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testResetKeepsGauges() {
+		registry.getHistogram("handler.get").record(10);
+		registry.getCounter("uploads").increment();
+		registry.registerGauge("cache.size", new Gauge() {
+			public long getValue() {
+				return 1;
+			}
+		});
+		currentTime += 5000;
+		registry.reset();
+
+		assertEquals(0, registry.getHistogram("handler.get").getCount());
+		assertEquals(0, registry.getCounter("uploads").sum());
+		assertTrue(registry.asText().startsWith("# uptime=0.00s"));
+		assertTrue(registry.asText().contains("cache.size 1"));
+	}
+
+}
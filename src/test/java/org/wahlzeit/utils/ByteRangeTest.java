@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test cases for the ByteRange class.
+ */
+public class ByteRangeTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRanges() {
+		ByteRange range = ByteRange.parse("bytes=0-99", 1000);
+		assertEquals(0, range.getFirst());
+		assertEquals(100, range.getLength());
+		assertEquals("bytes 0-99/1000", range.asContentRange());
+
+		range = ByteRange.parse("bytes=900-", 1000);
+		assertEquals(900, range.getFirst());
+		assertEquals(999, range.getLast());
+
+		range = ByteRange.parse("bytes=990-2000", 1000);
+		assertEquals(10, range.getLength());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSuffixRanges() {
+		ByteRange range = ByteRange.parse("bytes=-100", 1000);
+		assertEquals("bytes 900-999/1000", range.asContentRange());
+
+		range = ByteRange.parse("bytes=-2000", 1000);
+		assertEquals(0, range.getFirst());
+		assertEquals(1000, range.getLength());
+
+		assertFalse(ByteRange.parse("bytes=-0", 1000).isSatisfiable());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUnsatisfiableRange() {
+		ByteRange range = ByteRange.parse("bytes=1000-", 1000);
+		assertFalse(range.isSatisfiable());
+		assertEquals("bytes */1000", range.asContentRange());
+		assertTrue(ByteRange.parse("bytes=999-", 1000).isSatisfiable());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIgnoredHeaders() {
+		assertNull(ByteRange.parse(null, 1000));
+		assertNull(ByteRange.parse("items=0-1", 1000));
+		assertNull(ByteRange.parse("bytes=0-1,5-6", 1000));
+		assertNull(ByteRange.parse("bytes=5-1", 1000));
+		assertNull(ByteRange.parse("bytes=a-b", 1000));
+		assertNull(ByteRange.parse("bytes=10", 1000));
+	}
+
+}
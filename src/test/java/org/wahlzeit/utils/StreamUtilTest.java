@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.utils;
+
+import org.junit.Test;
+import org.wahlzeit.services.ByteBufferPool;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test cases for the StreamUtil class.
+ */
+public class StreamUtilTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testExpectedLengthIsRead() throws IOException {
+		byte[] data = createData(1000);
+		assertArrayEquals(data, StreamUtil.readFully(new ByteArrayInputStream(data), 1000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testShorterStreamIsTrimmed() throws IOException {
+		byte[] data = createData(1000);
+		assertArrayEquals(data, StreamUtil.readFully(new ByteArrayInputStream(data), 4000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testLongerStreamIsReadInChunks() throws IOException {
+		byte[] data = createData(3 * ByteBufferPool.DEFAULT_BUFFER_SIZE + 17);
+		assertArrayEquals(data, StreamUtil.readFully(new ByteArrayInputStream(data), 1000));
+		assertArrayEquals(data, StreamUtil.readFully(new ByteArrayInputStream(data), -1));
+		assertArrayEquals(data, StreamUtil.readFully(createSlowStream(data), -1));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testEmptyStreamIsRead() throws IOException {
+		assertArrayEquals(new byte[0], StreamUtil.readFully(new ByteArrayInputStream(new byte[0]), -1));
+		assertArrayEquals(new byte[0], StreamUtil.readFully(new ByteArrayInputStream(new byte[0]), 10));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBuffersAreReturnedToPool() throws IOException {
+		ByteBufferPool oldPool = ByteBufferPool.getInstance();
+		ByteBufferPool pool = new ByteBufferPool(64, 8);
+		ByteBufferPool.setInstance(pool);
+		try {
+			byte[] data = createData(300);
+			assertArrayEquals(data, StreamUtil.readFully(new ByteArrayInputStream(data), -1));
+			assertEquals(5, pool.getNoPooledBuffers());
+		} finally {
+			ByteBufferPool.setInstance(oldPool);
+		}
+	}
+
+	/**
+	 *
+	 */
+	protected byte[] createData(int length) {
+		byte[] result = new byte[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = (byte) (i * 31);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a stream that returns at most 100 bytes per read.
+	 */
+	protected InputStream createSlowStream(byte[] data) {
+		return new FilterInputStream(new ByteArrayInputStream(data)) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, 100));
+			}
+		};
+	}
+
+}
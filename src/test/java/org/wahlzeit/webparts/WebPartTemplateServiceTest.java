@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.wahlzeit.services.ConfigDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test cases for the WebPartTemplateService class.
+ */
+public class WebPartTemplateServiceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private WebPartTemplateService service;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setUp() throws IOException {
+		writeTemplate("default/en/infos/LinksInfo", "<p>links</p>");
+		writeTemplate("default/en/pages/ShowNotePage", "<p>{$note}</p>");
+		writeTemplate("default/de/infos/LinksInfo", "<p>Links</p>");
+		writeTemplate("custom/de/infos/BannerInfo", "<p>Banner</p>");
+
+		service = new WebPartTemplateService();
+		service.setTemplatesDir(new ConfigDir(folder.getRoot().getPath(), "templates"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAllTemplatesArePreloaded() {
+		service.preloadTemplates();
+
+		assertEquals(4, service.getNoTemplates());
+		assertEquals("<p>links</p>", service.getTemplate("en", "infos/LinksInfo").asString());
+		assertEquals("<p>Links</p>", service.getTemplate("de", "infos/LinksInfo").asString());
+		assertEquals("<p>Banner</p>", service.getTemplate("de", "infos/BannerInfo").asString());
+		assertEquals(1, service.getTemplate("en", "pages/ShowNotePage").getKeys().length);
+		assertEquals(4, service.getNoTemplates());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTemplatesAreLoadedOnDemand() {
+		WebPartTemplate template = service.getTemplate("en", "infos/LinksInfo");
+		assertEquals("<p>links</p>", template.asString());
+		assertSame(template, service.getTemplate("en", "infos/LinksInfo"));
+		assertEquals(1, service.getNoTemplates());
+		assertNull(service.getTemplate("en", "infos/MissingInfo"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testChangedTemplatesAreReloaded() throws IOException {
+		service.preloadTemplates();
+		service.startReloading(0);
+		WebPartTemplate template = service.getTemplate("en", "infos/LinksInfo");
+		assertSame(template, service.getTemplate("en", "infos/LinksInfo"));
+
+		File file = writeTemplate("default/en/infos/LinksInfo", "<p>new links</p>");
+		file.setLastModified(file.lastModified() + 2000);
+		WebPartTemplate newTemplate = service.getTemplate("en", "infos/LinksInfo");
+		assertNotSame(template, newTemplate);
+		assertEquals("<p>new links</p>", newTemplate.asString());
+
+		service.stopReloading();
+		writeTemplate("default/en/infos/LinksInfo", "<p>ignored</p>").setLastModified(file.lastModified() + 2000);
+		assertSame(newTemplate, service.getTemplate("en", "infos/LinksInfo"));
+	}
+
+	/**
+	 *
+	 */
+	protected File writeTemplate(String name, String source) throws IOException {
+		File result = new File(folder.getRoot(), "templates/" + name + ".html");
+		result.getParentFile().mkdirs();
+		Files.write(source, result, Charsets.UTF_8);
+		return result;
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2006-2009 by Dirk Riehle, http://dirkriehle.com
+ *
+ * This file is part of the Wahlzeit photo rating application.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public
+ * License along with this program. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+
+package org.wahlzeit.webparts;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Test cases for the WebPart and WebPartTemplate classes.
+ */
+public class WebPartTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTemplateIsCompiled() {
+		WebPartTemplate template = createTemplate("<p>{$a}, {$b} und {$a}</p>");
+
+		assertEquals(2, template.getNoPartKeys());
+		assertEquals(0, template.getKeyIndex("a"));
+		assertEquals(1, template.getKeyIndex("b"));
+		assertEquals(-1, template.getKeyIndex("c"));
+		assertEquals(4, template.getSegments().length);
+		assertEquals(" und ", new String(template.getSegments()[2], Charsets.UTF_8));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBytesMatchText() throws IOException {
+		WebPart part = new WebPart(createTemplate("<p>{$a}, {$b} gr\u00fc\u00dft {$a}{$part}</p>"));
+		part.addString("a", "\u00c4");
+		part.addString("c", "not written");
+		WebPart nested = new WebPart(createTemplate("<i>{$b}</i>"));
+		nested.addString("b", "\u20ac");
+		part.addWritable("part", nested);
+
+		String expected = "<p>\u00c4,  gr\u00fc\u00dft \u00c4<i>\u20ac</i></p>";
+		assertEquals(expected, asString(part));
+		assertEquals(expected, asBytes(part));
+		assertEquals("not written", part.getValue("c"));
+		assertNull(part.getValue("b"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTemplateWithoutSlotsIsWritten() throws IOException {
+		WebPart part = new WebPart(createTemplate("<br/>"));
+		assertEquals("<br/>", asBytes(part));
+
+		WritableList list = new WritableList().append(part).append(part);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		list.writeOn(out);
+		assertEquals("<br/><br/>", new String(out.toByteArray(), Charsets.UTF_8));
+	}
+
+	/**
+	 *
+	 */
+	protected WebPartTemplate createTemplate(String source) {
+		WebPartTemplate result = new WebPartTemplate("test");
+		result.initialize(source);
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	protected String asString(Writable writable) throws IOException {
+		StringWriter out = new StringWriter();
+		writable.writeOn(out);
+		return out.toString();
+	}
+
+	/**
+	 *
+	 */
+	protected String asBytes(Writable writable) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writable.writeOn(out);
+		return new String(out.toByteArray(), Charsets.UTF_8);
+	}
+
+}